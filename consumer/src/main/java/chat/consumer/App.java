@@ -40,16 +40,7 @@ public class App {
             roomManager.setBroadcaster(broadcaster);
 
             // 5) 启动消费者监督器（包含数据库初始化）
-            supervisor = new ConsumerSupervisor(
-                    mq,
-                    roomManager,
-                    broadcaster,
-                    cfg.consumerThreads,
-                    cfg.autoScale,
-                    cfg.minThreads,
-                    cfg.maxThreads,
-                    cfg.prefetch
-            );
+            supervisor = new ConsumerSupervisor(mq, roomManager, broadcaster, cfg);
 
             log.info("[CONF] mq={}://{}:{} vhost={} user={} exchange={} prefetch={} rooms={} servers={} token(***masked***) path={}",
                     "amqp", cfg.host, cfg.port, cfg.vhost, cfg.username, cfg.exchange, cfg.prefetch,
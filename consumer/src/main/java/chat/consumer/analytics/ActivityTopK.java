@@ -0,0 +1,232 @@
+package chat.consumer.analytics;
+
+import chat.consumer.model.ChatMessage;
+import chat.consumer.util.HyperLogLog;
+import chat.consumer.util.SpaceSaving;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存里的最活跃用户 / 房间（Space-Saving），由 MessageConsumer 在消息进入写缓冲后喂入。
+ *
+ * - 全量：每类一个 capacity 大小的 SpaceSaving，启动时用 user_statistics / room_statistics 里
+ *   计数最高的 capacity 行做种子；房间计数器附带 HyperLogLog（种子取 users_hll），给出去重用户数；
+ * - 滑动窗口：每分钟一个同样大小的 SpaceSaving，环形保留 windowMinutes 个，查询时合并最近 N 分钟
+ *   （含当前分钟）的计数；一分钟内频率超过 该分钟消息数 / capacity 的 key 一定被计入，
+ *   窗口结果是近似值，不带去重用户数；
+ * - 查询只在内存里排序 / 合并，不访问数据库。
+ *
+ * 所有方法在同一把锁下执行；record 每条消息只更新四个小根堆。
+ */
+public final class ActivityTopK {
+    private static final Logger log = LoggerFactory.getLogger(ActivityTopK.class);
+    private static final long BUCKET_MS = 60_000;
+
+    private final int capacity;
+    private final int windowMinutes;
+    private final SpaceSaving<Void> users;
+    private final SpaceSaving<HyperLogLog> rooms;
+    private final Bucket[] buckets;
+
+    /** 一分钟的计数 */
+    private static final class Bucket {
+        long minute = -1;
+        final SpaceSaving<Void> users;
+        final SpaceSaving<Void> rooms;
+
+        Bucket(int capacity) {
+            users = new SpaceSaving<>(capacity);
+            rooms = new SpaceSaving<>(capacity);
+        }
+    }
+
+    /**
+     * @param capacity      全量跟踪的用户 / 房间数
+     * @param windowMinutes 滑动窗口最长分钟数（0 = 只统计全量）
+     */
+    public ActivityTopK(int capacity, int windowMinutes) {
+        this.capacity = capacity;
+        this.windowMinutes = Math.max(0, windowMinutes);
+        this.users = new SpaceSaving<>(capacity);
+        this.rooms = new SpaceSaving<>(capacity);
+        this.buckets = new Bucket[this.windowMinutes];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket(capacity);
+        }
+    }
+
+    public int windowMinutes() {
+        return windowMinutes;
+    }
+
+    public void record(ChatMessage m) {
+        record(m.userId, m.username, m.roomId, System.currentTimeMillis());
+    }
+
+    public synchronized void record(String userId, String username, String roomId, long nowMs) {
+        if (userId != null) {
+            SpaceSaving.Counter<Void> u = users.add(userId, 1);
+            if (username != null) u.setLabel(username);
+        }
+        if (roomId != null) {
+            SpaceSaving.Counter<HyperLogLog> r = rooms.add(roomId, 1);
+            if (userId != null) {
+                HyperLogLog hll = r.attachment();
+                if (hll == null) {
+                    hll = new HyperLogLog();
+                    r.setAttachment(hll);
+                }
+                hll.add(userId);
+            }
+        }
+        if (buckets.length > 0) {
+            Bucket b = bucket(nowMs / BUCKET_MS);
+            if (userId != null) {
+                SpaceSaving.Counter<Void> u = b.users.add(userId, 1);
+                if (username != null) u.setLabel(username);
+            }
+            if (roomId != null) b.rooms.add(roomId, 1);
+        }
+    }
+
+    /** 当前分钟的桶；轮到的桶属于更早的分钟就清空复用 */
+    private Bucket bucket(long minute) {
+        Bucket b = buckets[(int) (minute % buckets.length)];
+        if (b.minute != minute) {
+            b.users.clear();
+            b.rooms.clear();
+            b.minute = minute;
+        }
+        return b;
+    }
+
+    /**
+     * @param minutes 最近多少分钟；<= 0 = 全量（超过 windowMinutes 按 windowMinutes 算）
+     */
+    public synchronized List<AnalyticsService.UserStats> topUsers(int limit, int minutes) {
+        List<AnalyticsService.UserStats> out = new ArrayList<>();
+        if (minutes <= 0 || buckets.length == 0) {
+            for (SpaceSaving.Counter<Void> c : users.top(limit)) {
+                out.add(userStats(c.key(), c.label(), c.count()));
+            }
+            return out;
+        }
+        Map<String, SpaceSaving.Counter<Void>> labels = new HashMap<>();
+        for (Map.Entry<String, Long> e : window(minutes, true, labels)) {
+            if (out.size() == limit) break;
+            SpaceSaving.Counter<Void> c = labels.get(e.getKey());
+            out.add(userStats(e.getKey(), c != null ? c.label() : null, e.getValue()));
+        }
+        return out;
+    }
+
+    public synchronized List<AnalyticsService.RoomStats> topRooms(int limit, int minutes) {
+        List<AnalyticsService.RoomStats> out = new ArrayList<>();
+        if (minutes <= 0 || buckets.length == 0) {
+            for (SpaceSaving.Counter<HyperLogLog> c : rooms.top(limit)) {
+                AnalyticsService.RoomStats room = roomStats(c.key(), c.count());
+                room.uniqueUsers = c.attachment() != null ? (int) c.attachment().estimate() : null;
+                out.add(room);
+            }
+            return out;
+        }
+        for (Map.Entry<String, Long> e : window(minutes, false, null)) {
+            if (out.size() == limit) break;
+            out.add(roomStats(e.getKey(), e.getValue()));
+        }
+        return out;
+    }
+
+    /** 合并最近 minutes 个分钟桶，按计数降序 */
+    private List<Map.Entry<String, Long>> window(int minutes, boolean ofUsers,
+                                                 Map<String, SpaceSaving.Counter<Void>> labels) {
+        long current = System.currentTimeMillis() / BUCKET_MS;
+        int n = Math.min(minutes, buckets.length);
+        Map<String, Long> sums = new HashMap<>();
+        for (long minute = current - n + 1; minute <= current; minute++) {
+            Bucket b = buckets[(int) (minute % buckets.length)];
+            if (b.minute != minute) continue;
+            for (SpaceSaving.Counter<Void> c : (ofUsers ? b.users : b.rooms).counters()) {
+                sums.merge(c.key(), c.count(), Long::sum);
+                if (labels != null && c.label() != null) labels.put(c.key(), c);
+            }
+        }
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(sums.entrySet());
+        sorted.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return sorted;
+    }
+
+    private static AnalyticsService.UserStats userStats(String userId, String username, long count) {
+        AnalyticsService.UserStats user = new AnalyticsService.UserStats();
+        user.userId = userId;
+        user.username = username;
+        user.messageCount = (int) Math.min(Integer.MAX_VALUE, count);
+        return user;
+    }
+
+    private static AnalyticsService.RoomStats roomStats(String roomId, long count) {
+        AnalyticsService.RoomStats room = new AnalyticsService.RoomStats();
+        room.roomId = roomId;
+        room.messageCount = (int) Math.min(Integer.MAX_VALUE, count);
+        return room;
+    }
+
+    /**
+     * 用预聚合表里计数最高的 capacity 个用户 / 房间做全量计数的种子（在开始消费之前调用）
+     */
+    public void seed(DataSource dataSource) {
+        int seededUsers = 0;
+        int seededRooms = 0;
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT user_id, username, total_messages FROM user_statistics " +
+                            "ORDER BY total_messages DESC LIMIT ?")) {
+                ps.setInt(1, capacity);
+                try (ResultSet rs = ps.executeQuery()) {
+                    synchronized (this) {
+                        while (rs.next()) {
+                            users.add(rs.getString(1), rs.getLong(3)).setLabel(rs.getString(2));
+                            seededUsers++;
+                        }
+                    }
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT room_id, total_messages, users_hll FROM room_statistics " +
+                            "ORDER BY total_messages DESC LIMIT ?")) {
+                ps.setInt(1, capacity);
+                try (ResultSet rs = ps.executeQuery()) {
+                    synchronized (this) {
+                        while (rs.next()) {
+                            SpaceSaving.Counter<HyperLogLog> c = rooms.add(rs.getString(1), rs.getLong(2));
+                            c.setAttachment(sketch(rs.getBytes(3)));
+                            seededRooms++;
+                        }
+                    }
+                }
+            }
+            log.info("Top-K seeded from statistics tables: {} users, {} rooms", seededUsers, seededRooms);
+        } catch (SQLException e) {
+            log.warn("Failed to seed top-K from statistics tables, starting empty: {}", e.getMessage());
+        }
+    }
+
+    private static HyperLogLog sketch(byte[] data) {
+        if (data == null) return null;
+        try {
+            return HyperLogLog.fromBytes(data);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
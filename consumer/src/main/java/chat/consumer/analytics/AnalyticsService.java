@@ -1,13 +1,18 @@
 package chat.consumer.analytics;
 
+import chat.consumer.util.HyperLogLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Analytics service for querying chat statistics
@@ -15,158 +20,314 @@ import java.util.*;
 public class AnalyticsService {
     private static final Logger log = LoggerFactory.getLogger(AnalyticsService.class);
 
+    static final String STATUS_OK = "ok";
+    static final String STATUS_TIMEOUT = "timeout";
+    static final String STATUS_REJECTED = "rejected";
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
     private final DataSource dataSource;
+    private final ExecutorService queryExecutor;
+    private final int queryTimeoutSeconds;
+    private final long metricsDeadlineMs;
+    private volatile ActivityTopK topK;     // 可选：内存 top-K（null = 查数据库）
 
     public AnalyticsService(DataSource dataSource) {
+        this(dataSource, 4, 0, 0);
+    }
+
+    /**
+     * @param queryThreads      getAllMetrics 并发查询的线程数（队列同样有界，排不上的分段记为 rejected）
+     * @param queryTimeoutMs    每条 JDBC 语句的超时（按秒向上取整；0 = 不限）
+     * @param metricsDeadlineMs getAllMetrics 的总截止时间，到时返回已完成的分段（0 = 等全部完成）
+     */
+    public AnalyticsService(DataSource dataSource, int queryThreads, long queryTimeoutMs, long metricsDeadlineMs) {
         this.dataSource = dataSource;
+        this.queryTimeoutSeconds = queryTimeoutMs > 0 ? (int) Math.max(1, (queryTimeoutMs + 999) / 1000) : 0;
+        this.metricsDeadlineMs = Math.max(0, metricsDeadlineMs);
+        int threads = Math.max(1, queryThreads);
+        AtomicInteger n = new AtomicInteger();
+        this.queryExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 16), r -> {
+                    Thread t = new Thread(r, "analytics-query-" + n.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /** 最活跃用户 / 房间改由内存 top-K 回答 */
+    public void setTopK(ActivityTopK topK) {
+        this.topK = topK;
+    }
+
+    public ActivityTopK getTopK() {
+        return topK;
     }
 
     /**
      * 获取所有metrics（核心查询 + Analytics查询）
+     *
+     * 各分段并发提交到查询线程池，整体耗时取决于最慢的一条查询而不是所有查询之和。
+     * 超过总截止时间还没完成的分段不再等待，响应里对应字段留空，sections 记录每段的状态
+     * （ok / timeout / rejected / error: ...），partial = 有分段缺失。
      */
     public MetricsResponse getAllMetrics() {
         MetricsResponse response = new MetricsResponse();
-
-        try {
-            // Core Queries
-            response.coreQueries = new CoreQueries();
-            response.coreQueries.sampleRoomMessages = getMessagesForRoom("1", null, null, 100);
-            response.coreQueries.sampleUserHistory = getUserMessageHistory("1", 50);
-            response.coreQueries.activeUsersLast24h = countActiveUsers(24);
-            response.coreQueries.userRooms = getUserRooms("1");
-
-            // Analytics Queries
-            response.analytics = new Analytics();
-            response.analytics.totalMessages = getTotalMessages();
-            response.analytics.messagesPerMinute = getMessagesPerMinute();
-            response.analytics.topActiveUsers = getTopActiveUsers(10);
-            response.analytics.topActiveRooms = getTopActiveRooms(10);
-            response.analytics.userParticipationSummary = getUserParticipationSummary();
-
-            // Database stats
-            response.databaseStats = getDatabaseStats();
-
-            response.success = true;
-            response.timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
-
-        } catch (Exception e) {
-            log.error("Error gathering metrics", e);
-            response.success = false;
-            response.error = e.getMessage();
+        CoreQueries core = new CoreQueries();
+        Analytics analytics = new Analytics();
+        response.coreQueries = core;
+        response.analytics = analytics;
+
+        long deadline = metricsDeadlineMs > 0 ? System.nanoTime() + metricsDeadlineMs * 1_000_000L : NO_DEADLINE;
+        List<Section<?>> sections = List.of(
+                // Core Queries
+                new Section<List<MessageSummary>>("sampleRoomMessages",
+                        () -> collect(sink -> streamMessagesForRoom("1", null, null, null, 100, sink)),
+                        v -> core.sampleRoomMessages = v),
+                new Section<List<MessageSummary>>("sampleUserHistory",
+                        () -> collect(sink -> streamUserMessageHistory("1", null, null, null, 50, sink)),
+                        v -> core.sampleUserHistory = v),
+                new Section<Integer>("activeUsersLast24h", () -> queryActiveUsers(24), v -> core.activeUsersLast24h = v),
+                new Section<List<RoomParticipation>>("userRooms", () -> queryUserRooms("1"), v -> core.userRooms = v),
+
+                // Analytics Queries
+                new Section<Long>("totalMessages", this::queryTotalMessages, v -> analytics.totalMessages = v),
+                new Section<Double>("messagesPerMinute", this::queryMessagesPerMinute,
+                        v -> analytics.messagesPerMinute = v),
+                new Section<List<UserStats>>("topActiveUsers", () -> queryTopActiveUsers(10),
+                        v -> analytics.topActiveUsers = v),
+                new Section<List<RoomStats>>("topActiveRooms", () -> queryTopActiveRooms(10),
+                        v -> analytics.topActiveRooms = v),
+                new Section<Map<String, Object>>("userParticipationSummary", this::queryUserParticipationSummary,
+                        v -> analytics.userParticipationSummary = v),
+
+                // Database stats
+                new Section<Map<String, Object>>("databaseStats", this::queryDatabaseStats,
+                        v -> response.databaseStats = v)
+        );
+
+        // 结果只在当前线程写入响应，查询线程不碰 response
+        response.sections = new LinkedHashMap<>();
+        int ok = 0;
+        for (Section<?> section : sections) {
+            String status = section.await(deadline);
+            response.sections.put(section.name, status);
+            if (STATUS_OK.equals(status)) ok++;
         }
 
+        response.partial = ok < sections.size();
+        response.success = ok > 0;
+        response.timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME);
+        if (response.partial) {
+            response.error = (sections.size() - ok) + " of " + sections.size() + " sections incomplete";
+            log.warn("Partial metrics response: {}", response.sections);
+        }
         return response;
     }
 
+    /** 流式历史查询收集成列表 */
+    private interface HistoryLoader {
+        String load(MessageSink sink) throws SQLException, IOException;
+    }
+
+    private static List<MessageSummary> collect(HistoryLoader loader) throws SQLException, IOException {
+        List<MessageSummary> messages = new ArrayList<>();
+        loader.load(messages::add);
+        return messages;
+    }
+
+    /**
+     * 历史消息逐行回调（流式读取时每读一行调用一次，调用方不应保留引用以外的状态）
+     */
+    public interface MessageSink {
+        void accept(MessageSummary message) throws IOException;
+    }
+
     /**
      * Core Query 1: Get messages for a room in time range
+     * 时间范围按 DATETIME 绑定，分区表上只访问范围内的分区
      */
     public List<MessageSummary> getMessagesForRoom(String roomId, String startTime, String endTime, int limit) {
         List<MessageSummary> messages = new ArrayList<>();
-
-        String sql = "SELECT message_id, user_id, username, message, message_type, timestamp " +
-                "FROM messages WHERE room_id = ? ";
-
-        if (startTime != null) sql += "AND timestamp >= ? ";
-        if (endTime != null) sql += "AND timestamp <= ? ";
-        sql += "ORDER BY timestamp DESC LIMIT ?";
-
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            int paramIndex = 1;
-            pstmt.setString(paramIndex++, roomId);
-            if (startTime != null) pstmt.setString(paramIndex++, startTime);
-            if (endTime != null) pstmt.setString(paramIndex++, endTime);
-            pstmt.setInt(paramIndex, limit);
-
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                MessageSummary msg = new MessageSummary();
-                msg.messageId = rs.getString("message_id");
-                msg.userId = rs.getString("user_id");
-                msg.username = rs.getString("username");
-                msg.message = rs.getString("message");
-                msg.messageType = rs.getString("message_type");
-                msg.timestamp = rs.getString("timestamp");
-                messages.add(msg);
-            }
-
-        } catch (SQLException e) {
+        try {
+            streamMessagesForRoom(roomId, startTime, endTime, null, limit, messages::add);
+        } catch (SQLException | IOException e) {
             log.error("Error getting room messages", e);
         }
-
         return messages;
     }
 
+    /**
+     * Core Query 1（分页 + 流式）：按 (timestamp, message_id) 倒序，从 cursor 之后读 limit 行，边读边交给 sink
+     * @param cursor 上一页返回的游标；null = 第一页
+     * @return 下一页的游标；没有更多数据时为 null
+     * @throws IllegalArgumentException 游标无效
+     */
+    public String streamMessagesForRoom(String roomId, String startTime, String endTime, String cursor, int limit,
+                                        MessageSink sink) throws SQLException, IOException {
+        return streamHistory("room_id", roomId, "user_id", startTime, endTime, cursor, limit, sink);
+    }
+
     /**
      * Core Query 2: Get user's message history
      */
     public List<MessageSummary> getUserMessageHistory(String userId, int limit) {
+        return getUserMessageHistory(userId, null, null, limit);
+    }
+
+    /**
+     * Core Query 2: Get user's message history in time range（可选；有范围时分区表只访问相关分区）
+     */
+    public List<MessageSummary> getUserMessageHistory(String userId, String startTime, String endTime, int limit) {
         List<MessageSummary> messages = new ArrayList<>();
+        try {
+            streamUserMessageHistory(userId, startTime, endTime, null, limit, messages::add);
+        } catch (SQLException | IOException e) {
+            log.error("Error getting user history", e);
+        }
+        return messages;
+    }
 
-        String sql = "SELECT message_id, room_id, username, message, message_type, timestamp " +
-                "FROM messages WHERE user_id = ? ORDER BY timestamp DESC LIMIT ?";
+    /**
+     * Core Query 2（分页 + 流式），参数同 streamMessagesForRoom
+     */
+    public String streamUserMessageHistory(String userId, String startTime, String endTime, String cursor, int limit,
+                                           MessageSink sink) throws SQLException, IOException {
+        return streamHistory("user_id", userId, "room_id", startTime, endTime, cursor, limit, sink);
+    }
 
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    /**
+     * keyset 分页：WHERE key = ? AND (timestamp, message_id) < 游标 ORDER BY timestamp DESC, message_id DESC。
+     * 顺着 (key, timestamp, message_id) 索引定位到游标处倒序读，翻到多深都是一次索引查找，不用 OFFSET 跳过前面的行，
+     * 也没有 filesort。未分区表的二级索引隐含主键 message_id；分区表主键是 (id, timestamp)，索引里显式带 message_id。
+     * 结果集按行流式读取（fetchSize = Integer.MIN_VALUE），内存占用与 limit 无关。
+     *
+     * @param keyColumn   room_id / user_id
+     * @param otherColumn 结果里另一个 ID 列（按房间查时返回 user_id，按用户查时返回 room_id）
+     */
+    private String streamHistory(String keyColumn, String key, String otherColumn, String startTime, String endTime,
+                                 String cursor, int limit, MessageSink sink) throws SQLException, IOException {
+        PageCursor after = PageCursor.decode(cursor);
+
+        StringBuilder sql = new StringBuilder("SELECT message_id, ").append(otherColumn)
+                .append(", username, message, message_type, timestamp FROM messages WHERE ")
+                .append(keyColumn).append(" = ? ");
+        if (startTime != null) sql.append("AND timestamp >= ? ");
+        if (endTime != null) sql.append("AND timestamp <= ? ");
+        if (after != null) sql.append("AND (timestamp < ? OR (timestamp = ? AND message_id < ?)) ");
+        sql.append("ORDER BY timestamp DESC, message_id DESC LIMIT ?");
 
-            pstmt.setString(1, userId);
-            pstmt.setInt(2, limit);
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString(),
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
 
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                MessageSummary msg = new MessageSummary();
-                msg.messageId = rs.getString("message_id");
-                msg.roomId = rs.getString("room_id");
-                msg.username = rs.getString("username");
-                msg.message = rs.getString("message");
-                msg.messageType = rs.getString("message_type");
-                msg.timestamp = rs.getString("timestamp");
-                messages.add(msg);
+            int paramIndex = 1;
+            pstmt.setString(paramIndex++, key);
+            if (startTime != null) bindTime(pstmt, paramIndex++, startTime);
+            if (endTime != null) bindTime(pstmt, paramIndex++, endTime);
+            if (after != null) {
+                Timestamp ts = new Timestamp(after.timestampMillis);
+                pstmt.setTimestamp(paramIndex++, ts);
+                pstmt.setTimestamp(paramIndex++, ts);
+                pstmt.setString(paramIndex++, after.messageId);
             }
-
-        } catch (SQLException e) {
-            log.error("Error getting user history", e);
+            pstmt.setInt(paramIndex, limit);
+            // Connector/J：逐行从网络读取，不把整个结果集缓存在客户端
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            applyTimeout(pstmt);
+
+            int rows = 0;
+            long lastTimestamp = 0;
+            String lastId = null;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                boolean byRoom = "room_id".equals(keyColumn);
+                while (rs.next()) {
+                    MessageSummary msg = new MessageSummary();
+                    msg.messageId = rs.getString(1);
+                    if (byRoom) {
+                        msg.userId = rs.getString(2);
+                    } else {
+                        msg.roomId = rs.getString(2);
+                    }
+                    msg.username = rs.getString(3);
+                    msg.message = rs.getString(4);
+                    msg.messageType = rs.getString(5);
+                    msg.timestamp = rs.getString(6);
+                    lastTimestamp = rs.getTimestamp(6).getTime();
+                    lastId = msg.messageId;
+                    rows++;
+                    sink.accept(msg);
+                }
+            }
+            return rows == limit && lastId != null ? new PageCursor(lastTimestamp, lastId).encode() : null;
         }
+    }
 
-        return messages;
+    /**
+     * ISO-8601（2025-10-31T16:00:00）或 "yyyy-MM-dd HH:mm:ss" 绑定为 DATETIME 参数；
+     * 类型化的常量才能让优化器做分区裁剪。无法解析时按字符串交给 MySQL。
+     */
+    private static void bindTime(PreparedStatement pstmt, int index, String time) throws SQLException {
+        try {
+            pstmt.setTimestamp(index, Timestamp.valueOf(LocalDateTime.parse(time.trim().replace(' ', 'T'))));
+        } catch (Exception e) {
+            pstmt.setString(index, time);
+        }
     }
 
     /**
      * Core Query 3: Count active users in time window
+     * 合并窗口内每个 (分钟, 房间) 的 HyperLogLog 草图，不扫描 messages（误差约 1.6%）
      */
     public int countActiveUsers(int hours) {
-        String sql = "SELECT COUNT(DISTINCT user_id) as count FROM messages " +
-                "WHERE timestamp >= DATE_SUB(NOW(), INTERVAL ? HOUR)";
+        return orDefault("counting active users", () -> queryActiveUsers(hours), 0);
+    }
+
+    private int queryActiveUsers(int hours) throws SQLException {
+        String sql = "SELECT users_hll FROM time_window_stats " +
+                "WHERE time_bucket >= DATE_SUB(NOW(), INTERVAL ? HOUR) AND users_hll IS NOT NULL";
 
         try (Connection conn = dataSource.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = prepare(conn, sql)) {
 
             pstmt.setInt(1, hours);
             ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("count");
-            }
-
-        } catch (SQLException e) {
-            log.error("Error counting active users", e);
+            return (int) mergeSketches(rs).estimate();
         }
+    }
 
-        return 0;
+    /**
+     * 合并结果集第一列的所有草图；无法解析的草图跳过
+     */
+    private static HyperLogLog mergeSketches(ResultSet rs) throws SQLException {
+        HyperLogLog merged = new HyperLogLog();
+        while (rs.next()) {
+            byte[] data = rs.getBytes(1);
+            if (data == null) continue;
+            try {
+                merged.merge(HyperLogLog.fromBytes(data));
+            } catch (IllegalArgumentException e) {
+                log.warn("Skipping unreadable users_hll sketch: {}", e.getMessage());
+            }
+        }
+        return merged;
     }
 
     /**
      * Core Query 4: Get rooms user has participated in
+     * 读 user_rooms 参与索引（主键前缀查找），不再对 messages 分组
      */
     public List<RoomParticipation> getUserRooms(String userId) {
+        return orDefault("getting user rooms", () -> queryUserRooms(userId), new ArrayList<>());
+    }
+
+    private List<RoomParticipation> queryUserRooms(String userId) throws SQLException {
         List<RoomParticipation> rooms = new ArrayList<>();
 
-        String sql = "SELECT room_id, COUNT(*) as message_count, MAX(timestamp) as last_activity " +
-                "FROM messages WHERE user_id = ? GROUP BY room_id ORDER BY last_activity DESC";
+        String sql = "SELECT room_id, message_count, last_activity " +
+                "FROM user_rooms WHERE user_id = ? ORDER BY last_activity DESC";
 
         try (Connection conn = dataSource.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = prepare(conn, sql)) {
 
             pstmt.setString(1, userId);
             ResultSet rs = pstmt.executeQuery();
@@ -177,9 +338,6 @@ public class AnalyticsService {
                 room.lastActivity = rs.getString("last_activity");
                 rooms.add(room);
             }
-
-        } catch (SQLException e) {
-            log.error("Error getting user rooms", e);
         }
 
         return rooms;
@@ -187,36 +345,38 @@ public class AnalyticsService {
 
     /**
      * Analytics: Total messages count
+     * 累加 room_statistics（每个房间一行），不对 messages 做 COUNT(*)；偏差由 StatsReconciler 修正
      */
     public long getTotalMessages() {
-        String sql = "SELECT COUNT(*) as count FROM messages";
+        return orDefault("getting total messages", this::queryTotalMessages, 0L);
+    }
+
+    private long queryTotalMessages() throws SQLException {
+        String sql = "SELECT COALESCE(SUM(total_messages), 0) as count FROM room_statistics";
 
         try (Connection conn = dataSource.getConnection();
-             Statement stmt = conn.createStatement();
+             Statement stmt = statement(conn);
              ResultSet rs = stmt.executeQuery(sql)) {
 
-            if (rs.next()) {
-                return rs.getLong("count");
-            }
-
-        } catch (SQLException e) {
-            log.error("Error getting total messages", e);
+            return rs.next() ? rs.getLong("count") : 0;
         }
-
-        return 0;
     }
 
     /**
      * Analytics: Messages per minute
+     * 总数取 room_statistics，时间跨度取 time_window_stats 最早 / 最晚的分钟桶（idx_time_bucket 两端各读一行）
      */
     public double getMessagesPerMinute() {
+        return orDefault("calculating messages per minute", this::queryMessagesPerMinute, 0.0);
+    }
+
+    private double queryMessagesPerMinute() throws SQLException {
         String sql = "SELECT " +
-                "COUNT(*) as total, " +
-                "TIMESTAMPDIFF(MINUTE, MIN(timestamp), MAX(timestamp)) as minutes " +
-                "FROM messages";
+                "(SELECT SUM(total_messages) FROM room_statistics) as total, " +
+                "(SELECT TIMESTAMPDIFF(MINUTE, MIN(time_bucket), MAX(time_bucket)) FROM time_window_stats) as minutes";
 
         try (Connection conn = dataSource.getConnection();
-             Statement stmt = conn.createStatement();
+             Statement stmt = statement(conn);
              ResultSet rs = stmt.executeQuery(sql)) {
 
             if (rs.next()) {
@@ -226,9 +386,6 @@ public class AnalyticsService {
                     return (double) total / minutes;
                 }
             }
-
-        } catch (SQLException e) {
-            log.error("Error calculating messages per minute", e);
         }
 
         return 0.0;
@@ -236,16 +393,25 @@ public class AnalyticsService {
 
     /**
      * Analytics: Top N active users
+     * 没有内存 top-K 时读预聚合的 user_statistics（idx_total_messages 倒序取前 N 行）
      */
     public List<UserStats> getTopActiveUsers(int limit) {
+        return orDefault("getting top users", () -> queryTopActiveUsers(limit), new ArrayList<>());
+    }
+
+    private List<UserStats> queryTopActiveUsers(int limit) throws SQLException {
+        ActivityTopK tracker = this.topK;
+        if (tracker != null) {
+            return tracker.topUsers(limit, 0);
+        }
         List<UserStats> users = new ArrayList<>();
 
-        String sql = "SELECT user_id, username, COUNT(*) as message_count " +
-                "FROM messages GROUP BY user_id, username " +
-                "ORDER BY message_count DESC LIMIT ?";
+        String sql = "SELECT user_id, username, total_messages as message_count " +
+                "FROM user_statistics " +
+                "ORDER BY total_messages DESC LIMIT ?";
 
         try (Connection conn = dataSource.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = prepare(conn, sql)) {
 
             pstmt.setInt(1, limit);
             ResultSet rs = pstmt.executeQuery();
@@ -256,9 +422,6 @@ public class AnalyticsService {
                 user.messageCount = rs.getInt("message_count");
                 users.add(user);
             }
-
-        } catch (SQLException e) {
-            log.error("Error getting top users", e);
         }
 
         return users;
@@ -266,17 +429,25 @@ public class AnalyticsService {
 
     /**
      * Analytics: Top N active rooms
+     * 直接读预聚合的 room_statistics（unique_users 为 HyperLogLog 估计值）
      */
     public List<RoomStats> getTopActiveRooms(int limit) {
+        return orDefault("getting top rooms", () -> queryTopActiveRooms(limit), new ArrayList<>());
+    }
+
+    private List<RoomStats> queryTopActiveRooms(int limit) throws SQLException {
+        ActivityTopK tracker = this.topK;
+        if (tracker != null) {
+            return tracker.topRooms(limit, 0);
+        }
         List<RoomStats> rooms = new ArrayList<>();
 
-        String sql = "SELECT room_id, COUNT(*) as message_count, " +
-                "COUNT(DISTINCT user_id) as unique_users " +
-                "FROM messages GROUP BY room_id " +
-                "ORDER BY message_count DESC LIMIT ?";
+        String sql = "SELECT room_id, total_messages as message_count, unique_users " +
+                "FROM room_statistics " +
+                "ORDER BY total_messages DESC LIMIT ?";
 
         try (Connection conn = dataSource.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = prepare(conn, sql)) {
 
             pstmt.setInt(1, limit);
             ResultSet rs = pstmt.executeQuery();
@@ -287,9 +458,6 @@ public class AnalyticsService {
                 room.uniqueUsers = rs.getInt("unique_users");
                 rooms.add(room);
             }
-
-        } catch (SQLException e) {
-            log.error("Error getting top rooms", e);
         }
 
         return rooms;
@@ -299,28 +467,26 @@ public class AnalyticsService {
      * Analytics: User participation summary
      */
     public Map<String, Object> getUserParticipationSummary() {
+        return orDefault("getting participation summary", this::queryUserParticipationSummary, new HashMap<>());
+    }
+
+    private Map<String, Object> queryUserParticipationSummary() throws SQLException {
         Map<String, Object> summary = new HashMap<>();
 
         try (Connection conn = dataSource.getConnection();
-             Statement stmt = conn.createStatement()) {
+             Statement stmt = statement(conn)) {
 
-            // Total unique users
-            ResultSet rs1 = stmt.executeQuery("SELECT COUNT(DISTINCT user_id) as count FROM messages");
-            if (rs1.next()) {
-                summary.put("totalUniqueUsers", rs1.getInt("count"));
-            }
+            // Total unique users：合并各房间的去重草图
+            ResultSet rs1 = stmt.executeQuery("SELECT users_hll FROM room_statistics WHERE users_hll IS NOT NULL");
+            long uniqueUsers = mergeSketches(rs1).estimate();
+            summary.put("totalUniqueUsers", (int) uniqueUsers);
 
             // Average messages per user
-            ResultSet rs2 = stmt.executeQuery(
-                    "SELECT AVG(msg_count) as avg FROM " +
-                            "(SELECT COUNT(*) as msg_count FROM messages GROUP BY user_id) as user_counts"
-            );
+            ResultSet rs2 = stmt.executeQuery("SELECT SUM(total_messages) as total FROM room_statistics");
             if (rs2.next()) {
-                summary.put("avgMessagesPerUser", rs2.getDouble("avg"));
+                long total = rs2.getLong("total");
+                summary.put("avgMessagesPerUser", uniqueUsers > 0 ? (double) total / uniqueUsers : 0.0);
             }
-
-        } catch (SQLException e) {
-            log.error("Error getting participation summary", e);
         }
 
         return summary;
@@ -328,16 +494,22 @@ public class AnalyticsService {
 
     /**
      * Database stats
+     * messages 的行数取 InnoDB 的统计估计值（information_schema.TABLES.TABLE_ROWS），不做全表 COUNT(*)
      */
     public Map<String, Object> getDatabaseStats() {
+        return orDefault("getting database stats", this::queryDatabaseStats, new HashMap<>());
+    }
+
+    private Map<String, Object> queryDatabaseStats() throws SQLException {
         Map<String, Object> stats = new HashMap<>();
 
         try (Connection conn = dataSource.getConnection();
-             Statement stmt = conn.createStatement()) {
+             Statement stmt = statement(conn)) {
 
             ResultSet rs = stmt.executeQuery(
                     "SELECT " +
-                            "(SELECT COUNT(*) FROM messages) as msg_count, " +
+                            "(SELECT TABLE_ROWS FROM information_schema.TABLES " +
+                            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'messages') as msg_count, " +
                             "(SELECT COUNT(*) FROM user_statistics) as user_count, " +
                             "(SELECT COUNT(*) FROM room_statistics) as room_count"
             );
@@ -347,20 +519,112 @@ public class AnalyticsService {
                 stats.put("totalUsersTracked", rs.getLong("user_count"));
                 stats.put("totalRoomsTracked", rs.getLong("room_count"));
             }
-
-        } catch (SQLException e) {
-            log.error("Error getting database stats", e);
         }
 
         return stats;
     }
 
+    // ==================== Query plumbing ====================
+
+    /** 一个会抛 SQLException 的查询 */
+    private interface SqlQuery<T> {
+        T run() throws SQLException, IOException;
+    }
+
+    /**
+     * 单独调用的公开查询：失败时记录日志并返回默认值（getAllMetrics 直接调用 query* 方法，自己区分成功 / 超时 / 失败）
+     */
+    private static <T> T orDefault(String what, SqlQuery<T> query, T defaultValue) {
+        try {
+            return query.run();
+        } catch (SQLException | IOException e) {
+            log.error("Error {}", what, e);
+            return defaultValue;
+        }
+    }
+
+    /** 语句级超时：Connector/J 到时发 KILL QUERY，数据库端的执行也会停掉 */
+    private PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        applyTimeout(pstmt);
+        return pstmt;
+    }
+
+    private Statement statement(Connection conn) throws SQLException {
+        Statement stmt = conn.createStatement();
+        applyTimeout(stmt);
+        return stmt;
+    }
+
+    private void applyTimeout(Statement stmt) throws SQLException {
+        if (queryTimeoutSeconds > 0) {
+            stmt.setQueryTimeout(queryTimeoutSeconds);
+        }
+    }
+
+    /**
+     * getAllMetrics 的一个分段：提交到查询线程池，截止时间前完成就写进响应
+     */
+    private final class Section<T> {
+        final String name;
+        final Consumer<T> setter;
+        final Future<T> future;
+
+        Section(String name, SqlQuery<T> query, Consumer<T> setter) {
+            this.name = name;
+            this.setter = setter;
+            Future<T> f;
+            try {
+                f = queryExecutor.submit(query::run);
+            } catch (RejectedExecutionException e) {
+                f = null;
+            }
+            this.future = f;
+        }
+
+        /** 等到 deadlineNanos 为止；返回分段状态 */
+        String await(long deadlineNanos) {
+            if (future == null) {
+                return STATUS_REJECTED;
+            }
+            try {
+                long remaining = deadlineNanos - System.nanoTime();
+                T value = deadlineNanos == NO_DEADLINE
+                        ? future.get() : future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                setter.accept(value);
+                return STATUS_OK;
+            } catch (TimeoutException e) {
+                // 不等了；还在跑的语句由语句超时兜底结束
+                future.cancel(true);
+                return STATUS_TIMEOUT;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof SQLTimeoutException) {
+                    return STATUS_TIMEOUT;
+                }
+                log.error("Error in metrics section {}", name, cause);
+                return "error: " + cause.getMessage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                return STATUS_TIMEOUT;
+            }
+        }
+    }
+
+    /** 查询线程池关闭（停止 API 时调用） */
+    public void close() {
+        queryExecutor.shutdownNow();
+    }
+
     // ==================== Response Classes ====================
 
     public static class MetricsResponse {
         public boolean success;
         public String timestamp;
         public String error;
+        public boolean partial;                 // 有分段超时 / 失败，对应字段为空
+        public Map<String, String> sections;    // 分段名 -> ok / timeout / rejected / error: ...
         public CoreQueries coreQueries;
         public Analytics analytics;
         public Map<String, Object> databaseStats;
@@ -406,6 +670,6 @@ public class AnalyticsService {
     public static class RoomStats {
         public String roomId;
         public int messageCount;
-        public int uniqueUsers;
+        public Integer uniqueUsers;     // null = 未统计（滑动窗口的内存 top-K）
     }
 }
\ No newline at end of file
@@ -1,30 +1,72 @@
 package chat.consumer.analytics;
 
+import chat.consumer.metrics.PipelineMetrics;
+import chat.consumer.util.JsonUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * Metrics API Server - REST endpoint for analytics queries
  * Listens on port 9090 by default
+ *
+ * 查询结果经 QueryCache 缓存（按 endpoint + 参数），响应头 Age / X-Data-As-Of 给出数据的新旧；
+ * 数据库上的分析查询频率只取决于 TTL，和轮询的客户端数量无关。
  */
 public class MetricsApiServer {
     private static final Logger log = LoggerFactory.getLogger(MetricsApiServer.class);
+    private static final long PIPELINE_INTERVAL_SEC = 10;
+    // 历史消息单页上限（流式输出，页大小只影响单次查询时长，不影响内存）
+    private static final int MAX_PAGE_SIZE = 50_000;
 
     private final AnalyticsService analyticsService;
     private final int port;
     private Javalin app;
     private final Gson gson;
+    private ScheduledExecutorService pipelineRotator;
+    private final QueryCache cache;
+    private int maxConcurrentPerEndpoint;                       // 0 = 不限
+    private final Map<String, AtomicLong> rejected = new ConcurrentHashMap<>();
 
     public MetricsApiServer(DataSource dataSource, int port) {
-        this.analyticsService = new AnalyticsService(dataSource);
+        this(dataSource, port, 0);
+    }
+
+    /**
+     * @param cacheTtlMs 分析查询结果缓存时间（0 = 不缓存）
+     */
+    public MetricsApiServer(DataSource dataSource, int port, long cacheTtlMs) {
+        this(new AnalyticsService(dataSource), port, cacheTtlMs);
+    }
+
+    /**
+     * @param analyticsService 已配置好查询线程 / 超时的分析服务（stop 时一起关闭）
+     */
+    public MetricsApiServer(AnalyticsService analyticsService, int port, long cacheTtlMs) {
+        this.analyticsService = analyticsService;
         this.port = port;
         this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.cache = new QueryCache(cacheTtlMs);
+        if (cacheTtlMs > 0) {
+            PipelineMetrics.INSTANCE.registerGauge("analyticsCache", () -> new CacheStats(cache));
+        }
     }
 
     /**
@@ -42,19 +84,57 @@ public class MetricsApiServer {
         });
 
         // Main metrics endpoint
-        app.get("/metrics", this::handleMetrics);
+        app.get("/metrics", limited("metrics", this::handleMetrics));
 
         // Individual core query endpoints (optional, for debugging)
-        app.get("/metrics/room/{roomId}", this::handleRoomMessages);
-        app.get("/metrics/user/{userId}", this::handleUserHistory);
-        app.get("/metrics/active-users", this::handleActiveUsers);
-        app.get("/metrics/top-users", this::handleTopUsers);
-        app.get("/metrics/top-rooms", this::handleTopRooms);
+        app.get("/metrics/room/{roomId}", limited("room", this::handleRoomMessages));
+        app.get("/metrics/user/{userId}", limited("user", this::handleUserHistory));
+        app.get("/metrics/active-users", limited("active-users", this::handleActiveUsers));
+        app.get("/metrics/top-users", limited("top-users", this::handleTopUsers));
+        app.get("/metrics/top-rooms", limited("top-rooms", this::handleTopRooms));
+        if (maxConcurrentPerEndpoint > 0) {
+            PipelineMetrics.INSTANCE.registerGauge("analyticsRejected", () -> rejected);
+        }
+
+        // Consumer pipeline stage latencies (last completed interval)
+        app.get("/pipeline", this::handlePipeline);
+        pipelineRotator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pipeline-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        pipelineRotator.scheduleAtFixedRate(PipelineMetrics.INSTANCE::rotate,
+                PIPELINE_INTERVAL_SEC, PIPELINE_INTERVAL_SEC, TimeUnit.SECONDS);
 
         log.info("✅ Metrics API Server started on port {}", port);
         log.info("   Access metrics at: http://localhost:{}/metrics", port);
     }
 
+    /**
+     * 每个 endpoint 同时最多处理 maxConcurrentPerEndpoint 个请求，超出的直接 503（不排队、不占读池连接），
+     * 一个慢 endpoint 被刷时不会把读池借空、拖慢其他 endpoint
+     */
+    private Handler limited(String name, Handler handler) {
+        if (maxConcurrentPerEndpoint <= 0) {
+            return handler;
+        }
+        Semaphore permits = new Semaphore(maxConcurrentPerEndpoint);
+        AtomicLong rejectedCount = rejected.computeIfAbsent(name, k -> new AtomicLong());
+        return ctx -> {
+            if (!permits.tryAcquire()) {
+                rejectedCount.incrementAndGet();
+                ctx.header("Retry-After", "1");
+                ctx.status(503).json(new ErrorResponse("Too many concurrent " + name + " requests"));
+                return;
+            }
+            try {
+                handler.handle(ctx);
+            } finally {
+                permits.release();
+            }
+        };
+    }
+
     /**
      * Main metrics endpoint - returns all analytics data
      */
@@ -62,12 +142,13 @@ public class MetricsApiServer {
         long startTime = System.currentTimeMillis();
 
         try {
-            AnalyticsService.MetricsResponse metrics = analyticsService.getAllMetrics();
+            QueryCache.Cached<AnalyticsService.MetricsResponse> metrics =
+                    cache.get("metrics", analyticsService::getAllMetrics, m -> !m.partial);
             long duration = System.currentTimeMillis() - startTime;
 
-            log.info("Metrics request processed in {}ms", duration);
+            log.debug("Metrics request processed in {}ms (data age {}ms)", duration, metrics.ageMs());
 
-            ctx.json(metrics);
+            respond(ctx, metrics);
 
         } catch (Exception e) {
             log.error("Error handling metrics request", e);
@@ -75,26 +156,115 @@ public class MetricsApiServer {
         }
     }
 
+    /**
+     * Per-stage latency snapshot of the last completed interval
+     */
+    private void handlePipeline(Context ctx) {
+        PipelineMetrics.Interval interval = PipelineMetrics.INSTANCE.lastInterval();
+        if (interval == null) {
+            // 第一个区间还没结束
+            interval = PipelineMetrics.INSTANCE.rotate();
+        }
+        ctx.json(interval);
+    }
+
     /**
      * Get messages for a specific room
+     * 可选时间范围 ?start=2025-10-31T16:00:00&end=...；翻页 ?cursor=上一页的 nextCursor
      */
     private void handleRoomMessages(Context ctx) {
         String roomId = ctx.pathParam("roomId");
-        int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(100);
-
-        var messages = analyticsService.getMessagesForRoom(roomId, null, null, limit);
-        ctx.json(messages);
+        int limit = pageSize(ctx, 100);
+        String start = ctx.queryParam("start");
+        String end = ctx.queryParam("end");
+        streamHistory(ctx, (cursor, sink) ->
+                analyticsService.streamMessagesForRoom(roomId, start, end, cursor, limit, sink));
     }
 
     /**
-     * Get user message history
+     * Get user message history（参数同上）
      */
     private void handleUserHistory(Context ctx) {
         String userId = ctx.pathParam("userId");
-        int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(50);
+        int limit = pageSize(ctx, 50);
+        String start = ctx.queryParam("start");
+        String end = ctx.queryParam("end");
+        streamHistory(ctx, (cursor, sink) ->
+                analyticsService.streamUserMessageHistory(userId, start, end, cursor, limit, sink));
+    }
+
+    private static int pageSize(Context ctx, int defVal) {
+        int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(defVal);
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
 
-        var messages = analyticsService.getUserMessageHistory(userId, limit);
-        ctx.json(messages);
+    /** 一页历史消息的查询：从 cursor 之后读，逐行交给 sink，返回下一页游标 */
+    private interface HistoryQuery {
+        String run(String cursor, AnalyticsService.MessageSink sink) throws SQLException, IOException;
+    }
+
+    /**
+     * 历史消息边读边写：{"messages":[...],"nextCursor":"..."}。
+     * 不经过 QueryCache、不攒 List，每读一行就写进响应（超过输出缓冲后按 chunked 发送），
+     * 导出很深的历史时内存占用不随行数增长。响应开始写之前出错返回 400 / 500，之后出错只能断开连接。
+     */
+    private void streamHistory(Context ctx, HistoryQuery query) {
+        JsonGenerator[] out = new JsonGenerator[1];
+        try {
+            String next = query.run(ctx.queryParam("cursor"), msg -> {
+                if (out[0] == null) {
+                    out[0] = beginHistory(ctx);
+                }
+                writeMessage(out[0], msg);
+            });
+            if (out[0] == null) {
+                out[0] = beginHistory(ctx);
+            }
+            JsonGenerator g = out[0];
+            g.writeEndArray();
+            g.writeStringField("nextCursor", next);
+            g.writeEndObject();
+            g.close();
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).json(new ErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            if (out[0] == null) {
+                log.error("Error reading message history", e);
+                ctx.status(500).json(new ErrorResponse("Internal server error: " + e.getMessage()));
+            } else {
+                // 已经开始发送：无法再改状态码，断开让客户端看到不完整的响应
+                log.error("Message history stream aborted", e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static JsonGenerator beginHistory(Context ctx) throws IOException {
+        ctx.contentType("application/json");
+        JsonGenerator g = JsonUtils.M.getFactory().createGenerator(ctx.outputStream());
+        g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);   // 输出流由 Javalin 收尾
+        g.writeStartObject();
+        g.writeArrayFieldStart("messages");
+        return g;
+    }
+
+    /** 与 Gson 的默认输出一致：null 字段不写 */
+    private static void writeMessage(JsonGenerator g, AnalyticsService.MessageSummary m) throws IOException {
+        g.writeStartObject();
+        writeField(g, "messageId", m.messageId);
+        writeField(g, "roomId", m.roomId);
+        writeField(g, "userId", m.userId);
+        writeField(g, "username", m.username);
+        writeField(g, "message", m.message);
+        writeField(g, "messageType", m.messageType);
+        writeField(g, "timestamp", m.timestamp);
+        g.writeEndObject();
+    }
+
+    private static void writeField(JsonGenerator g, String name, String value) throws IOException {
+        if (value != null) {
+            g.writeStringField(name, value);
+        }
     }
 
     /**
@@ -102,18 +272,25 @@ public class MetricsApiServer {
      */
     private void handleActiveUsers(Context ctx) {
         int hours = ctx.queryParamAsClass("hours", Integer.class).getOrDefault(24);
-        int count = analyticsService.countActiveUsers(hours);
-
-        ctx.json(new ActiveUsersResponse(count, hours));
+        cached(ctx, key("active-users", hours),
+                () -> new ActiveUsersResponse(analyticsService.countActiveUsers(hours), hours));
     }
 
     /**
      * Get top active users
+     * 有内存 top-K 时直接回答（不经缓存），?minutes=N 取最近 N 分钟
      */
     private void handleTopUsers(Context ctx) {
         int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(10);
-        var users = analyticsService.getTopActiveUsers(limit);
-        ctx.json(users);
+        int minutes = ctx.queryParamAsClass("minutes", Integer.class).getOrDefault(0);
+        ActivityTopK topK = analyticsService.getTopK();
+        if (topK != null) {
+            ctx.json(topK.topUsers(limit, minutes));
+        } else if (minutes > 0) {
+            ctx.status(400).json(new ErrorResponse("Windowed top users need analytics.topKCapacity > 0"));
+        } else {
+            cached(ctx, key("top-users", limit), () -> analyticsService.getTopActiveUsers(limit));
+        }
     }
 
     /**
@@ -121,14 +298,56 @@ public class MetricsApiServer {
      */
     private void handleTopRooms(Context ctx) {
         int limit = ctx.queryParamAsClass("limit", Integer.class).getOrDefault(10);
-        var rooms = analyticsService.getTopActiveRooms(limit);
-        ctx.json(rooms);
+        int minutes = ctx.queryParamAsClass("minutes", Integer.class).getOrDefault(0);
+        ActivityTopK topK = analyticsService.getTopK();
+        if (topK != null) {
+            ctx.json(topK.topRooms(limit, minutes));
+        } else if (minutes > 0) {
+            ctx.status(400).json(new ErrorResponse("Windowed top rooms need analytics.topKCapacity > 0"));
+        } else {
+            cached(ctx, key("top-rooms", limit), () -> analyticsService.getTopActiveRooms(limit));
+        }
+    }
+
+    private <T> void cached(Context ctx, String key, Supplier<T> loader) {
+        respond(ctx, cache.get(key, loader));
+    }
+
+    /** 结果 + 新旧程度：Age（秒，HTTP 标准头）和 X-Data-As-Of（加载完成的 epoch 毫秒） */
+    private static void respond(Context ctx, QueryCache.Cached<?> result) {
+        ctx.header("Age", String.valueOf(result.ageMs() / 1000));
+        ctx.header("X-Data-As-Of", String.valueOf(result.loadedAtMs));
+        ctx.json(result.value);
+    }
+
+    /** 缓存 key：endpoint + 全部参数（null 参数也要区分） */
+    private static String key(String query, Object... params) {
+        StringBuilder sb = new StringBuilder(query);
+        for (Object p : params) {
+            sb.append('|').append(p);
+        }
+        return sb.toString();
+    }
+
+    /** 每个 endpoint 的并发上限（0 = 不限），需在 start 之前设置 */
+    public void setMaxConcurrentPerEndpoint(int maxConcurrentPerEndpoint) {
+        this.maxConcurrentPerEndpoint = maxConcurrentPerEndpoint;
+    }
+
+    /** 最活跃用户 / 房间改由内存 top-K 回答（在 start 之前或之后都可以） */
+    public void setTopK(ActivityTopK topK) {
+        analyticsService.setTopK(topK);
     }
 
     /**
      * 停止API服务器
      */
     public void stop() {
+        if (pipelineRotator != null) {
+            pipelineRotator.shutdownNow();
+        }
+        cache.close();
+        analyticsService.close();
         if (app != null) {
             app.stop();
             log.info("Metrics API Server stopped");
@@ -156,6 +375,20 @@ public class MetricsApiServer {
         }
     }
 
+    private static class CacheStats {
+        public final int entries;
+        public final long hits;
+        public final long misses;
+        public final long loads;
+
+        CacheStats(QueryCache cache) {
+            this.entries = cache.size();
+            this.hits = cache.hits();
+            this.misses = cache.misses();
+            this.loads = cache.loads();
+        }
+    }
+
     private static class ErrorResponse {
         public final String error;
 
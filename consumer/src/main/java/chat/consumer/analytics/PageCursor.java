@@ -0,0 +1,50 @@
+package chat.consumer.analytics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 历史消息 keyset 分页的游标：上一页最后一行的 (timestamp, message_id)。
+ *
+ * 对外是不透明的 base64url 字符串；时间存 epoch 毫秒，绑定回去用 setTimestamp，
+ * 和读出来的 getTimestamp 走同一套时区换算，比较的是 DATETIME 而不是字符串。
+ */
+final class PageCursor {
+    final long timestampMillis;
+    final String messageId;
+
+    PageCursor(long timestampMillis, String messageId) {
+        this.timestampMillis = timestampMillis;
+        this.messageId = messageId;
+    }
+
+    String encode() {
+        String raw = timestampMillis + ":" + messageId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return null = 第一页
+     * @throws IllegalArgumentException 游标格式不对
+     */
+    static PageCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+        int sep = raw.indexOf(':');
+        if (sep <= 0 || sep == raw.length() - 1) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+        try {
+            return new PageCursor(Long.parseLong(raw.substring(0, sep)), raw.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package chat.consumer.analytics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 分析查询的结果缓存：按 查询 + 参数 的 key 缓存，TTL 内直接返回。
+ *
+ * - 提前刷新：年龄超过 TTL 的 REFRESH_AHEAD 比例后，后台线程重新加载，期间继续返回旧值，
+ *   一直被访问的 key 不会过期，请求方不用等数据库；
+ * - single-flight：同一个 key 同时只有一次加载，并发未命中的请求等同一个结果；
+ * - 没人访问的 key 不刷新，超过 IDLE_TTLS 个 TTL 未访问就清掉；
+ * - 不完整的结果（例如 /metrics 有分段超时）只缓存 PARTIAL_TTL_MS，很快重新加载，
+ *   不会在整个 TTL 里、再经提前刷新一直被当成完整数据返回。
+ *
+ * 所以每个 key 每个 TTL 最多查一次库，和轮询的客户端数量无关。
+ */
+final class QueryCache {
+    private static final Logger log = LoggerFactory.getLogger(QueryCache.class);
+
+    private static final double REFRESH_AHEAD = 0.8;
+    private static final int IDLE_TTLS = 10;
+    private static final int MAX_ENTRIES = 1000;
+    private static final long PARTIAL_TTL_MS = 1000;
+
+    private final long ttlMs;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    QueryCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+        AtomicInteger n = new AtomicInteger();
+        this.refresher = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "analytics-refresh-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** 缓存结果 + 加载完成时间 + 这个结果的 TTL */
+    static final class Cached<T> {
+        final T value;
+        final long loadedAtMs;
+        final long ttlMs;
+
+        Cached(T value, long loadedAtMs, long ttlMs) {
+            this.value = value;
+            this.loadedAtMs = loadedAtMs;
+            this.ttlMs = ttlMs;
+        }
+
+        long ageMs() {
+            return Math.max(0, System.currentTimeMillis() - loadedAtMs);
+        }
+    }
+
+    private static final class Entry {
+        volatile Cached<?> current;
+        volatile long lastAccessMs;
+        CompletableFuture<Cached<?>> inflight;   // guarded by this
+    }
+
+    <T> Cached<T> get(String key, Supplier<T> loader) {
+        return get(key, loader, v -> true);
+    }
+
+    /**
+     * @param complete 结果是否完整；不完整的只缓存 PARTIAL_TTL_MS（不超过 TTL）
+     */
+    @SuppressWarnings("unchecked")
+    <T> Cached<T> get(String key, Supplier<T> loader, Predicate<? super T> complete) {
+        if (ttlMs <= 0) {
+            return new Cached<>(loader.get(), System.currentTimeMillis(), 0);
+        }
+        long now = System.currentTimeMillis();
+        Entry e = entries.computeIfAbsent(key, k -> new Entry());
+        e.lastAccessMs = now;
+
+        Cached<?> c = e.current;
+        if (c != null) {
+            long age = now - c.loadedAtMs;
+            if (age < c.ttlMs) {
+                hits.incrementAndGet();
+                if (age >= c.ttlMs * REFRESH_AHEAD) {
+                    load(key, e, loader, complete, true);
+                }
+                return (Cached<T>) c;
+            }
+        }
+
+        misses.incrementAndGet();
+        evictIdle(now);
+        try {
+            return (Cached<T>) load(key, e, loader, complete, false).join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw ex;
+        }
+    }
+
+    /** single-flight：已有加载在进行就返回它；async=true 时在后台线程加载 */
+    private <T> CompletableFuture<Cached<?>> load(String key, Entry e, Supplier<T> loader,
+                                                  Predicate<? super T> complete, boolean async) {
+        CompletableFuture<Cached<?>> f;
+        synchronized (e) {
+            if (e.inflight != null) {
+                return e.inflight;
+            }
+            f = new CompletableFuture<>();
+            e.inflight = f;
+        }
+
+        // 先摘掉 inflight 再完成 future：否则加载线程在两步之间被切走时，
+        // 后来的未命中会拿到这个已完成（可能已经过期）的结果
+        Runnable task = () -> {
+            Cached<?> c = null;
+            Throwable error = null;
+            try {
+                loads.incrementAndGet();
+                T value = loader.get();
+                long ttl = complete.test(value) ? ttlMs : Math.min(ttlMs, PARTIAL_TTL_MS);
+                c = new Cached<>(value, System.currentTimeMillis(), ttl);
+                e.current = c;
+            } catch (Throwable t) {
+                log.warn("Analytics query {} failed: {}", key, t.toString());
+                error = t;
+            }
+            synchronized (e) {
+                e.inflight = null;
+            }
+            if (error == null) {
+                f.complete(c);
+            } else {
+                f.completeExceptionally(error);
+            }
+        };
+        if (async) {
+            refresher.execute(task);
+        } else {
+            task.run();
+        }
+        return f;
+    }
+
+    private void evictIdle(long now) {
+        if (entries.size() < MAX_ENTRIES / 2) {
+            return;
+        }
+        long idleMs = ttlMs * IDLE_TTLS;
+        entries.entrySet().removeIf(en -> now - en.getValue().lastAccessMs > idleMs);
+        if (entries.size() >= MAX_ENTRIES) {
+            // 全是活跃 key（参数组合过多）：整体清空，宁可多查几次也不无限增长
+            entries.clear();
+        }
+    }
+
+    long hits() { return hits.get(); }
+    long misses() { return misses.get(); }
+    long loads() { return loads.get(); }
+    int size() { return entries.size(); }
+
+    void close() {
+        refresher.shutdownNow();
+    }
+}
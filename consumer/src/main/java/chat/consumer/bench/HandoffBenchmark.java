@@ -0,0 +1,173 @@
+package chat.consumer.bench;
+
+import chat.consumer.util.LatencyHistogram;
+import chat.consumer.util.MpscRingBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Worker -> DB writer handoff: LinkedBlockingQueue (the previous partition buffer, drained with
+ * poll(100ms) + drainTo like the old writer loop) vs MpscRingBuffer with each wait strategy.
+ *
+ * N producer threads offer System.nanoTime() stamps as fast as they can (spinning when the buffer is full),
+ * one consumer drains in batches of BATCH and records offer -> drain latency.
+ * Plain main-class harness (no JMH in this build): each case runs WARMUP messages first, then MESSAGES measured.
+ *
+ * Env:
+ *   PRODUCERS (16,32,64)  MESSAGES per case (2000000)  WARMUP (200000)
+ *   CAPACITY buffer size (2500 = default per-partition share)  BATCH (1000)
+ *
+ * Run: java -cp target/consumer-1.0.0.jar chat.consumer.bench.HandoffBenchmark
+ */
+public class HandoffBenchmark {
+
+    /** the two buffers behind one interface; drain is called from the single consumer only */
+    private interface Handoff {
+        boolean offer(Long stamp);
+
+        int drain(LatencyHistogram latency, int max) throws InterruptedException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] producerCounts = env("PRODUCERS", "16,32,64").split(",");
+        int messages = intEnv("MESSAGES", 2_000_000);
+        int warmup = intEnv("WARMUP", 200_000);
+        int capacity = intEnv("CAPACITY", 2500);
+        int batch = intEnv("BATCH", 1000);
+
+        System.out.printf("cpus=%d messages=%d capacity=%d batch=%d%n",
+                Runtime.getRuntime().availableProcessors(), messages, capacity, batch);
+        System.out.println("producers,handoff,msgPerSec,fullRetries,latency");
+
+        for (String pc : producerCounts) {
+            int producers = Integer.parseInt(pc.trim());
+            run("LinkedBlockingQueue", () -> linkedQueue(capacity), producers, warmup, messages, batch);
+            for (MpscRingBuffer.WaitStrategy ws : MpscRingBuffer.WaitStrategy.values()) {
+                run("ring-" + ws, () -> ring(capacity, ws), producers, warmup, messages, batch);
+            }
+        }
+    }
+
+    private static void run(String name, Supplier<Handoff> factory, int producers,
+                            int warmup, int messages, int batch) throws Exception {
+        runOnce(factory.get(), producers, warmup, batch);
+        LatencyHistogram latency = new LatencyHistogram();
+        long[] result = runOnce(factory.get(), producers, messages, batch, latency);
+        System.out.printf("%d,%s,%.0f,%d,%s%n", producers, name, messages * 1e9 / result[0], result[1],
+                latency.snapshot());
+    }
+
+    private static long[] runOnce(Handoff handoff, int producers, int messages, int batch) throws Exception {
+        return runOnce(handoff, producers, messages, batch, new LatencyHistogram());
+    }
+
+    /** @return {elapsedNanos, fullRetries} */
+    private static long[] runOnce(Handoff handoff, int producers, int messages, int batch, LatencyHistogram latency)
+            throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong fullRetries = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        int perProducer = messages / producers;
+        int total = perProducer * producers;
+
+        for (int i = 0; i < producers; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long retries = 0;
+                for (int k = 0; k < perProducer; k++) {
+                    Long stamp = System.nanoTime();
+                    while (!handoff.offer(stamp)) {
+                        retries++;
+                        Thread.onSpinWait();
+                    }
+                }
+                fullRetries.addAndGet(retries);
+            }, "producer-" + i);
+            t.start();
+            threads.add(t);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        int consumed = 0;
+        while (consumed < total) {
+            consumed += handoff.drain(latency, batch);
+        }
+        long elapsed = System.nanoTime() - begin;
+        for (Thread t : threads) {
+            t.join();
+        }
+        return new long[]{elapsed, fullRetries.get()};
+    }
+
+    private static Handoff linkedQueue(int capacity) {
+        LinkedBlockingQueue<Long> queue = new LinkedBlockingQueue<>(capacity);
+        List<Long> buf = new ArrayList<>();
+        return new Handoff() {
+            @Override
+            public boolean offer(Long stamp) {
+                return queue.offer(stamp);
+            }
+
+            @Override
+            public int drain(LatencyHistogram latency, int max) throws InterruptedException {
+                Long first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    return 0;
+                }
+                buf.clear();
+                buf.add(first);
+                queue.drainTo(buf, max - 1);
+                long now = System.nanoTime();
+                for (Long stamp : buf) {
+                    latency.recordNanos(now - stamp);
+                }
+                return buf.size();
+            }
+        };
+    }
+
+    private static Handoff ring(int capacity, MpscRingBuffer.WaitStrategy waitStrategy) {
+        MpscRingBuffer<Long> ring = new MpscRingBuffer<>(capacity, waitStrategy);
+        long[] now = new long[1];
+        LatencyHistogram[] target = new LatencyHistogram[1];
+        Consumer<Long> sink = stamp -> {
+            // latency up to the moment the batch is taken, same as the queue variant
+            if (now[0] == 0) now[0] = System.nanoTime();
+            target[0].recordNanos(now[0] - stamp);
+        };
+        return new Handoff() {
+            @Override
+            public boolean offer(Long stamp) {
+                return ring.offer(stamp);
+            }
+
+            @Override
+            public int drain(LatencyHistogram latency, int max) throws InterruptedException {
+                now[0] = 0;
+                target[0] = latency;
+                return ring.drain(sink, max, TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        };
+    }
+
+    private static String env(String key, String defVal) {
+        String v = System.getenv(key);
+        return v != null && !v.isBlank() ? v : defVal;
+    }
+
+    private static int intEnv(String key, int defVal) {
+        return Integer.parseInt(env(key, String.valueOf(defVal)));
+    }
+}
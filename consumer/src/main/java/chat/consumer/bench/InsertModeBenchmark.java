@@ -0,0 +1,130 @@
+package chat.consumer.bench;
+
+import chat.consumer.dao.InsertMode;
+import chat.consumer.dao.MessageDao;
+import chat.consumer.dao.MySqlMessageDao;
+import chat.consumer.model.ChatMessage;
+import ch.qos.logback.classic.Level;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * messages insert throughput per InsertMode and batch size, against a real MySQL.
+ *
+ * Every run writes MESSAGES fresh rows through one MessageDao.Session (same path as a DatabaseWriter
+ * partition, stats upserts included) and prints msg/s. Rows use "bench-" ids / rooms / users and are
+ * deleted afterwards unless CLEANUP=false. Point DB_URL at a scratch copy of the chat_system schema
+ * with local_infile=ON for LOAD_DATA.
+ *
+ * Env:
+ *   DB_URL (jdbc:mysql://localhost:3306/chat_system?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true)
+ *   DB_USER (root)  DB_PASSWORD (123456)
+ *   MODES (BATCH,MULTI_ROW,LOAD_DATA)  BATCH_SIZES (100,1000,5000,10000)  MESSAGES per run (20000)
+ *   ROOMS (20)  USERS (1000)  CLEANUP (true)
+ *
+ * Run: java -cp target/consumer-1.0.0.jar chat.consumer.bench.InsertModeBenchmark
+ */
+public class InsertModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        String url = env("DB_URL", "jdbc:mysql://localhost:3306/chat_system?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true");
+        List<InsertMode> modes = new ArrayList<>();
+        for (String m : env("MODES", "BATCH,MULTI_ROW,LOAD_DATA").split(",")) {
+            modes.add(InsertMode.valueOf(m.trim().toUpperCase()));
+        }
+        int[] batchSizes = Arrays.stream(env("BATCH_SIZES", "100,1000,5000,10000").split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).toArray();
+        int messages = intEnv("MESSAGES", 20000);
+        int rooms = intEnv("ROOMS", 20);
+        int users = intEnv("USERS", 1000);
+        boolean cleanup = Boolean.parseBoolean(env("CLEANUP", "true"));
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setUsername(env("DB_USER", "root"));
+        config.setPassword(env("DB_PASSWORD", "123456"));
+        config.setMaximumPoolSize(2);
+        // same driver settings as DatabaseConfig
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("allowLoadLocalInfile", "true");
+
+        try (HikariDataSource ds = new HikariDataSource(config)) {
+            // warm-up: connection, statement caches, buffer pool
+            run(new MySqlMessageDao(ds, InsertMode.BATCH), generate("warmup", 2000, rooms, users), 500);
+
+            System.out.println("mode,batchSize,messages,seconds,msg/s");
+            int runId = 0;
+            for (InsertMode mode : modes) {
+                MessageDao dao = new MySqlMessageDao(ds, mode);
+                for (int batchSize : batchSizes) {
+                    List<ChatMessage> data = generate("r" + (runId++), messages, rooms, users);
+                    long nanos = run(dao, data, batchSize);
+                    System.out.printf("%s,%d,%d,%.2f,%.0f%n",
+                            mode, batchSize, messages, nanos / 1e9, messages * 1e9 / nanos);
+                }
+            }
+
+            if (cleanup) {
+                try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+                    st.executeUpdate("DELETE FROM messages WHERE message_id LIKE 'bench-%'");
+                    st.executeUpdate("DELETE FROM user_statistics WHERE user_id LIKE 'bench%'");
+                    st.executeUpdate("DELETE FROM room_statistics WHERE room_id LIKE 'bench-%'");
+                    st.executeUpdate("DELETE FROM time_window_stats WHERE room_id LIKE 'bench-%'");
+                }
+            }
+        }
+    }
+
+    private static long run(MessageDao dao, List<ChatMessage> data, int batchSize) {
+        long start = System.nanoTime();
+        try (MessageDao.Session session = dao.openSession()) {
+            for (int i = 0; i < data.size(); i += batchSize) {
+                List<ChatMessage> batch = data.subList(i, Math.min(i + batchSize, data.size()));
+                if (session.batchInsertMessages(batch) == 0) {
+                    throw new IllegalStateException("batch failed, see log");
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static List<ChatMessage> generate(String run, int n, int rooms, int users) {
+        List<ChatMessage> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ChatMessage m = new ChatMessage();
+            m.messageId = "bench-" + run + "-" + i;
+            m.roomId = "bench-" + (i % rooms + 1);
+            m.userId = "bench" + (i % users + 1);
+            m.username = "user" + (i % users + 1);
+            m.message = "hello from the insert benchmark, message " + i;
+            m.timestamp = "2025-10-31T16:" + String.format("%02d:%02d", (i / 60) % 60, i % 60);
+            m.messageType = "TEXT";
+            m.serverId = "bench";
+            m.clientIp = "127.0.0.1";
+            out.add(m);
+        }
+        return out;
+    }
+
+    private static String env(String key, String defVal) {
+        String v = System.getenv(key);
+        return v != null && !v.isBlank() ? v : defVal;
+    }
+
+    private static int intEnv(String key, int defVal) {
+        return Integer.parseInt(env(key, String.valueOf(defVal)));
+    }
+}
@@ -0,0 +1,168 @@
+package chat.consumer.bench;
+
+import chat.consumer.broadcast.Broadcaster;
+import chat.consumer.dao.InMemoryMessageDao;
+import chat.consumer.manager.RoomManager;
+import chat.consumer.metrics.PipelineMetrics;
+import chat.consumer.model.ChatMessage;
+import chat.consumer.persistence.DatabaseWriter;
+import chat.consumer.queue.InMemoryQueueClient;
+import chat.consumer.worker.MessageConsumer;
+import ch.qos.logback.classic.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end consumer pipeline benchmark without RabbitMQ / MySQL / broadcast servers.
+ *
+ * InMemoryQueueClient -> MessageConsumer -> RoomManager (in-process broadcaster) -> DatabaseWriter -> InMemoryMessageDao,
+ * published at a fixed rate; prints interval throughput and stage latencies, then a summary.
+ *
+ * Env:
+ *   MESSAGES (100000)  RATE msg/s, 0 = unthrottled (0)  ROOMS (20)  THREADS (16)  VIRTUAL (false)
+ *   PREFETCH (500)  BATCH_SIZE (1000)  FLUSH_MS (500)  BUFFER (10000)  WRITERS (4)
+ *   BROADCAST_LATENCY_MS (0)  DB_LATENCY_MS per batch (0)  DB_ROW_US per row (0)
+ *   TARGET_LATENCY_MS adaptive batching target, 0 = fixed BATCH_SIZE (0)  MIN_BATCH (50)
+ *
+ * Run: java -cp target/consumer-1.0.0.jar chat.consumer.bench.PipelineBenchmark
+ */
+public class PipelineBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        int messages = intEnv("MESSAGES", 100000);
+        int rate = intEnv("RATE", 0);
+        int roomCount = intEnv("ROOMS", 20);
+        int threads = intEnv("THREADS", 16);
+        boolean virtual = Boolean.parseBoolean(env("VIRTUAL", "false"));
+        int prefetch = intEnv("PREFETCH", 500);
+        int batchSize = intEnv("BATCH_SIZE", 1000);
+        int flushMs = intEnv("FLUSH_MS", 500);
+        int buffer = intEnv("BUFFER", 10000);
+        int writers = intEnv("WRITERS", 4);
+        long broadcastLatencyMs = intEnv("BROADCAST_LATENCY_MS", 0);
+        long dbLatencyMs = intEnv("DB_LATENCY_MS", 0);
+        long dbRowMicros = intEnv("DB_ROW_US", 0);
+        long targetLatencyMs = intEnv("TARGET_LATENCY_MS", 0);
+        int minBatch = intEnv("MIN_BATCH", 50);
+
+        System.out.printf("messages=%d rate=%s rooms=%d threads=%d virtual=%s prefetch=%d batch=%d flush=%dms buffer=%d writers=%d broadcastLatency=%dms dbLatency=%dms+%dus/row target=%s%n",
+                messages, rate == 0 ? "max" : rate + "/s", roomCount, threads, virtual, prefetch, batchSize, flushMs,
+                buffer, writers, broadcastLatencyMs, dbLatencyMs, dbRowMicros,
+                targetLatencyMs > 0 ? targetLatencyMs + "ms" : "fixed");
+
+        InMemoryQueueClient queue = new InMemoryQueueClient(prefetch);
+        InMemoryMessageDao dao = new InMemoryMessageDao(dbLatencyMs, dbRowMicros);
+        DatabaseWriter writer = new DatabaseWriter(dao, batchSize, flushMs, writers, buffer);
+        if (targetLatencyMs > 0) {
+            writer.setAdaptiveBatching(targetLatencyMs, minBatch);
+        }
+        writer.start();
+
+        RoomManager rooms = new RoomManager();
+        rooms.setBroadcaster(new SleepingBroadcaster(broadcastLatencyMs));
+
+        List<String> roomIds = new ArrayList<>();
+        for (int r = 1; r <= roomCount; r++) roomIds.add(String.valueOf(r));
+
+        MessageConsumer consumer = new MessageConsumer(queue, rooms, threads, writer, virtual);
+        consumer.start(roomIds);
+
+        Thread publisher = new Thread(() -> publish(queue, messages, rate, roomCount), "bench-publisher");
+        long start = System.nanoTime();
+        publisher.start();
+
+        long lastAcked = 0;
+        long lastTick = start;
+        System.out.println("sec,acked/s,depth,unacked,dbBuffer,queueDwell,handle");
+        while (queue.acked() + queue.parked() < messages) {
+            Thread.sleep(1000);
+            long now = System.nanoTime();
+            long acked = queue.acked();
+            System.out.printf("%d,%.0f,%d,%d,%d,[%s],[%s]%n",
+                    (now - start) / 1_000_000_000L,
+                    (acked - lastAcked) * 1e9 / (now - lastTick),
+                    queue.queueDepth(), queue.unacked(), writer.getStats().bufferSize,
+                    queue.dwell().snapshotAndReset(), queue.processing().snapshotAndReset());
+            lastAcked = acked;
+            lastTick = now;
+        }
+        long consumedNanos = System.nanoTime() - start;
+
+        consumer.close();   // flushes the writer buffer
+        writer.close();
+        long totalNanos = System.nanoTime() - start;
+        queue.close();
+
+        DatabaseWriter.WriterStats stats = writer.getStats();
+        System.out.println("---- summary ----");
+        System.out.printf("consumed   : %d acked, %d parked in %.2fs -> %.0f msg/s%n",
+                queue.acked(), queue.parked(), consumedNanos / 1e9, queue.acked() * 1e9 / consumedNanos);
+        System.out.printf("persisted  : %d rows in %d batches, %d failed -> %.0f rows/s (incl. final flush)%n",
+                dao.inserted(), dao.batches(), stats.failedWrites, dao.inserted() * 1e9 / totalNanos);
+        System.out.printf("not stored : %d (dropped on full DB buffer)%n", queue.acked() - dao.inserted());
+        System.out.printf("db batch   : %s%n", dao.batchLatency().snapshot());
+        PipelineMetrics.Interval stages = PipelineMetrics.INSTANCE.rotate();
+        System.out.printf("buffer wait: %s%n", stages.dbBufferWait);
+        System.out.printf("commit     : %s%n", stages.batchCommit);
+        if (targetLatencyMs > 0) {
+            System.out.printf("controllers: %s%n", writer.batchingSnapshot());
+        }
+        System.exit(0);
+    }
+
+    private static void publish(InMemoryQueueClient queue, int messages, int rate, int roomCount) {
+        long start = System.nanoTime();
+        double intervalNanos = rate > 0 ? 1e9 / rate : 0;
+        for (int i = 0; i < messages; i++) {
+            if (rate > 0) {
+                long due = start + (long) (i * intervalNanos);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            int room = i % roomCount + 1;
+            String json = "{\"messageId\":\"bench-" + i + "\",\"userId\":\"" + (i % 1000 + 1)
+                    + "\",\"username\":\"user" + (i % 1000 + 1) + "\",\"message\":\"hello " + i
+                    + "\",\"timestamp\":\"2025-10-31T16:00:00\",\"messageType\":\"TEXT\"}";
+            queue.publish(String.valueOf(room), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String env(String key, String defVal) {
+        String v = System.getenv(key);
+        return v != null && !v.isBlank() ? v : defVal;
+    }
+
+    private static int intEnv(String key, int defVal) {
+        return Integer.parseInt(env(key, String.valueOf(defVal)));
+    }
+
+    /** In-process broadcaster: optional fixed latency instead of HTTP. */
+    private static final class SleepingBroadcaster implements Broadcaster {
+        private final long latencyMs;
+
+        SleepingBroadcaster(long latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public boolean broadcast(String roomId, ChatMessage msg) throws Exception {
+            if (latencyMs > 0) Thread.sleep(latencyMs);
+            return true;
+        }
+
+        @Override
+        public boolean broadcast(String roomId, byte[] payload) throws Exception {
+            if (latencyMs > 0) Thread.sleep(latencyMs);
+            return true;
+        }
+    }
+}
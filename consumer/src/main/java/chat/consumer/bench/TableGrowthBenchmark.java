@@ -0,0 +1,166 @@
+package chat.consumer.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * messages insert rate vs table size: original layout (random VARCHAR primary key, four secondary indexes)
+ * against the hour-partitioned layout of chat_schema_partitioned.sql, then retention cost
+ * (DELETE of the oldest hour vs DROP PARTITION).
+ *
+ * Uses scratch tables bench_messages_flat / bench_messages_part in the target schema (dropped afterwards
+ * unless KEEP_TABLES=true). Rows get random UUID message ids, like real traffic, and timestamps spread
+ * evenly over HOURS hours so the partitioned table fills partition by partition.
+ *
+ * Env:
+ *   DB_URL (jdbc:mysql://localhost:3306/chat_system?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true)
+ *   DB_USER (root)  DB_PASSWORD (123456)
+ *   ROWS total per layout (2000000)  STEP rows per measurement (200000)  BATCH rows per executeBatch (1000)
+ *   HOURS spanned by the data (48)  KEEP_TABLES (false)
+ *
+ * Run: java -cp target/consumer-1.0.0.jar chat.consumer.bench.TableGrowthBenchmark
+ */
+public class TableGrowthBenchmark {
+
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'p'yyyyMMddHH");
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 11, 1, 0, 0);
+
+    private static final String COLUMNS =
+            "message_id, room_id, user_id, username, message, message_type, timestamp, server_id, client_ip";
+
+    private static final String FLAT_DDL =
+            "CREATE TABLE bench_messages_flat (" +
+                    "message_id VARCHAR(100) PRIMARY KEY, room_id VARCHAR(50) NOT NULL, user_id VARCHAR(20) NOT NULL, " +
+                    "username VARCHAR(50) NOT NULL, message TEXT NOT NULL, " +
+                    "message_type ENUM('TEXT', 'JOIN', 'LEAVE') NOT NULL DEFAULT 'TEXT', timestamp DATETIME(3) NOT NULL, " +
+                    "server_id VARCHAR(50), client_ip VARCHAR(50), created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                    "INDEX idx_room_time (room_id, timestamp), INDEX idx_user_time (user_id, timestamp), " +
+                    "INDEX idx_timestamp (timestamp), INDEX idx_user_room (user_id, room_id, timestamp)) ENGINE=InnoDB";
+
+    private static final String PART_DDL_HEAD =
+            "CREATE TABLE bench_messages_part (" +
+                    "id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT, message_id VARCHAR(100) NOT NULL, " +
+                    "room_id VARCHAR(50) NOT NULL, user_id VARCHAR(20) NOT NULL, " +
+                    "username VARCHAR(50) NOT NULL, message TEXT NOT NULL, " +
+                    "message_type ENUM('TEXT', 'JOIN', 'LEAVE') NOT NULL DEFAULT 'TEXT', timestamp DATETIME(3) NOT NULL, " +
+                    "server_id VARCHAR(50), client_ip VARCHAR(50), created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                    "PRIMARY KEY (id, timestamp), UNIQUE KEY uk_message (message_id, timestamp), " +
+                    "INDEX idx_room_time (room_id, timestamp, message_id), " +
+                    "INDEX idx_user_time (user_id, timestamp, message_id)) ENGINE=InnoDB " +
+                    "PARTITION BY RANGE COLUMNS(timestamp) (";
+
+    public static void main(String[] args) throws Exception {
+        String url = env("DB_URL", "jdbc:mysql://localhost:3306/chat_system?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true");
+        int rows = intEnv("ROWS", 2_000_000);
+        int step = intEnv("STEP", 200_000);
+        int batch = intEnv("BATCH", 1000);
+        int hours = intEnv("HOURS", 48);
+        boolean keep = Boolean.parseBoolean(env("KEEP_TABLES", "false"));
+
+        Properties props = new Properties();
+        props.setProperty("user", env("DB_USER", "root"));
+        props.setProperty("password", env("DB_PASSWORD", "123456"));
+        // multi-row INSERTs on the wire so the measurement is dominated by index maintenance, not round trips
+        props.setProperty("rewriteBatchedStatements", "true");
+
+        try (Connection conn = DriverManager.getConnection(url, props)) {
+            try (Statement st = conn.createStatement()) {
+                st.execute("DROP TABLE IF EXISTS bench_messages_flat");
+                st.execute("DROP TABLE IF EXISTS bench_messages_part");
+                st.execute(FLAT_DDL);
+                st.execute(partitionedDdl(hours));
+            }
+
+            System.out.printf("rows=%d step=%d batch=%d hours=%d%n", rows, step, batch, hours);
+            System.out.println("layout,tableRows,rows/s");
+            for (String table : new String[]{"bench_messages_flat", "bench_messages_part"}) {
+                String layout = table.endsWith("flat") ? "flat" : "partitioned";
+                for (int done = 0; done < rows; done += step) {
+                    int n = Math.min(step, rows - done);
+                    long nanos = insert(conn, table, done, n, rows, hours, batch);
+                    System.out.printf("%s,%d,%.0f%n", layout, done, n * 1e9 / nanos);
+                }
+            }
+
+            // retention: remove the oldest hour from each layout
+            LocalDateTime firstBound = BASE.plusHours(1);
+            try (Statement st = conn.createStatement()) {
+                long start = System.nanoTime();
+                int deleted = st.executeUpdate("DELETE FROM bench_messages_flat WHERE timestamp < '" + BOUND.format(firstBound) + "'");
+                conn.commit();
+                long deleteNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                st.execute("ALTER TABLE bench_messages_part DROP PARTITION " + NAME.format(firstBound));
+                long dropNanos = System.nanoTime() - start;
+
+                System.out.println("---- retention (oldest hour) ----");
+                System.out.printf("flat DELETE        : %d rows in %.2fs%n", deleted, deleteNanos / 1e9);
+                System.out.printf("partitioned DROP   : %.3fs%n", dropNanos / 1e9);
+
+                if (!keep) {
+                    st.execute("DROP TABLE bench_messages_flat");
+                    st.execute("DROP TABLE bench_messages_part");
+                }
+            }
+        }
+    }
+
+    /** one partition per hour of data, plus pmax */
+    private static String partitionedDdl(int hours) {
+        StringBuilder sql = new StringBuilder(PART_DDL_HEAD);
+        for (int h = 1; h <= hours; h++) {
+            LocalDateTime bound = BASE.plusHours(h);
+            sql.append("PARTITION ").append(NAME.format(bound))
+                    .append(" VALUES LESS THAN ('").append(BOUND.format(bound)).append("'), ");
+        }
+        return sql.append("PARTITION pmax VALUES LESS THAN (MAXVALUE))").toString();
+    }
+
+    private static long insert(Connection conn, String table, int offset, int n, int totalRows, int hours, int batch)
+            throws Exception {
+        double secondsPerRow = hours * 3600.0 / totalRows;
+        String sql = "INSERT INTO " + table + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        conn.setAutoCommit(false);
+        long start = System.nanoTime();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < n; i++) {
+                int row = offset + i;
+                ps.setString(1, UUID.randomUUID().toString());
+                ps.setString(2, String.valueOf(row % 20 + 1));
+                ps.setString(3, String.valueOf(row % 100000 + 1));
+                ps.setString(4, "user" + (row % 100000 + 1));
+                ps.setString(5, "benchmark message " + row);
+                ps.setString(6, "TEXT");
+                ps.setTimestamp(7, Timestamp.valueOf(BASE.plusNanos((long) (row * secondsPerRow * 1e9))));
+                ps.setString(8, "bench");
+                ps.setString(9, "127.0.0.1");
+                ps.addBatch();
+                if ((i + 1) % batch == 0) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String env(String key, String defVal) {
+        String v = System.getenv(key);
+        return v != null && !v.isBlank() ? v : defVal;
+    }
+
+    private static int intEnv(String key, int defVal) {
+        return Integer.parseInt(env(key, String.valueOf(defVal)));
+    }
+}
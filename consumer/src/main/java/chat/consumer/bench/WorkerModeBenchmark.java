@@ -0,0 +1,132 @@
+package chat.consumer.bench;
+
+import chat.consumer.broadcast.HttpBroadcaster;
+import chat.consumer.manager.RoomManager;
+import chat.consumer.mock.BroadcastMockServer;
+import chat.consumer.queue.QueueClient;
+import chat.consumer.worker.MessageConsumer;
+import com.rabbitmq.client.Envelope;
+import com.sun.net.httpserver.HttpServer;
+import ch.qos.logback.classic.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Platform-pool vs virtual-thread worker throughput against BroadcastMockServer.
+ *
+ * Drives MessageConsumer (broadcast only, no DB) with a fake QueueClient that bounds in-flight
+ * deliveries like prefetch does, for several injected broadcast latencies.
+ * Virtual mode needs JDK 21+ at runtime (the build still targets 17).
+ *
+ * Env:
+ *   LATENCIES_MS (default 0,5,20,50)  MESSAGES (default 20000)
+ *   THREADS (default 16)  CONCURRENCY (default 512)  PREFETCH (default 1000)  PORT (default 18080)
+ *
+ * Run: java -cp target/consumer-1.0.0.jar chat.consumer.bench.WorkerModeBenchmark
+ */
+public class WorkerModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        // 没有 logback.xml 时默认 DEBUG，会把 per-message 日志算进吞吐里
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+
+        String[] latencies = env("LATENCIES_MS", "0,5,20,50").split(",");
+        int messages = Integer.parseInt(env("MESSAGES", "20000"));
+        int threads = Integer.parseInt(env("THREADS", "16"));
+        int concurrency = Integer.parseInt(env("CONCURRENCY", "512"));
+        int prefetch = Integer.parseInt(env("PREFETCH", "1000"));
+        int port = Integer.parseInt(env("PORT", "18080"));
+
+        System.out.printf("java=%d messages=%d threads=%d concurrency=%d prefetch=%d%n",
+                Runtime.version().feature(), messages, threads, concurrency, prefetch);
+        System.out.println("latencyMs,mode,workers,msgPerSec,elapsedMs,failed");
+
+        for (String l : latencies) {
+            long latencyMs = Long.parseLong(l.trim());
+            HttpServer server = BroadcastMockServer.start(port, latencyMs);
+            try {
+                HttpBroadcaster broadcaster = new HttpBroadcaster(
+                        List.of("http://localhost:" + port), "/internal/broadcast", "secret");
+                run(broadcaster, latencyMs, false, threads, messages, prefetch);
+                run(broadcaster, latencyMs, true, concurrency, messages, prefetch);
+            } finally {
+                server.stop(0);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(HttpBroadcaster broadcaster, long latencyMs, boolean virtual,
+                            int workers, int messages, int prefetch) throws Exception {
+        RoomManager rooms = new RoomManager();
+        rooms.setBroadcaster(broadcaster);
+        BenchQueue queue = new BenchQueue(messages, prefetch);
+        MessageConsumer consumer = new MessageConsumer(queue, rooms, workers, null, virtual);
+        String mode = consumer.isVirtual() ? "virtual" : (virtual ? "virtual(unavailable->platform)" : "platform");
+
+        consumer.start(List.of("1"));
+        long start = System.nanoTime();
+        queue.publishAll();
+        queue.done.await();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        consumer.close();
+
+        System.out.printf("%d,%s,%d,%.0f,%d,%d%n", latencyMs, mode, workers,
+                messages * 1000.0 / Math.max(1, elapsedMs), elapsedMs, queue.failed.get());
+    }
+
+    private static String env(String key, String defVal) {
+        String v = System.getenv(key);
+        return v != null && !v.isBlank() ? v : defVal;
+    }
+
+    /** Fake queue: at most {@code prefetch} unacked deliveries, like basicQos. */
+    private static final class BenchQueue implements QueueClient {
+        private final int messages;
+        private final Semaphore unacked;
+        private final CountDownLatch done;
+        private final List<byte[]> bodies = new ArrayList<>();
+        private Consumer<AckContext> handler;
+        private final AtomicLong failed = new AtomicLong();
+
+        BenchQueue(int messages, int prefetch) {
+            this.messages = messages;
+            this.unacked = new Semaphore(prefetch);
+            this.done = new CountDownLatch(messages);
+            for (int i = 0; i < 64; i++) {
+                bodies.add(("{\"messageId\":\"m" + i + "\",\"userId\":\"" + i + "\",\"username\":\"user" + i
+                        + "\",\"message\":\"hello\",\"timestamp\":\"2025-10-31T16:00:00\",\"messageType\":\"TEXT\"}")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        void publishAll() throws InterruptedException {
+            for (int i = 0; i < messages; i++) {
+                unacked.acquire();
+                Envelope env = new Envelope(i + 1, false, "chat.exchange", "room.1");
+                handler.accept(new AckContext(null, i + 1, "1", env, null, bodies.get(i % bodies.size())));
+            }
+        }
+
+        private void settle() {
+            unacked.release();
+            done.countDown();
+        }
+
+        @Override public void connect() { }
+        @Override public void consumeRooms(List<String> roomIds, Consumer<AckContext> handler) { this.handler = handler; }
+        @Override public void ack(AckContext ctx, boolean multiple) { settle(); }
+        @Override public void nack(AckContext ctx, boolean requeue) { failed.incrementAndGet(); settle(); }
+        @Override public void retryLater(AckContext ctx, String reason) throws IOException { nack(ctx, false); }
+        @Override public void close() { }
+    }
+}
@@ -2,6 +2,7 @@ package chat.consumer.broadcast;
 
 
 import chat.consumer.model.ChatMessage;
+import chat.consumer.util.JsonUtils;
 
 
 public interface Broadcaster {
@@ -10,4 +11,39 @@ public interface Broadcaster {
      * Return true if ALL targets acknowledged successfully.
      */
     boolean broadcast(String roomId, ChatMessage msg) throws Exception;
-}
\ No newline at end of file
+
+    /**
+     * Broadcast an already-encoded JSON payload (e.g. the original AMQP body) as-is.
+     * Implementations should forward the bytes without re-serializing; the default
+     * decodes and delegates for broadcasters that only understand ChatMessage.
+     */
+    default boolean broadcast(String roomId, byte[] payload) throws Exception {
+        return broadcast(roomId, JsonUtils.readChatMessage(payload));
+    }
+
+    /**
+     * Servers a message has already been delivered to, kept across retries of that message
+     * so a retried broadcast does not post the same message to the same server twice.
+     */
+    interface DeliveryLog {
+        /** True if {@code server} acknowledged this message in an earlier attempt (or earlier in this one). */
+        boolean delivered(String server);
+
+        /** Called after {@code server} acknowledged the message. */
+        void markDelivered(String server);
+    }
+
+    /**
+     * Like {@link #broadcast(String, byte[])}, but skips servers the log already has and records
+     * new acknowledgements in it; skipped servers count as acknowledged for the delivery policy.
+     * The default ignores the log, for broadcasters without per-server targets.
+     */
+    default boolean broadcast(String roomId, byte[] payload, DeliveryLog log) throws Exception {
+        return broadcast(roomId, payload);
+    }
+
+    /** Number of requests currently waiting on a target server (0 if not tracked). */
+    default int inFlight() {
+        return 0;
+    }
+}
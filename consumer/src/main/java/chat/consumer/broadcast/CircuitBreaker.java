@@ -0,0 +1,129 @@
+package chat.consumer.broadcast;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-server circuit breaker with half-open probing and exponential backoff.
+ *
+ * - CLOSED    : requests flow; {@code failureThreshold} consecutive failures trip the breaker.
+ * - OPEN      : requests are rejected immediately until the open window expires.
+ * - HALF_OPEN : exactly one caller is let through as a probe. Success closes the breaker,
+ *               failure re-opens it with the open window doubled (capped at {@code maxOpenMs}).
+ *
+ * So a dead server costs roughly one probe per open window instead of a timeout per message.
+ */
+public class CircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long baseOpenMs;
+    private final long maxOpenMs;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+    private final AtomicBoolean probeInFlight = new AtomicBoolean(false);
+
+    private volatile State state = State.CLOSED;
+    private volatile long openUntil = 0L;
+    private volatile long currentOpenMs;
+
+    public CircuitBreaker(String name, int failureThreshold, long baseOpenMs, long maxOpenMs) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseOpenMs = Math.max(1, baseOpenMs);
+        this.maxOpenMs = Math.max(this.baseOpenMs, maxOpenMs);
+        this.currentOpenMs = this.baseOpenMs;
+    }
+
+    /**
+     * Whether a request may be sent now. In HALF_OPEN only the caller that wins the probe
+     * slot gets {@code true}; it must report back via {@link #onSuccess()} / {@link #onFailure()}.
+     */
+    public boolean tryAcquire() {
+        State s = state;
+        if (s == State.CLOSED) {
+            return true;
+        }
+        if (s == State.OPEN && System.currentTimeMillis() < openUntil) {
+            return false;
+        }
+        // open window expired (or already half-open): allow a single probe
+        if (probeInFlight.compareAndSet(false, true)) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state != State.CLOSED) {
+            synchronized (this) {
+                if (state != State.CLOSED) {
+                    log.info("[CB] {} closed after successful probe", name);
+                }
+                state = State.CLOSED;
+                currentOpenMs = baseOpenMs;
+                probeInFlight.set(false);
+            }
+        }
+    }
+
+    /**
+     * Give back a probe slot obtained from {@link #tryAcquire()} without sending anything,
+     * so the next caller may probe instead.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            probeInFlight.set(false);
+        }
+    }
+
+    public void onFailure() {
+        if (state == State.HALF_OPEN) {
+            synchronized (this) {
+                // failed probe: back off exponentially
+                currentOpenMs = Math.min(maxOpenMs, currentOpenMs * 2);
+                trip();
+            }
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && state == State.CLOSED) {
+            synchronized (this) {
+                if (state == State.CLOSED) {
+                    trip();
+                }
+            }
+        }
+    }
+
+    /** Must be called with the monitor held. */
+    private void trip() {
+        openUntil = System.currentTimeMillis() + currentOpenMs;
+        state = State.OPEN;
+        probeInFlight.set(false);
+        log.warn("[CB] {} opened for {}ms", name, currentOpenMs);
+    }
+
+    /** Currently accepting traffic (CLOSED), without consuming a probe slot. */
+    public boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public State state() { return state; }
+    public String name() { return name; }
+    public long currentOpenMs() { return currentOpenMs; }
+
+    @Override
+    public String toString() {
+        return String.format("CircuitBreaker{%s, state=%s, failures=%d, openMs=%d}",
+                name, state, consecutiveFailures.get(), currentOpenMs);
+    }
+}
@@ -0,0 +1,32 @@
+package chat.consumer.broadcast;
+
+/**
+ * Decides when a broadcast counts as delivered across the configured servers.
+ */
+public enum DeliveryPolicy {
+    /** Every server must acknowledge; an open breaker fails the message fast. */
+    ALL,
+    /** A strict majority (n/2 + 1) of all servers must acknowledge. */
+    QUORUM,
+    /** Every server whose breaker is not open must acknowledge, and at least one must. */
+    AVAILABLE;
+
+    public static DeliveryPolicy parse(String s, DeliveryPolicy defVal) {
+        if (s == null || s.isBlank()) return defVal;
+        try {
+            return DeliveryPolicy.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defVal;
+        }
+    }
+
+    /** Minimum number of acknowledgements needed out of {@code total} servers, {@code available} of them usable. */
+    int required(int total, int available) {
+        switch (this) {
+            case QUORUM:    return total / 2 + 1;
+            case AVAILABLE: return Math.max(1, available);
+            case ALL:
+            default:        return total;
+        }
+    }
+}
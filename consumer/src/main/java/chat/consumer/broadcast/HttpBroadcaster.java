@@ -1,6 +1,8 @@
 package chat.consumer.broadcast;
 
+import chat.consumer.metrics.PipelineMetrics;
 import chat.consumer.model.ChatMessage;
+import chat.consumer.util.LatencyHistogram;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.net.URI;
@@ -8,20 +10,29 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * HTTP Broadcaster with round-robin, timeout and per-server retries.
+ * HTTP Broadcaster with round-robin, timeout, per-server retries and circuit breakers.
  *
  * Contract (matches Broadcaster interface):
- * - Broadcast the message for the given roomId to ALL target servers.
- * - Return true only if ALL targets acknowledge successfully (2xx).
- * - If any server fails after retries, throw an Exception so the caller can NACK(requeue).
+ * - Broadcast the message for the given roomId to the target servers.
+ * - Return true only if the DeliveryPolicy is satisfied (default ALL: every target 2xx).
+ * - Otherwise throw an Exception so the caller can NACK(requeue).
+ * - Servers whose breaker is OPEN are skipped (one half-open probe per backoff window);
+ *   if that leaves too few servers for the policy the call fails fast without any HTTP.
+ * - Raw byte[] payloads are posted as-is; ChatMessage payloads are serialized once.
  *
  * Configuration (env vars take precedence over system properties):
  *   HTTP_TIMEOUT_MS (or -Dhttp.timeoutMs) : per-request timeout in milliseconds (default: 1200)
  *   RETRY_MAX      (or -Dretry.max)       : extra retry times per server (default: 2)
+ *   BROADCAST_POLICY (or -Dbroadcast.policy)     : ALL | QUORUM | AVAILABLE (default: ALL)
+ *   CB_FAILURE_THRESHOLD (or -Dcb.failureThreshold): consecutive failures to open a breaker (default: 5)
+ *   CB_OPEN_MS     (or -Dcb.openMs)       : initial open window, doubled per failed probe (default: 500)
+ *   CB_MAX_OPEN_MS (or -Dcb.maxOpenMs)    : cap for the open window (default: 30000)
  */
 public class HttpBroadcaster implements Broadcaster {
 
@@ -30,6 +41,9 @@ public class HttpBroadcaster implements Broadcaster {
     private final String token;           // Bearer token for internal auth
     private final int timeoutMs;          // per-request timeout
     private final int retryMax;           // extra retry times per server (total attempts = retryMax + 1)
+    private final DeliveryPolicy policy;  // when a broadcast counts as delivered
+    private final CircuitBreaker[] breakers; // one per server, same index as servers
+    private final LatencyHistogram[] rtt;    // per-server round-trip time, same index as servers
 
     private final ObjectMapper mapper = new ObjectMapper();
     private final HttpClient client = HttpClient.newBuilder()
@@ -39,12 +53,28 @@ public class HttpBroadcaster implements Broadcaster {
     // round-robin index (used when we want a different starting server each call)
     private final AtomicInteger rr = new AtomicInteger(0);
 
+    // requests currently blocked in client.send (autoscaler signal)
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
     public HttpBroadcaster(List<String> servers, String path, String token) {
         this.servers = servers;
         this.path = path.startsWith("/") ? path : "/" + path;
         this.token = token;
         this.timeoutMs = readInt("HTTP_TIMEOUT_MS", "http.timeoutMs", 1200);
         this.retryMax  = readInt("RETRY_MAX", "retry.max", 2);
+        this.policy    = DeliveryPolicy.parse(readString("BROADCAST_POLICY", "broadcast.policy"), DeliveryPolicy.ALL);
+
+        int failureThreshold = readInt("CB_FAILURE_THRESHOLD", "cb.failureThreshold", 5);
+        int openMs           = readInt("CB_OPEN_MS", "cb.openMs", 500);
+        int maxOpenMs        = readInt("CB_MAX_OPEN_MS", "cb.maxOpenMs", 30000);
+        this.breakers = new CircuitBreaker[servers.size()];
+        for (int i = 0; i < breakers.length; i++) {
+            breakers[i] = new CircuitBreaker(servers.get(i), failureThreshold, openMs, maxOpenMs);
+        }
+        this.rtt = new LatencyHistogram[servers.size()];
+        for (int i = 0; i < rtt.length; i++) {
+            rtt[i] = PipelineMetrics.INSTANCE.broadcast(servers.get(i));
+        }
     }
 
     private int readInt(String envKey, String propKey, int defVal) {
@@ -59,23 +89,76 @@ public class HttpBroadcaster implements Broadcaster {
         return defVal;
     }
 
+    private String readString(String envKey, String propKey) {
+        String env = System.getenv(envKey);
+        if (env != null && !env.isBlank()) return env.trim();
+        String prop = System.getProperty(propKey);
+        if (prop != null && !prop.isBlank()) return prop.trim();
+        return null;
+    }
+
     @Override
     public boolean broadcast(String roomId, ChatMessage msg) throws Exception {
         // Serialize the message as JSON (include roomId if your ChatMessage has it).
-        final String json = mapper.writeValueAsString(msg);
+        return broadcast(roomId, mapper.writeValueAsBytes(msg));
+    }
 
-        // We must deliver to ALL targets successfully (2xx), otherwise throw.
+    /**
+     * Forward an already-encoded JSON body (normally the original AMQP delivery bytes)
+     * without decoding or re-serializing it.
+     */
+    @Override
+    public boolean broadcast(String roomId, byte[] payload) throws Exception {
+        return broadcast(roomId, payload, null);
+    }
+
+    /**
+     * Servers already in {@code log} (delivered by an earlier, partially failed attempt) are not
+     * posted again and count as acknowledged; every new 2xx is recorded in the log.
+     */
+    @Override
+    public boolean broadcast(String roomId, byte[] payload, DeliveryLog log) throws Exception {
         // To avoid always starting from servers.get(0), shift the start index by rr.
         final int n = servers.size();
-        final int start = Math.floorMod(rr.getAndIncrement(), Math.max(n, 1));
+        if (n == 0) return true;
+        final int start = Math.floorMod(rr.getAndIncrement(), n);
+
+        // Health-aware routing: only servers whose breaker lets us through are contacted.
+        final int[] targets = new int[n];
+        int available = 0;
+        int alreadyDelivered = 0;
+        for (int s = 0; s < n; s++) {
+            int idx = (start + s) % n;
+            if (log != null && log.delivered(servers.get(idx))) {
+                alreadyDelivered++;
+            } else if (breakers[idx].tryAcquire()) {
+                targets[available++] = idx;
+            }
+        }
+
+        final int required = policy.required(n, alreadyDelivered + available);
+        if (alreadyDelivered >= required) {
+            for (int k = 0; k < available; k++) breakers[targets[k]].release();
+            return true;
+        }
+        if (available == 0 || alreadyDelivered + available < required) {
+            // Not enough healthy servers to satisfy the policy: fail fast instead of
+            // burning timeouts (and partially broadcasting) on every message.
+            for (int k = 0; k < available; k++) breakers[targets[k]].release();
+            throw new IllegalStateException("broadcast unavailable: " + available + "/" + n
+                    + " servers usable, policy=" + policy + " needs " + required);
+        }
 
         Exception last = null;
+        int acked = alreadyDelivered;
 
-        for (int s = 0; s < n; s++) {
-            final String base = servers.get((start + s) % n);
+        for (int k = 0; k < available; k++) {
+            final CircuitBreaker breaker = breakers[targets[k]];
+            final String base = servers.get(targets[k]);
+            final LatencyHistogram serverRtt = rtt[targets[k]];
 
-            // Per-server attempts: first try + retryMax extra tries.
-            int attempts = retryMax + 1;
+            // Per-server attempts: first try + retryMax extra tries (a half-open probe gets one).
+            int attempts = breaker.isClosed() ? retryMax + 1 : 1;
             boolean ok = false;
 
             for (int i = 0; i < attempts; i++) {
@@ -84,8 +167,10 @@ public class HttpBroadcaster implements Broadcaster {
                         .timeout(Duration.ofMillis(timeoutMs))
                         .header("Authorization", "Bearer " + token)
                         .header("Content-Type", "application/json")
-                        .POST(HttpRequest.BodyPublishers.ofString(json))
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
                         .build();
+                inFlight.incrementAndGet();
+                final long sentNanos = System.nanoTime();
                 try {
                     HttpResponse<Void> res = client.send(req, HttpResponse.BodyHandlers.discarding());
                     int code = res.statusCode();
@@ -96,16 +181,46 @@ public class HttpBroadcaster implements Broadcaster {
                     last = new RuntimeException("non-2xx: " + code + " @ " + base);
                 } catch (Exception e) {
                     last = e; // timeout / connection error
+                } finally {
+                    serverRtt.recordNanos(System.nanoTime() - sentNanos);
+                    inFlight.decrementAndGet();
+                }
+                breaker.onFailure();
+                if (!breaker.isClosed()) {
+                    break; // breaker tripped: stop retrying this server
                 }
             }
 
-            if (!ok) {
-                // One server failed after all retries -> fail the whole broadcast
+            if (ok) {
+                breaker.onSuccess();
+                acked++;
+                if (log != null) log.markDelivered(base);
+            } else if (policy == DeliveryPolicy.ALL || policy == DeliveryPolicy.AVAILABLE) {
+                // One usable server failed after all retries -> fail the whole broadcast
+                for (int r = k + 1; r < available; r++) breakers[targets[r]].release();
                 throw last != null ? last : new RuntimeException("broadcast failed @ " + base);
             }
         }
 
-        // All servers accepted (2xx). Caller may ignore the boolean but it's true by contract.
+        if (acked < required) {
+            throw last != null ? last : new RuntimeException("broadcast quorum not reached: " + acked + "/" + required);
+        }
+
+        // Policy satisfied. Caller may ignore the boolean but it's true by contract.
         return true;
     }
+
+    @Override
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /** Snapshot of per-server breaker state, e.g. {"http://a:8080": "CLOSED"}. */
+    public Map<String, String> breakerStates() {
+        Map<String, String> out = new LinkedHashMap<>();
+        for (int i = 0; i < breakers.length; i++) {
+            out.put(servers.get(i), breakers[i].state().name());
+        }
+        return out;
+    }
 }
@@ -1,6 +1,7 @@
 package chat.consumer.config;
 
 
+import chat.consumer.util.MpscRingBuffer;
 import java.io.InputStream; import java.util.*; import java.util.stream.*;
 
 
@@ -8,6 +9,32 @@ public class ConsumerConfig {
     public final String host; public final int port; public final String username; public final String password; public final String vhost;
     public final String exchange; public final String queuePrefix; public final List<String> roomIds;
     public final int consumerThreads; public final int prefetch; public final boolean autoScale; public final int maxThreads; public final int minThreads;
+    // Worker mode: virtual threads + concurrency limit instead of the fixed platform pool (JDK 21+)
+    public final boolean virtualThreads; public final int maxConcurrency;
+    // Redelivery dedup on messageId (window 0 = disabled)
+    public final long dedupWindowMs; public final int dedupCapacity;
+    // Live autoscaling: evaluation interval, prefetch bounds, queue-depth watermarks and latency ceiling
+    public final int scaleIntervalSec; public final int minPrefetch; public final int maxPrefetch;
+    public final long scaleUpDepth; public final long scaleDownDepth; public final long latencyCeilingMs;
+    // Sharded topology: fixed shard queues behind a consistent-hash exchange (0 = one queue per room)
+    public final int shards; public final String shardExchange; public final String shardQueuePrefix; public final int shardChannels;
+    // Poison-message handling: delayed retry tiers (TTL queues dead-lettering back to exchange) + parking queue
+    public final String retryExchangePrefix; public final List<Long> retryDelaysMs; public final int maxRetries; public final String parkingQueue;
+    // Write-behind DB writer: writer threads = room-hash partitions, each with its own connection
+    public final int writerThreads; public final int writerBatchSize; public final long writerFlushMs; public final int writerBufferCapacity;
+    public final MpscRingBuffer.WaitStrategy writerWaitStrategy;
+    // Adaptive batching: target persistence latency (0 = fixed batchSize) and the smallest batch it may pick
+    public final long writerTargetLatencyMs; public final int writerMinBatch;
+    // Overflow spool for the DB writer (empty dir = disabled): segment size, disk cap, replay rate limit
+    public final String spoolDir; public final int spoolSegmentMb; public final int spoolMaxMb; public final int spoolReplayPerSec;
+    // Analytics API result cache TTL (0 = no cache, every request queries the database)
+    public final long analyticsCacheTtlMs;
+    // /metrics fan-out: query threads, per-statement JDBC timeout, overall deadline for a (partial) response
+    public final int analyticsQueryThreads; public final long analyticsQueryTimeoutMs; public final long analyticsMetricsDeadlineMs;
+    // Concurrent requests allowed per analytics endpoint before answering 503 (0 = unlimited)
+    public final int analyticsMaxConcurrentPerEndpoint;
+    // In-memory top users / rooms fed by the consumer (capacity 0 = query the database) and its sliding window
+    public final int topKCapacity; public final int topKWindowMinutes;
     // New for HttpBroadcaster
     public final List<String> servers; public final String internalToken; public final String broadcastPath;
 
@@ -22,11 +49,50 @@ public class ConsumerConfig {
         this.queuePrefix = p.getProperty("rabbitmq.queuePrefix","room.");
         this.roomIds = Arrays.stream(p.getProperty("rabbitmq.roomIds","1").split(","))
                 .map(String::trim).filter(s->!s.isEmpty()).collect(Collectors.toList());
+        this.shards = Integer.parseInt(p.getProperty("rabbitmq.shards","0"));
+        this.shardExchange = p.getProperty("rabbitmq.shardExchange","chat.shards");
+        this.shardQueuePrefix = p.getProperty("rabbitmq.shardQueuePrefix","shard.");
+        this.shardChannels = Integer.parseInt(p.getProperty("rabbitmq.shardChannels","4"));
         this.consumerThreads = Integer.parseInt(p.getProperty("consumer.threads","16"));
         this.prefetch = Integer.parseInt(p.getProperty("consumer.prefetch","50"));
         this.autoScale = Boolean.parseBoolean(p.getProperty("consumer.autoScale","true"));
         this.maxThreads = Integer.parseInt(p.getProperty("consumer.maxThreads","64"));
         this.minThreads = Integer.parseInt(p.getProperty("consumer.minThreads","4"));
+        this.virtualThreads = Boolean.parseBoolean(p.getProperty("consumer.virtualThreads","false"));
+        this.maxConcurrency = Integer.parseInt(p.getProperty("consumer.maxConcurrency","256"));
+        this.dedupWindowMs = Long.parseLong(p.getProperty("consumer.dedupWindowMs","300000"));
+        this.dedupCapacity = Integer.parseInt(p.getProperty("consumer.dedupCapacity","500000"));
+        this.scaleIntervalSec = Integer.parseInt(p.getProperty("consumer.scaleIntervalSec","10"));
+        this.minPrefetch = Integer.parseInt(p.getProperty("consumer.minPrefetch","20"));
+        this.maxPrefetch = Integer.parseInt(p.getProperty("consumer.maxPrefetch","2000"));
+        this.scaleUpDepth = Long.parseLong(p.getProperty("consumer.scaleUpDepth","5000"));
+        this.scaleDownDepth = Long.parseLong(p.getProperty("consumer.scaleDownDepth","500"));
+        this.latencyCeilingMs = Long.parseLong(p.getProperty("consumer.latencyCeilingMs","500"));
+
+        this.retryExchangePrefix = p.getProperty("rabbitmq.retryExchangePrefix","chat.retry.");
+        this.retryDelaysMs = Arrays.stream(p.getProperty("rabbitmq.retryDelaysMs","1000,10000,60000").split(","))
+                .map(String::trim).filter(s->!s.isEmpty()).map(Long::parseLong).collect(Collectors.toList());
+        this.maxRetries = Integer.parseInt(p.getProperty("rabbitmq.maxRetries","5"));
+        this.parkingQueue = p.getProperty("rabbitmq.parkingQueue","chat.parking");
+
+        this.writerThreads = Integer.parseInt(p.getProperty("db.writer.threads","4"));
+        this.writerBatchSize = Integer.parseInt(p.getProperty("db.writer.batchSize","1000"));
+        this.writerFlushMs = Long.parseLong(p.getProperty("db.writer.flushMs","500"));
+        this.writerBufferCapacity = Integer.parseInt(p.getProperty("db.writer.bufferCapacity","10000"));
+        this.writerWaitStrategy = MpscRingBuffer.WaitStrategy.parse(p.getProperty("db.writer.waitStrategy"), MpscRingBuffer.WaitStrategy.PARK);
+        this.writerTargetLatencyMs = Long.parseLong(p.getProperty("db.writer.targetLatencyMs","0"));
+        this.writerMinBatch = Integer.parseInt(p.getProperty("db.writer.minBatch","50"));
+        this.spoolDir = p.getProperty("db.writer.spoolDir","").trim();
+        this.spoolSegmentMb = Integer.parseInt(p.getProperty("db.writer.spoolSegmentMb","64"));
+        this.spoolMaxMb = Integer.parseInt(p.getProperty("db.writer.spoolMaxMb","1024"));
+        this.spoolReplayPerSec = Integer.parseInt(p.getProperty("db.writer.spoolReplayPerSec","5000"));
+        this.analyticsCacheTtlMs = Long.parseLong(p.getProperty("analytics.cacheTtlMs","0"));
+        this.analyticsQueryThreads = Integer.parseInt(p.getProperty("analytics.queryThreads","4"));
+        this.analyticsQueryTimeoutMs = Long.parseLong(p.getProperty("analytics.queryTimeoutMs","0"));
+        this.analyticsMetricsDeadlineMs = Long.parseLong(p.getProperty("analytics.metricsDeadlineMs","0"));
+        this.analyticsMaxConcurrentPerEndpoint = Integer.parseInt(p.getProperty("analytics.maxConcurrentPerEndpoint","0"));
+        this.topKCapacity = Integer.parseInt(p.getProperty("analytics.topKCapacity","0"));
+        this.topKWindowMinutes = Integer.parseInt(p.getProperty("analytics.topKWindowMinutes","60"));
 
 
         this.servers = Arrays.stream(p.getProperty("servers","http://localhost:8080").split(","))
@@ -1,13 +1,19 @@
 package chat.consumer.config;
 
+import chat.consumer.dao.InsertMode;
+import chat.consumer.dao.MessagePartitionManager;
+import chat.consumer.dao.StatsReconciler;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -28,7 +34,27 @@ public class DatabaseConfig {
     private final long idleTimeout;
     private final long maxLifetime;
 
+    // 分析查询的只读连接池（readMaximumPoolSize = 0 时与写入共用一个池）；readUrl 可以指向只读副本
+    private final String readUrl;
+    private final String readUsername;
+    private final String readPassword;
+    private final int readMaximumPoolSize;
+    private final int readMinimumIdle;
+    private final long readConnectionTimeout;
+
+    // messages 表写入方式：BATCH | MULTI_ROW | LOAD_DATA
+    private final InsertMode insertMode;
+
+    // messages 分区维护（NONE = 未分区）
+    private final MessagePartitionManager.Granularity partitioning;
+    private final int partitionsAhead;
+    private final long retentionHours;
+    private final long maintenanceMinutes;
+    private final long reconcileMinutes;
+    private final long reconcileLookbackMinutes;
+
     private HikariDataSource dataSource;
+    private HikariDataSource readDataSource;
 
     public DatabaseConfig() throws IOException {
         Properties props = new Properties();
@@ -52,22 +78,70 @@ public class DatabaseConfig {
         this.connectionTimeout = Long.parseLong(props.getProperty("db.pool.connectionTimeout", "30000"));
         this.idleTimeout = Long.parseLong(props.getProperty("db.pool.idleTimeout", "600000"));
         this.maxLifetime = Long.parseLong(props.getProperty("db.pool.maxLifetime", "1800000"));
+        this.readUrl = nonBlank(props.getProperty("db.read.url"), url);
+        this.readUsername = nonBlank(props.getProperty("db.read.username"), username);
+        this.readPassword = nonBlank(props.getProperty("db.read.password"), password);
+        this.readMaximumPoolSize = Integer.parseInt(props.getProperty("db.read.maximumPoolSize", "0"));
+        this.readMinimumIdle = Integer.parseInt(props.getProperty("db.read.minimumIdle", "1"));
+        this.readConnectionTimeout = Long.parseLong(props.getProperty("db.read.connectionTimeout", "2000"));
+        this.insertMode = InsertMode.parse(props.getProperty("db.insertMode"), InsertMode.BATCH);
+        this.partitioning = MessagePartitionManager.Granularity.parse(
+                props.getProperty("db.messages.partitioning"), MessagePartitionManager.Granularity.NONE);
+        this.partitionsAhead = Integer.parseInt(props.getProperty("db.messages.partitionsAhead", "3"));
+        this.retentionHours = Long.parseLong(props.getProperty("db.messages.retentionHours", "720"));
+        this.maintenanceMinutes = Long.parseLong(props.getProperty("db.messages.maintenanceMinutes", "10"));
+        this.reconcileMinutes = Long.parseLong(props.getProperty("db.stats.reconcileMinutes", "0"));
+        this.reconcileLookbackMinutes = Long.parseLong(props.getProperty("db.stats.reconcileLookbackMinutes", "120"));
+    }
+
+    private static String nonBlank(String value, String defVal) {
+        return value == null || value.isBlank() ? defVal : value.trim();
     }
 
     /**
      * Initialize HikariCP DataSource
      */
     public void initialize() {
+        HikariConfig config = poolConfig("db-writer", url, username, password,
+                maximumPoolSize, minimumIdle, connectionTimeout);
+        if (insertMode == InsertMode.LOAD_DATA) {
+            // 只在需要时打开：允许 LOAD DATA LOCAL 从应用提供的流读取
+            config.addDataSourceProperty("allowLoadLocalInfile", "true");
+        }
+
+        this.dataSource = new HikariDataSource(config);
+
+        log.info("Database connection pool initialized: url={}, poolSize={}, minIdle={}",
+                url, maximumPoolSize, minimumIdle);
+
+        if (readMaximumPoolSize > 0) {
+            // 分析查询单独一个池：查询再多也只占这几个连接，写线程的池不会被借空；
+            // 拿不到连接时很快失败（readConnectionTimeout），不在池里排长队。
+            // 只读 + READ COMMITTED：普通 SELECT 是一致性读，不加锁，也不长时间持有快照拖住 purge
+            HikariConfig read = poolConfig("db-read", readUrl, readUsername, readPassword,
+                    readMaximumPoolSize, Math.min(readMinimumIdle, readMaximumPoolSize), readConnectionTimeout);
+            read.setReadOnly(true);
+            read.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
+            this.readDataSource = new HikariDataSource(read);
+
+            log.info("Read connection pool initialized: url={}, poolSize={}, minIdle={}",
+                    readUrl, readMaximumPoolSize, readMinimumIdle);
+        }
+    }
+
+    private HikariConfig poolConfig(String poolName, String jdbcUrl, String user, String pass,
+                                    int maxPoolSize, int minIdle, long connTimeout) {
         HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(url);
-        config.setUsername(username);
-        config.setPassword(password);
+        config.setPoolName(poolName);
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(user);
+        config.setPassword(pass);
         config.setDriverClassName(driver);
 
         // Pool settings
-        config.setMaximumPoolSize(maximumPoolSize);
-        config.setMinimumIdle(minimumIdle);
-        config.setConnectionTimeout(connectionTimeout);
+        config.setMaximumPoolSize(maxPoolSize);
+        config.setMinimumIdle(minIdle);
+        config.setConnectionTimeout(connTimeout);
         config.setIdleTimeout(idleTimeout);
         config.setMaxLifetime(maxLifetime);
 
@@ -76,11 +150,7 @@ public class DatabaseConfig {
         config.addDataSourceProperty("prepStmtCacheSize", "250");
         config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
         config.addDataSourceProperty("useServerPrepStmts", "true");
-
-        this.dataSource = new HikariDataSource(config);
-
-        log.info("Database connection pool initialized: url={}, poolSize={}, minIdle={}",
-                url, maximumPoolSize, minimumIdle);
+        return config;
     }
 
     /**
@@ -93,10 +163,86 @@ public class DatabaseConfig {
         return dataSource;
     }
 
+    /**
+     * DataSource for analytics reads：配置了读池时返回读池，否则与写入共用
+     */
+    public DataSource getReadDataSource() {
+        return readDataSource != null ? readDataSource : getDataSource();
+    }
+
+    /**
+     * 各连接池当前状态（池名 -> 活跃 / 空闲 / 等待连接的线程数）
+     */
+    public Map<String, PoolStats> poolStats() {
+        Map<String, PoolStats> stats = new LinkedHashMap<>();
+        for (HikariDataSource ds : new HikariDataSource[]{dataSource, readDataSource}) {
+            if (ds == null || ds.isClosed() || ds.getHikariPoolMXBean() == null) continue;
+            HikariPoolMXBean pool = ds.getHikariPoolMXBean();
+            stats.put(ds.getPoolName(), new PoolStats(ds.getMaximumPoolSize(), pool.getActiveConnections(),
+                    pool.getIdleConnections(), pool.getThreadsAwaitingConnection()));
+        }
+        return stats;
+    }
+
+    /** 连接池快照（字段直接序列化成 JSON） */
+    public static class PoolStats {
+        public final int max;
+        public final int active;
+        public final int idle;
+        public final int waiting;
+
+        PoolStats(int max, int active, int idle, int waiting) {
+            this.max = max;
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+        }
+    }
+
+    public InsertMode getInsertMode() {
+        return insertMode;
+    }
+
+    public MessagePartitionManager.Granularity getPartitioning() {
+        return partitioning;
+    }
+
+    public long getMaintenanceMinutes() {
+        return maintenanceMinutes;
+    }
+
+    /**
+     * messages 分区维护任务；未分区时返回 null
+     */
+    public MessagePartitionManager createPartitionManager() {
+        if (partitioning == MessagePartitionManager.Granularity.NONE) {
+            return null;
+        }
+        return new MessagePartitionManager(getDataSource(), partitioning, partitionsAhead, retentionHours);
+    }
+
+    public long getReconcileMinutes() {
+        return reconcileMinutes;
+    }
+
+    /**
+     * 统计表对账任务；未开启（reconcileMinutes <= 0）时返回 null
+     */
+    public StatsReconciler createStatsReconciler() {
+        if (reconcileMinutes <= 0) {
+            return null;
+        }
+        return new StatsReconciler(getDataSource(), reconcileLookbackMinutes);
+    }
+
     /**
      * Close the connection pool
      */
     public void close() {
+        if (readDataSource != null && !readDataSource.isClosed()) {
+            readDataSource.close();
+            log.info("Read connection pool closed");
+        }
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
             log.info("Database connection pool closed");
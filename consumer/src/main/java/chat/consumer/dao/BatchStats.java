@@ -0,0 +1,114 @@
+package chat.consumer.dao;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 一个批次折叠后的统计增量：每个用户 / 房间 / (用户, 房间) / (分钟桶, 房间) 只产生一次 upsert。
+ *
+ * 房间 / 窗口同时收集本批出现过的 userId，用于更新 HyperLogLog 去重草图。
+ * 用 TreeMap 保证按主键顺序 upsert：不同写线程更新同一批用户行时加锁顺序一致，避免死锁。
+ * null 的 userId / roomId 不参与统计（messages 表本身也不接受）。时间都是 epoch 毫秒，绑定参数时才转 Timestamp。
+ */
+final class BatchStats {
+
+    final Map<String, UserDelta> users = new TreeMap<>();
+    final Map<String, RoomDelta> rooms = new TreeMap<>();
+    final Map<UserRoomKey, UserRoomDelta> userRooms = new TreeMap<>();
+    final Map<WindowKey, WindowDelta> windows = new TreeMap<>();
+
+    /**
+     * @param ts           消息时间（epoch 毫秒）
+     * @param minuteBucket 所在分钟桶的起点（epoch 毫秒）
+     */
+    void add(String userId, String username, String roomId, long ts, long minuteBucket) {
+        if (userId != null) {
+            UserDelta u = users.computeIfAbsent(userId, k -> new UserDelta());
+            u.count++;
+            if (username != null) u.username = username;
+            if (ts > u.lastActivity) u.lastActivity = ts;
+            if (roomId != null) {
+                UserRoomDelta ur = userRooms.computeIfAbsent(new UserRoomKey(userId, roomId), k -> new UserRoomDelta());
+                ur.count++;
+                if (ts > ur.lastActivity) ur.lastActivity = ts;
+            }
+        }
+        if (roomId != null) {
+            RoomDelta r = rooms.computeIfAbsent(roomId, k -> new RoomDelta());
+            r.count++;
+            if (ts > r.lastActivity) r.lastActivity = ts;
+            WindowDelta w = windows.computeIfAbsent(new WindowKey(minuteBucket, roomId), k -> new WindowDelta());
+            w.count++;
+            if (userId != null) {
+                r.users.add(userId);
+                w.users.add(userId);
+            }
+        }
+    }
+
+    static final class UserDelta {
+        String username;
+        long count;
+        long lastActivity = Long.MIN_VALUE;
+    }
+
+    static final class UserRoomDelta {
+        long count;
+        long lastActivity = Long.MIN_VALUE;
+    }
+
+    static final class UserRoomKey implements Comparable<UserRoomKey> {
+        final String userId;
+        final String roomId;
+
+        UserRoomKey(String userId, String roomId) {
+            this.userId = userId;
+            this.roomId = roomId;
+        }
+
+        @Override
+        public int compareTo(UserRoomKey o) {
+            int c = userId.compareTo(o.userId);
+            return c != 0 ? c : roomId.compareTo(o.roomId);
+        }
+    }
+
+    static final class RoomDelta {
+        long count;
+        long lastActivity = Long.MIN_VALUE;
+        final Set<String> users = new HashSet<>();
+    }
+
+    static final class WindowDelta {
+        long count;
+        final Set<String> users = new HashSet<>();
+    }
+
+    static final class WindowKey implements Comparable<WindowKey> {
+        final long bucket;        // epoch 毫秒
+        final String roomId;
+
+        WindowKey(long bucket, String roomId) {
+            this.bucket = bucket;
+            this.roomId = roomId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof WindowKey && compareTo((WindowKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(bucket) + roomId.hashCode();
+        }
+
+        @Override
+        public int compareTo(WindowKey o) {
+            int c = Long.compare(bucket, o.bucket);
+            return c != 0 ? c : roomId.compareTo(o.roomId);
+        }
+    }
+}
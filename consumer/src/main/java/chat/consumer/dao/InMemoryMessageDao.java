@@ -0,0 +1,104 @@
+package chat.consumer.dao;
+
+import chat.consumer.model.ChatMessage;
+import chat.consumer.model.MessageBatch;
+import chat.consumer.util.LatencyHistogram;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存版 MessageDao：不需要 MySQL，用于 pipeline benchmark。
+ *
+ * - message_id 去重语义与 ON DUPLICATE KEY 一致（重复 ID 不重复计数）；
+ * - 维护按房间 / 用户的消息计数，对应 room_statistics / user_statistics；
+ * - batchLatencyMs / rowLatencyMicros 可模拟一次批量提交的固定耗时和按行数增长的耗时。
+ */
+public class InMemoryMessageDao implements MessageDao {
+
+    private final long batchLatencyMs;
+    private final long rowLatencyMicros;
+    private final Set<String> messageIds = ConcurrentHashMap.newKeySet();
+    private final Map<String, LongAdder> roomCounts = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> userCounts = new ConcurrentHashMap<>();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+    public InMemoryMessageDao() {
+        this(0);
+    }
+
+    public InMemoryMessageDao(long batchLatencyMs) {
+        this(batchLatencyMs, 0);
+    }
+
+    public InMemoryMessageDao(long batchLatencyMs, long rowLatencyMicros) {
+        this.batchLatencyMs = batchLatencyMs;
+        this.rowLatencyMicros = rowLatencyMicros;
+    }
+
+    @Override
+    public int batchInsertMessages(List<ChatMessage> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return 0;
+        }
+        return insertBatch(MessageBatch.of(messages));
+    }
+
+    @Override
+    public int insertBatch(MessageBatch batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        long sleepMicros = batchLatencyMs * 1000 + rowLatencyMicros * batch.size();
+        if (sleepMicros > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(sleepMicros);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (!messageIds.add(batch.messageId(i))) {
+                continue;
+            }
+            inserted.incrementAndGet();
+            String roomId = batch.roomId(i);
+            String userId = batch.userId(i);
+            if (roomId != null) roomCounts.computeIfAbsent(roomId, k -> new LongAdder()).increment();
+            if (userId != null) userCounts.computeIfAbsent(userId, k -> new LongAdder()).increment();
+        }
+        batches.incrementAndGet();
+        batchLatency.recordNanos(System.nanoTime() - start);
+        return batch.size();
+    }
+
+    @Override
+    public boolean testConnection() {
+        return true;
+    }
+
+    /** 去重后真正写入的消息数 */
+    public long inserted() { return inserted.get(); }
+    public long batches() { return batches.get(); }
+    public LatencyHistogram batchLatency() { return batchLatency; }
+
+    public long roomCount(String roomId) {
+        LongAdder a = roomCounts.get(roomId);
+        return a == null ? 0 : a.sum();
+    }
+
+    public long userCount(String userId) {
+        LongAdder a = userCounts.get(userId);
+        return a == null ? 0 : a.sum();
+    }
+}
@@ -0,0 +1,22 @@
+package chat.consumer.dao;
+
+/**
+ * messages 表的批量写入方式（统计表的增量 upsert 不受影响）
+ */
+public enum InsertMode {
+    /** 每行一条 INSERT，executeBatch 提交（每行一次服务端执行） */
+    BATCH,
+    /** 多行 INSERT ... VALUES (...),(...)，单条语句大小按 max_allowed_packet 切分 */
+    MULTI_ROW,
+    /** LOAD DATA LOCAL INFILE，从内存流读入（需要服务端 local_infile=ON） */
+    LOAD_DATA;
+
+    public static InsertMode parse(String s, InsertMode defVal) {
+        if (s == null || s.isBlank()) return defVal;
+        try {
+            return InsertMode.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defVal;
+        }
+    }
+}
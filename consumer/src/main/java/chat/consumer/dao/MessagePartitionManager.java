@@ -0,0 +1,177 @@
+package chat.consumer.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按时间分区的 messages 表（chat_schema_partitioned.sql）的分区维护，定时执行：
+ * - 预建分区：始终保持当前时间之后至少 partitionsAhead 个分区，新数据不会落进 pmax；
+ * - 保留期：上界早于 now - retention 的分区整块 DROP PARTITION，不做 DELETE。
+ *
+ * 分区按上界命名：p2025110100 = VALUES LESS THAN ('2025-11-01 00:00:00')。
+ * 时间按 UTC 计算（与 serverTimezone=UTC 以及消息里的时间戳一致）。
+ */
+public class MessagePartitionManager implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(MessagePartitionManager.class);
+
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("'p'yyyyMMddHH");
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String MAX_PARTITION = "pmax";
+
+    private static final String LIST_PARTITIONS =
+            "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'messages' AND PARTITION_NAME IS NOT NULL " +
+                    "ORDER BY PARTITION_ORDINAL_POSITION";
+
+    /** messages 表的分区粒度；NONE = 未分区（chat_schema.sql），不做维护 */
+    public enum Granularity {
+        NONE, DAY, HOUR;
+
+        public static Granularity parse(String s, Granularity defVal) {
+            if (s == null || s.isBlank()) return defVal;
+            try {
+                return Granularity.valueOf(s.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return defVal;
+            }
+        }
+
+        ChronoUnit unit() {
+            return this == HOUR ? ChronoUnit.HOURS : ChronoUnit.DAYS;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final Granularity granularity;
+    private final int partitionsAhead;
+    private final long retentionHours;
+
+    /**
+     * @param partitionsAhead 当前时间之后预建的分区数
+     * @param retentionHours  保留时长（小时）；<= 0 表示不删除
+     */
+    public MessagePartitionManager(DataSource dataSource, Granularity granularity, int partitionsAhead, long retentionHours) {
+        if (granularity == Granularity.NONE) {
+            throw new IllegalArgumentException("messages table is not partitioned");
+        }
+        this.dataSource = dataSource;
+        this.granularity = granularity;
+        this.partitionsAhead = Math.max(1, partitionsAhead);
+        this.retentionHours = retentionHours;
+    }
+
+    @Override
+    public void run() {
+        try (Connection conn = dataSource.getConnection()) {
+            LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+            addFuturePartitions(conn, now);
+            dropExpiredPartitions(conn, now);
+        } catch (Exception e) {
+            // 定时任务：记录后等下一轮，不能让异常终止调度
+            log.error("Partition maintenance failed", e);
+        }
+    }
+
+    private void addFuturePartitions(Connection conn, LocalDateTime now) throws SQLException {
+        LocalDateTime lastBound = null;
+        for (PartitionInfo p : listPartitions(conn)) {
+            if (p.upperBound != null) lastBound = p.upperBound;
+        }
+
+        LocalDateTime current = now.truncatedTo(granularity.unit());
+        LocalDateTime target = current.plus(partitionsAhead + 1, granularity.unit());
+        // 表刚建好（或停机很久）时不补建历史分区：中间的空档并进第一个新分区
+        LocalDateTime next = lastBound == null || lastBound.isBefore(current)
+                ? current.plus(1, granularity.unit())
+                : lastBound.plus(1, granularity.unit());
+
+        List<String> defs = new ArrayList<>();
+        for (LocalDateTime bound = next; !bound.isAfter(target); bound = bound.plus(1, granularity.unit())) {
+            defs.add("PARTITION " + NAME.format(bound) + " VALUES LESS THAN ('" + BOUND.format(bound) + "')");
+        }
+        if (defs.isEmpty()) {
+            return;
+        }
+
+        String sql = "ALTER TABLE messages REORGANIZE PARTITION " + MAX_PARTITION + " INTO (" +
+                String.join(", ", defs) + ", PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE))";
+        try (Statement st = conn.createStatement()) {
+            st.execute(sql);
+        }
+        log.info("Added {} messages partitions up to {}", defs.size(), BOUND.format(target));
+    }
+
+    private void dropExpiredPartitions(Connection conn, LocalDateTime now) throws SQLException {
+        if (retentionHours <= 0) {
+            return;
+        }
+        LocalDateTime cutoff = now.minusHours(retentionHours);
+        List<String> expired = new ArrayList<>();
+        for (PartitionInfo p : listPartitions(conn)) {
+            // 上界 <= cutoff：整个分区的数据都已过期
+            if (p.upperBound != null && !p.upperBound.isAfter(cutoff)) {
+                expired.add(p.name);
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try (Statement st = conn.createStatement()) {
+            st.execute("ALTER TABLE messages DROP PARTITION " + String.join(", ", expired));
+        }
+        log.info("Dropped {} expired messages partitions {} in {}ms (retention {}h)",
+                expired.size(), expired, System.currentTimeMillis() - start, retentionHours);
+    }
+
+    private List<PartitionInfo> listPartitions(Connection conn) throws SQLException {
+        List<PartitionInfo> out = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(LIST_PARTITIONS);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                out.add(new PartitionInfo(rs.getString(1), parseBound(rs.getString(2))));
+            }
+        }
+        if (out.isEmpty()) {
+            throw new SQLException("messages table is not partitioned; apply chat_schema_partitioned.sql "
+                    + "or set db.messages.partitioning=NONE");
+        }
+        return out;
+    }
+
+    /** PARTITION_DESCRIPTION 形如 '2025-11-01 00:00:00'（带引号）或 MAXVALUE */
+    private static LocalDateTime parseBound(String description) {
+        if (description == null || description.equalsIgnoreCase("MAXVALUE")) {
+            return null;
+        }
+        String v = description.replace("'", "").trim();
+        if (v.length() == 10) {
+            v += " 00:00:00";
+        }
+        return LocalDateTime.parse(v, BOUND);
+    }
+
+    private static final class PartitionInfo {
+        final String name;
+        final LocalDateTime upperBound;   // null = MAXVALUE
+
+        PartitionInfo(String name, LocalDateTime upperBound) {
+            this.name = name;
+            this.upperBound = upperBound;
+        }
+    }
+}
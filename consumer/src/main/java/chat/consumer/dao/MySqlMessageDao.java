@@ -0,0 +1,608 @@
+package chat.consumer.dao;
+
+import chat.consumer.model.ChatMessage;
+import chat.consumer.model.MessageBatch;
+import chat.consumer.util.HyperLogLog;
+import com.mysql.cj.jdbc.JdbcStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MySQL implementation of MessageDao
+ * Handles all database operations with batch processing support
+ */
+public class MySqlMessageDao implements MessageDao {
+    private static final Logger log = LoggerFactory.getLogger(MySqlMessageDao.class);
+
+    // 写会话持有连接的最长时间，需小于连接池的 maxLifetime
+    private static final long SESSION_MAX_AGE_MS = 10 * 60 * 1000L;
+
+    // MULTI_ROW：单条语句的行数上限（9 个参数/行，预编译语句最多 65535 个参数）
+    private static final int MAX_ROWS_PER_STATEMENT = 2000;
+    // 单行除字符串外的固定开销估算（字节）
+    private static final int ROW_OVERHEAD_BYTES = 64;
+    // 一条 SELECT ... FOR UPDATE 里最多锁定的草图行数
+    private static final int MAX_SKETCH_KEYS_PER_SELECT = 500;
+
+    private final DataSource dataSource;
+    private final InsertMode insertMode;
+
+    // Prepared statement SQL
+    private static final String MESSAGE_COLUMNS =
+            "message_id, room_id, user_id, username, message, message_type, timestamp, server_id, client_ip";
+
+    private static final String INSERT_MESSAGE =
+            "INSERT INTO messages (" + MESSAGE_COLUMNS + ") " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE message_id=message_id";
+
+    private static final String MESSAGE_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // LOCAL 模式下主键冲突按 IGNORE 处理，与 ON DUPLICATE KEY 的幂等语义一致
+    private static final String LOAD_MESSAGES =
+            "LOAD DATA LOCAL INFILE 'messages.tsv' IGNORE INTO TABLE messages " +
+                    "CHARACTER SET utf8mb4 " +
+                    "FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' " +
+                    "(" + MESSAGE_COLUMNS + ")";
+
+    // 统计表按批次折叠后的增量更新：每个 key 一条，total = total + delta
+    private static final String UPDATE_USER_STATS =
+            "INSERT INTO user_statistics (user_id, username, total_messages, last_activity) " +
+                    "VALUES (?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE " +
+                    "total_messages = total_messages + VALUES(total_messages), " +
+                    "last_activity = GREATEST(COALESCE(last_activity, VALUES(last_activity)), VALUES(last_activity))";
+
+    // 用户-房间参与索引：每个 (用户, 房间) 一行，代替不断变长的 rooms_participated
+    private static final String UPDATE_USER_ROOMS =
+            "INSERT INTO user_rooms (user_id, room_id, message_count, last_activity) " +
+                    "VALUES (?, ?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE " +
+                    "message_count = message_count + VALUES(message_count), " +
+                    "last_activity = GREATEST(COALESCE(last_activity, VALUES(last_activity)), VALUES(last_activity))";
+
+    // 计数先 upsert（同时拿到行锁），去重草图在同一事务里锁定读取、合并后再写回
+    private static final String UPDATE_ROOM_STATS =
+            "INSERT INTO room_statistics (room_id, total_messages, last_activity) " +
+                    "VALUES (?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE " +
+                    "total_messages = total_messages + VALUES(total_messages), " +
+                    "last_activity = GREATEST(COALESCE(last_activity, VALUES(last_activity)), VALUES(last_activity))";
+
+    private static final String UPDATE_TIME_WINDOW_STATS =
+            "INSERT INTO time_window_stats (time_bucket, room_id, message_count) " +
+                    "VALUES (?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE " +
+                    "message_count = message_count + VALUES(message_count)";
+
+    private static final String UPDATE_ROOM_SKETCH =
+            "UPDATE room_statistics SET unique_users = ?, users_hll = ? WHERE room_id = ?";
+
+    private static final String UPDATE_WINDOW_SKETCH =
+            "UPDATE time_window_stats SET unique_users = ?, users_hll = ? WHERE time_bucket = ? AND room_id = ?";
+
+    public MySqlMessageDao(DataSource dataSource) {
+        this(dataSource, InsertMode.BATCH);
+    }
+
+    /**
+     * @param insertMode messages 表的写入方式；LOAD_DATA 需要连接属性 allowLoadLocalInfile=true
+     */
+    public MySqlMessageDao(DataSource dataSource, InsertMode insertMode) {
+        this.dataSource = dataSource;
+        this.insertMode = insertMode;
+        log.info("MySqlMessageDao insert mode: {}", insertMode);
+    }
+
+    /**
+     * 批量插入消息（核心方法）
+     * 单次调用：借一个连接写完即归还；持续写入请用 openSession()
+     * @param messages 消息列表
+     * @return 成功插入的消息数量
+     */
+    @Override
+    public int batchInsertMessages(List<ChatMessage> messages) {
+        try (Session session = openSession()) {
+            return session.batchInsertMessages(messages);
+        }
+    }
+
+    /**
+     * 持有一个连接和各条 PreparedStatement 的写会话，供单个写线程跨批次复用。
+     * 出错时回滚并丢弃连接，下一批重新获取；连接用满 SESSION_MAX_AGE_MS 后主动归还，
+     * 让连接池能按 maxLifetime 轮换。
+     *
+     * 去重草图在事务内合并：计数 upsert 之后（行已存在且被本事务锁住）用 SELECT ... FOR UPDATE
+     * 读出当前草图，并入本批用户再写回，提交前其他会话 / 其他进程的写入只能等锁，不会互相覆盖。
+     * 表的顺序固定为 user_statistics -> user_rooms -> room_statistics -> time_window_stats，表内按主键顺序加锁
+     * （BatchStats 用 TreeMap）；StatsReconciler 按同样的顺序先改 room_statistics 再改 time_window_stats。
+     */
+    @Override
+    public Session openSession() {
+        return new MySqlSession();
+    }
+
+    private final class MySqlSession implements Session {
+        private Connection conn;
+        private PreparedStatement insertMessage;
+        private PreparedStatement userStats;
+        private PreparedStatement userRooms;
+        private PreparedStatement roomStats;
+        private PreparedStatement windowStats;
+        private PreparedStatement roomSketch;
+        private PreparedStatement windowSketch;
+        private final Map<Integer, PreparedStatement> multiRow = new HashMap<>();  // 按行数缓存
+        private long maxPacketBytes;
+        private final TsvBuffer tsv = new TsvBuffer();
+        private long openedAt;
+
+        @Override
+        public int batchInsertMessages(List<ChatMessage> messages) {
+            if (messages == null || messages.isEmpty()) {
+                return 0;
+            }
+            return insertBatch(MessageBatch.of(messages));
+        }
+
+        @Override
+        public int insertBatch(MessageBatch messages) {
+            if (messages.isEmpty()) {
+                return 0;
+            }
+
+            long startTime = System.currentTimeMillis();
+            int successCount;
+
+            try {
+                ensureOpen();
+                successCount = writeBatch(messages);
+                conn.commit();
+
+                long duration = System.currentTimeMillis() - startTime;
+                log.info("Batch inserted {} messages in {}ms ({} msg/s)",
+                        successCount, duration, (successCount * 1000 / Math.max(duration, 1)));
+
+            } catch (SQLException e) {
+                if (conn != null) {
+                    try {
+                        conn.rollback();
+                        log.error("Transaction rolled back due to error", e);
+                    } catch (SQLException ex) {
+                        log.error("Failed to rollback transaction", ex);
+                    }
+                }
+                log.error("Batch insert failed", e);
+                // 连接状态未知，丢弃后下一批重新获取
+                close();
+                return 0;
+            }
+
+            return successCount;
+        }
+
+        private void ensureOpen() throws SQLException {
+            if (conn != null && System.currentTimeMillis() - openedAt > SESSION_MAX_AGE_MS) {
+                close();
+            }
+            if (conn != null) {
+                return;
+            }
+            conn = dataSource.getConnection();
+            openedAt = System.currentTimeMillis();
+            conn.setAutoCommit(false);
+            insertMessage = conn.prepareStatement(INSERT_MESSAGE);
+            userStats = conn.prepareStatement(UPDATE_USER_STATS);
+            userRooms = conn.prepareStatement(UPDATE_USER_ROOMS);
+            roomStats = conn.prepareStatement(UPDATE_ROOM_STATS);
+            windowStats = conn.prepareStatement(UPDATE_TIME_WINDOW_STATS);
+            roomSketch = conn.prepareStatement(UPDATE_ROOM_SKETCH);
+            windowSketch = conn.prepareStatement(UPDATE_WINDOW_SKETCH);
+            if (insertMode == InsertMode.MULTI_ROW) {
+                try (Statement st = conn.createStatement();
+                     ResultSet rs = st.executeQuery("SELECT @@max_allowed_packet")) {
+                    maxPacketBytes = rs.next() ? rs.getLong(1) : 4L * 1024 * 1024;
+                }
+            }
+        }
+
+        private int writeBatch(MessageBatch messages) throws SQLException {
+            int successCount;
+            // 时间戳在进入批次时已解析成 epoch 毫秒；统计折叠成按 key 的增量
+            BatchStats stats = new BatchStats();
+            int n = messages.size();
+            for (int i = 0; i < n; i++) {
+                long ts = messages.timestampMillis(i);
+                stats.add(messages.userId(i), messages.username(i), messages.roomId(i), ts, minuteBucket(ts));
+            }
+
+            // 1. 批量插入消息
+            switch (insertMode) {
+                case MULTI_ROW:
+                    insertMultiRow(messages);
+                    break;
+                case LOAD_DATA:
+                    loadData(messages);
+                    break;
+                case BATCH:
+                default:
+                    for (int i = 0; i < n; i++) {
+                        bindRow(insertMessage, 0, messages, i);
+                        insertMessage.addBatch();
+                    }
+                    insertMessage.executeBatch();
+            }
+            successCount = n;
+
+            // 2. 用户统计：每个用户一条
+            for (Map.Entry<String, BatchStats.UserDelta> e : stats.users.entrySet()) {
+                BatchStats.UserDelta u = e.getValue();
+                userStats.setString(1, e.getKey());
+                userStats.setString(2, u.username);
+                userStats.setLong(3, u.count);
+                userStats.setTimestamp(4, new Timestamp(u.lastActivity));
+                userStats.addBatch();
+            }
+            userStats.executeBatch();
+
+            // 2b. 用户-房间参与：每个 (用户, 房间) 一条
+            for (Map.Entry<BatchStats.UserRoomKey, BatchStats.UserRoomDelta> e : stats.userRooms.entrySet()) {
+                userRooms.setString(1, e.getKey().userId);
+                userRooms.setString(2, e.getKey().roomId);
+                userRooms.setLong(3, e.getValue().count);
+                userRooms.setTimestamp(4, new Timestamp(e.getValue().lastActivity));
+                userRooms.addBatch();
+            }
+            userRooms.executeBatch();
+
+            // 3. 房间统计：每个房间一条计数，再把本批用户并入表里当前的去重草图
+            for (Map.Entry<String, BatchStats.RoomDelta> e : stats.rooms.entrySet()) {
+                roomStats.setString(1, e.getKey());
+                roomStats.setLong(2, e.getValue().count);
+                roomStats.setTimestamp(3, new Timestamp(e.getValue().lastActivity));
+                roomStats.addBatch();
+            }
+            roomStats.executeBatch();
+
+            Map<String, HyperLogLog> rooms = lockRoomSketches(stats.rooms.keySet());
+            for (Map.Entry<String, BatchStats.RoomDelta> e : stats.rooms.entrySet()) {
+                HyperLogLog sketch = rooms.computeIfAbsent(e.getKey(), k -> new HyperLogLog());
+                for (String userId : e.getValue().users) {
+                    sketch.add(userId);
+                }
+                roomSketch.setLong(1, sketch.estimate());
+                roomSketch.setBytes(2, sketch.toBytes());
+                roomSketch.setString(3, e.getKey());
+                roomSketch.addBatch();
+            }
+            roomSketch.executeBatch();
+
+            // 4. 时间窗口统计：每个 (分钟桶, 房间) 一条，草图同上
+            for (Map.Entry<BatchStats.WindowKey, BatchStats.WindowDelta> e : stats.windows.entrySet()) {
+                windowStats.setTimestamp(1, new Timestamp(e.getKey().bucket));
+                windowStats.setString(2, e.getKey().roomId);
+                windowStats.setLong(3, e.getValue().count);
+                windowStats.addBatch();
+            }
+            windowStats.executeBatch();
+
+            Map<BatchStats.WindowKey, HyperLogLog> windows = lockWindowSketches(stats.windows.keySet());
+            for (Map.Entry<BatchStats.WindowKey, BatchStats.WindowDelta> e : stats.windows.entrySet()) {
+                HyperLogLog sketch = windows.computeIfAbsent(e.getKey(), k -> new HyperLogLog());
+                for (String userId : e.getValue().users) {
+                    sketch.add(userId);
+                }
+                windowSketch.setLong(1, sketch.estimate());
+                windowSketch.setBytes(2, sketch.toBytes());
+                windowSketch.setTimestamp(3, new Timestamp(e.getKey().bucket));
+                windowSketch.setString(4, e.getKey().roomId);
+                windowSketch.addBatch();
+            }
+            windowSketch.executeBatch();
+
+            if (log.isDebugEnabled()) {
+                log.debug("Stats folded: {} messages -> {} user, {} user-room, {} room, {} window upserts",
+                        messages.size(), stats.users.size(), stats.userRooms.size(), stats.rooms.size(),
+                        stats.windows.size());
+            }
+            return successCount;
+        }
+
+        /**
+         * 锁定读取房间草图（行在上一步 upsert 后一定存在，只加记录锁，不加间隙锁）；
+         * 锁定读读的是最新提交版本，不是事务快照
+         */
+        private Map<String, HyperLogLog> lockRoomSketches(Collection<String> roomIds) throws SQLException {
+            Map<String, HyperLogLog> sketches = new HashMap<>();
+            List<String> keys = new ArrayList<>(roomIds);
+            for (int from = 0; from < keys.size(); from += MAX_SKETCH_KEYS_PER_SELECT) {
+                List<String> chunk = keys.subList(from, Math.min(keys.size(), from + MAX_SKETCH_KEYS_PER_SELECT));
+                String sql = "SELECT room_id, users_hll FROM room_statistics WHERE room_id IN ("
+                        + placeholders(chunk.size(), "?") + ") ORDER BY room_id FOR UPDATE";
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        ps.setString(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            sketches.put(rs.getString(1), readSketch(rs.getBytes(2)));
+                        }
+                    }
+                }
+            }
+            return sketches;
+        }
+
+        private Map<BatchStats.WindowKey, HyperLogLog> lockWindowSketches(Collection<BatchStats.WindowKey> windowKeys)
+                throws SQLException {
+            Map<BatchStats.WindowKey, HyperLogLog> sketches = new HashMap<>();
+            List<BatchStats.WindowKey> keys = new ArrayList<>(windowKeys);
+            for (int from = 0; from < keys.size(); from += MAX_SKETCH_KEYS_PER_SELECT) {
+                List<BatchStats.WindowKey> chunk =
+                        keys.subList(from, Math.min(keys.size(), from + MAX_SKETCH_KEYS_PER_SELECT));
+                String sql = "SELECT time_bucket, room_id, users_hll FROM time_window_stats " +
+                        "WHERE (time_bucket, room_id) IN (" + placeholders(chunk.size(), "(?, ?)") + ") " +
+                        "ORDER BY time_bucket, room_id FOR UPDATE";
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        ps.setTimestamp(2 * i + 1, new Timestamp(chunk.get(i).bucket));
+                        ps.setString(2 * i + 2, chunk.get(i).roomId);
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            sketches.put(new BatchStats.WindowKey(rs.getTimestamp(1).getTime(), rs.getString(2)),
+                                    readSketch(rs.getBytes(3)));
+                        }
+                    }
+                }
+            }
+            return sketches;
+        }
+
+        private HyperLogLog readSketch(byte[] data) {
+            if (data != null) {
+                try {
+                    return HyperLogLog.fromBytes(data);
+                } catch (IllegalArgumentException e) {
+                    log.warn("Ignoring unreadable users_hll sketch: {}", e.getMessage());
+                }
+            }
+            return new HyperLogLog();
+        }
+
+        private void bindRow(PreparedStatement ps, int offset, MessageBatch b, int i) throws SQLException {
+            ps.setString(offset + 1, b.messageId(i));
+            ps.setString(offset + 2, b.roomId(i));
+            ps.setString(offset + 3, b.userId(i));
+            ps.setString(offset + 4, b.username(i));
+            ps.setString(offset + 5, b.body(i));
+            ps.setString(offset + 6, b.messageType(i) != null ? b.messageType(i) : "CHAT");
+            ps.setTimestamp(offset + 7, new Timestamp(b.timestampMillis(i)));
+            ps.setString(offset + 8, b.serverId(i));
+            ps.setString(offset + 9, b.clientIp(i));
+        }
+
+        /**
+         * 多行 INSERT：按估算字节数（不超过 max_allowed_packet 的一半）和行数上限切分，
+         * 每个切片一次往返
+         */
+        private void insertMultiRow(MessageBatch messages) throws SQLException {
+            long budget = maxPacketBytes / 2;
+            int start = 0;
+            while (start < messages.size()) {
+                int end = start;
+                long bytes = 0;
+                while (end < messages.size() && end - start < MAX_ROWS_PER_STATEMENT) {
+                    long row = estimateRowBytes(messages, end);
+                    if (end > start && bytes + row > budget) break;
+                    bytes += row;
+                    end++;
+                }
+
+                PreparedStatement ps = multiRowStatement(end - start);
+                for (int i = start; i < end; i++) {
+                    bindRow(ps, (i - start) * 9, messages, i);
+                }
+                ps.executeUpdate();
+                start = end;
+            }
+        }
+
+        private PreparedStatement multiRowStatement(int rows) throws SQLException {
+            PreparedStatement ps = multiRow.get(rows);
+            if (ps == null) {
+                StringBuilder sql = new StringBuilder(64 + rows * (MESSAGE_ROW.length() + 1))
+                        .append("INSERT INTO messages (").append(MESSAGE_COLUMNS).append(") VALUES ");
+                for (int i = 0; i < rows; i++) {
+                    if (i > 0) sql.append(',');
+                    sql.append(MESSAGE_ROW);
+                }
+                sql.append(" ON DUPLICATE KEY UPDATE message_id=message_id");
+                ps = conn.prepareStatement(sql.toString());
+                multiRow.put(rows, ps);
+            }
+            return ps;
+        }
+
+        /**
+         * LOAD DATA LOCAL INFILE：批次在内存里编码成 TSV，作为本地文件流发给服务端。
+         * 正文已经是 UTF-8 字节，直接转义拷进去；TSV 缓冲在会话里复用
+         */
+        private void loadData(MessageBatch messages) throws SQLException {
+            tsv.reset();
+            StringBuilder line = new StringBuilder(256);
+            for (int i = 0; i < messages.size(); i++) {
+                line.setLength(0);
+                appendField(line, messages.messageId(i)).append('\t');
+                appendField(line, messages.roomId(i)).append('\t');
+                appendField(line, messages.userId(i)).append('\t');
+                appendField(line, messages.username(i)).append('\t');
+                writeUtf8(tsv, line);
+                appendBody(tsv, messages, i);
+                line.setLength(0);
+                line.append('\t');
+                appendField(line, messages.messageType(i) != null ? messages.messageType(i) : "CHAT").append('\t');
+                appendField(line, new Timestamp(messages.timestampMillis(i)).toString()).append('\t');
+                appendField(line, messages.serverId(i)).append('\t');
+                appendField(line, messages.clientIp(i)).append('\n');
+                writeUtf8(tsv, line);
+            }
+
+            try (Statement st = conn.createStatement()) {
+                st.unwrap(JdbcStatement.class).setLocalInfileInputStream(
+                        new ByteArrayInputStream(tsv.buffer(), 0, tsv.size()));
+                st.execute(LOAD_MESSAGES);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (conn == null) {
+                return;
+            }
+            for (PreparedStatement ps : new PreparedStatement[]{insertMessage, userStats, userRooms, roomStats, windowStats,
+                    roomSketch, windowSketch}) {
+                closeQuietly(ps);
+            }
+            for (PreparedStatement ps : multiRow.values()) {
+                closeQuietly(ps);
+            }
+            multiRow.clear();
+            try {
+                conn.setAutoCommit(true);
+                conn.close();
+            } catch (SQLException e) {
+                log.warn("Failed to close connection", e);
+            }
+            conn = null;
+            insertMessage = userStats = userRooms = roomStats = windowStats = roomSketch = windowSketch = null;
+        }
+    }
+
+    /** n 个占位符组，逗号分隔 */
+    private static String placeholders(int n, String group) {
+        StringBuilder sb = new StringBuilder(n * (group.length() + 2));
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(group);
+        }
+        return sb.toString();
+    }
+
+    private static void closeQuietly(Statement st) {
+        if (st != null) {
+            try {
+                st.close();
+            } catch (SQLException e) {
+                log.debug("Failed to close statement", e);
+            }
+        }
+    }
+
+    private static long estimateRowBytes(MessageBatch b, int i) {
+        // UTF-8 最多 4 字节/字符（utf8mb4）；正文已知字节数
+        long chars = len(b.messageId(i)) + len(b.roomId(i)) + len(b.userId(i)) + len(b.username(i))
+                + len(b.messageType(i)) + len(b.serverId(i)) + len(b.clientIp(i));
+        return ROW_OVERHEAD_BYTES + 4 * chars + Math.max(0, b.bodyLength(i));
+    }
+
+    private static int len(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /** LOAD DATA 字段编码：null -> \\N，转义 \\ \\t \\n \\r 和 NUL */
+    private static StringBuilder appendField(StringBuilder sb, String v) {
+        if (v == null) {
+            return sb.append("\\N");
+        }
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\0': sb.append("\\0"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+    /** LOAD DATA 正文：已编码的 UTF-8 字节逐字节转义（多字节序列的各字节都 >= 0x80，不会误判） */
+    private static void appendBody(TsvBuffer out, MessageBatch b, int i) {
+        int len = b.bodyLength(i);
+        if (len < 0) {
+            out.put('\\');
+            out.put('N');
+            return;
+        }
+        byte[] bytes = b.bodies();
+        for (int k = b.bodyOffset(i), end = k + len; k < end; k++) {
+            byte c = bytes[k];
+            switch (c) {
+                case '\\': out.put('\\'); out.put('\\'); break;
+                case '\t': out.put('\\'); out.put('t'); break;
+                case '\n': out.put('\\'); out.put('n'); break;
+                case '\r': out.put('\\'); out.put('r'); break;
+                case 0: out.put('\\'); out.put('0'); break;
+                default: out.put(c);
+            }
+        }
+    }
+
+    private static void writeUtf8(TsvBuffer out, CharSequence s) {
+        byte[] b = s.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(b, 0, b.length);
+    }
+
+    /** 可复用、可直接取底层数组的 ByteArrayOutputStream */
+    private static final class TsvBuffer extends ByteArrayOutputStream {
+        TsvBuffer() {
+            super(64 * 1024);
+        }
+
+        /** 单字节追加（不走 ByteArrayOutputStream.write 的同步） */
+        void put(int b) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * 分钟级时间桶（用于时间窗口统计），epoch 毫秒
+     */
+    private static long minuteBucket(long epochMillis) {
+        return Math.floorDiv(epochMillis, 60_000L) * 60_000L;
+    }
+
+    /**
+     * 测试数据库连接
+     */
+    @Override
+    public boolean testConnection() {
+        try (Connection conn = dataSource.getConnection()) {
+            return conn.isValid(5);
+        } catch (SQLException e) {
+            log.error("Database connection test failed", e);
+            return false;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,170 @@
+package chat.consumer.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 预聚合表与 messages 的增量对账，定时执行。
+ *
+ * 写线程按批次把计数累加到 time_window_stats / room_statistics，重投递或 spool 重放的消息在
+ * messages 上被主键去重（ON DUPLICATE KEY / IGNORE），计数却照样加了，时间长了会偏大。
+ * 每轮只看最近 lookbackMinutes 分钟（分区表上只访问最近的分区，未分区时走 idx_timestamp）：
+ * - 按 (分钟, 房间) 对 messages 计数，和 time_window_stats 比较；
+ * - 差值按房间汇总后加到 room_statistics.total_messages，再按增量写回 time_window_stats
+ *   （与写线程事务相同的表顺序，避免两者互相等锁）。
+ *
+ * 两次读取在同一个 REPEATABLE READ 事务里（同一个一致性快照），写回用 count = count + delta：
+ * 快照之后提交的写线程批次两边都没算进去，它自己的累加不会被覆盖，所以不需要停写。
+ *
+ * user_statistics / user_rooms 没有按时间的明细可以对比，不在对账范围内；
+ * 去重草图（users_hll）对重复消息天然幂等，也不需要修正。
+ */
+public class StatsReconciler implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(StatsReconciler.class);
+
+    private static final String COUNT_MESSAGES =
+            "SELECT CAST(DATE_FORMAT(timestamp, '%Y-%m-%d %H:%i:00') AS DATETIME) AS bucket, room_id, COUNT(*) " +
+                    "FROM messages WHERE timestamp >= ? " +
+                    "GROUP BY bucket, room_id";
+
+    private static final String COUNT_WINDOWS =
+            "SELECT time_bucket, room_id, message_count FROM time_window_stats WHERE time_bucket >= ?";
+
+    private static final String ADJUST_WINDOW =
+            "INSERT INTO time_window_stats (time_bucket, room_id, message_count) VALUES (?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE message_count = message_count + VALUES(message_count)";
+
+    private static final String ADJUST_ROOM =
+            "UPDATE room_statistics SET total_messages = total_messages + ? WHERE room_id = ?";
+
+    private final DataSource dataSource;
+    private final long lookbackMinutes;
+
+    private volatile long runs;
+    private volatile long adjustedWindows;
+    private volatile long adjustedMessages;
+
+    /**
+     * @param lookbackMinutes 每轮对账覆盖的最近分钟数（应小于 messages 分区保留期）
+     */
+    public StatsReconciler(DataSource dataSource, long lookbackMinutes) {
+        this.dataSource = dataSource;
+        this.lookbackMinutes = Math.max(1, lookbackMinutes);
+    }
+
+    @Override
+    public void run() {
+        long from = Math.floorDiv(System.currentTimeMillis(), 60_000L) * 60_000L - lookbackMinutes * 60_000L;
+        try (Connection conn = dataSource.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            int isolation = conn.getTransactionIsolation();
+            conn.setAutoCommit(false);
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                reconcile(conn, new Timestamp(from));
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setTransactionIsolation(isolation);
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (Exception e) {
+            // 定时任务：记录后等下一轮，不能让异常终止调度
+            log.error("Stats reconciliation failed", e);
+        }
+    }
+
+    private void reconcile(Connection conn, Timestamp from) throws SQLException {
+        // 差值：messages 实际条数 - time_window_stats 记录的条数（TreeMap：写回时按主键顺序加锁）
+        Map<BatchStats.WindowKey, Long> deltas = new TreeMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(COUNT_MESSAGES)) {
+            ps.setTimestamp(1, from);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    deltas.merge(windowKey(rs), rs.getLong(3), Long::sum);
+                }
+            }
+        }
+        try (PreparedStatement ps = conn.prepareStatement(COUNT_WINDOWS)) {
+            ps.setTimestamp(1, from);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    deltas.merge(windowKey(rs), -rs.getLong(3), Long::sum);
+                }
+            }
+        }
+        deltas.values().removeIf(d -> d == 0);
+        runs++;
+        if (deltas.isEmpty()) {
+            log.debug("Stats reconciled since {}: no drift", from);
+            return;
+        }
+
+        Map<String, Long> roomDeltas = new TreeMap<>();
+        long total = 0;
+        long moved = 0;
+        for (Map.Entry<BatchStats.WindowKey, Long> e : deltas.entrySet()) {
+            roomDeltas.merge(e.getKey().roomId, e.getValue(), Long::sum);
+            total += e.getValue();
+            moved += Math.abs(e.getValue());
+        }
+
+        // 写回顺序与写线程事务（MySqlMessageDao.writeBatch）一致：先 room_statistics 再 time_window_stats，
+        // 表内都按主键顺序；反过来的话同一房间、同一分钟的对账和写批次会互相等锁死锁
+        try (PreparedStatement ps = conn.prepareStatement(ADJUST_ROOM)) {
+            for (Map.Entry<String, Long> e : roomDeltas.entrySet()) {
+                if (e.getValue() == 0) continue;
+                ps.setLong(1, e.getValue());
+                ps.setString(2, e.getKey());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = conn.prepareStatement(ADJUST_WINDOW)) {
+            for (Map.Entry<BatchStats.WindowKey, Long> e : deltas.entrySet()) {
+                ps.setTimestamp(1, new Timestamp(e.getKey().bucket));
+                ps.setString(2, e.getKey().roomId);
+                ps.setLong(3, e.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        adjustedWindows += deltas.size();
+        adjustedMessages += moved;
+        log.info("Stats reconciled since {}: fixed {} (minute, room) windows in {} rooms, net {} messages",
+                from, deltas.size(), roomDeltas.size(), total);
+    }
+
+    /** 结果集前两列：分钟桶、房间 */
+    private static BatchStats.WindowKey windowKey(ResultSet rs) throws SQLException {
+        return new BatchStats.WindowKey(rs.getTimestamp(1).getTime(), rs.getString(2));
+    }
+
+    public Stats stats() {
+        return new Stats(runs, adjustedWindows, adjustedMessages);
+    }
+
+    /** 对账累计结果（字段直接序列化成 JSON） */
+    public static class Stats {
+        public final long runs;
+        public final long adjustedWindows;
+        public final long adjustedMessages;
+
+        Stats(long runs, long adjustedWindows, long adjustedMessages) {
+            this.runs = runs;
+            this.adjustedWindows = adjustedWindows;
+            this.adjustedMessages = adjustedMessages;
+        }
+    }
+}
@@ -48,13 +48,25 @@ CREATE TABLE user_statistics (
                                  username VARCHAR(50),
                                  total_messages INT DEFAULT 0,
                                  last_activity DATETIME(3),
-                                 rooms_participated TEXT,  -- 逗号分隔的room_id列表
                                  updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
 
                                  INDEX idx_total_messages (total_messages DESC),    -- 用于"最活跃用户"查询
                                  INDEX idx_last_activity (last_activity)
 ) ENGINE=InnoDB;
 
+-- ============================================
+-- 2b. 用户-房间参与索引 (user_rooms)
+-- 每个 (用户, 房间) 一行，代替 user_statistics.rooms_participated 逗号列表
+-- ============================================
+CREATE TABLE user_rooms (
+                            user_id VARCHAR(20) NOT NULL,
+                            room_id VARCHAR(50) NOT NULL,
+                            message_count INT DEFAULT 0,
+                            last_activity DATETIME(3),
+
+                            PRIMARY KEY (user_id, room_id)                     -- 核心查询4: 用户参与的房间
+) ENGINE=InnoDB;
+
 -- ============================================
 -- 3. 房间活动统计表 (room_statistics)
 -- 预聚合的房间统计数据
@@ -62,8 +74,9 @@ CREATE TABLE user_statistics (
 CREATE TABLE room_statistics (
                                  room_id VARCHAR(50) PRIMARY KEY,
                                  total_messages INT DEFAULT 0,
-                                 unique_users INT DEFAULT 0,
+                                 unique_users INT DEFAULT 0,                        -- users_hll 的估计值
                                  last_activity DATETIME(3),
+                                 users_hll BLOB,                                    -- HyperLogLog 去重草图（可合并）
                                  updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
 
                                  INDEX idx_total_messages (total_messages DESC),    -- 用于"最活跃房间"查询
@@ -79,8 +92,23 @@ CREATE TABLE time_window_stats (
                                    time_bucket DATETIME NOT NULL,     -- 精确到分钟
                                    room_id VARCHAR(50),
                                    message_count INT DEFAULT 0,
-                                   unique_users INT DEFAULT 0,
+                                   unique_users INT DEFAULT 0,    -- users_hll 的估计值
+                                   users_hll BLOB,                -- 该分钟该房间的 HyperLogLog 去重草图
 
                                    UNIQUE KEY uk_time_room (time_bucket, room_id),
                                    INDEX idx_time_bucket (time_bucket)
-) ENGINE=InnoDB;
\ No newline at end of file
+) ENGINE=InnoDB;
+
+-- ============================================
+-- 已有库升级：HyperLogLog 去重草图列
+-- ============================================
+-- ALTER TABLE room_statistics ADD COLUMN users_hll BLOB AFTER last_activity;
+-- ALTER TABLE time_window_stats ADD COLUMN users_hll BLOB AFTER unique_users;
+
+-- ============================================
+-- 已有库升级：user_rooms 参与索引（从 messages 回填一次），删除 rooms_participated
+-- ============================================
+-- CREATE TABLE user_rooms (... 同上 ...);
+-- INSERT INTO user_rooms (user_id, room_id, message_count, last_activity)
+--     SELECT user_id, room_id, COUNT(*), MAX(timestamp) FROM messages GROUP BY user_id, room_id;
+-- ALTER TABLE user_statistics DROP COLUMN rooms_participated;
@@ -0,0 +1,54 @@
+-- CS6650 Assignment 3 - 按时间分区的 messages 表
+-- 在 chat_schema.sql 之后执行，用分区表替换 messages（其他表不变）
+-- 配合 database.properties: db.messages.partitioning=DAY|HOUR（MessagePartitionManager 负责预建 / 删除分区）
+
+USE chat_system;
+
+DROP TABLE IF EXISTS messages;
+
+-- ============================================
+-- 1. 主消息表 (messages) - RANGE COLUMNS(timestamp) 分区
+-- - 聚簇键 (id, timestamp)：自增 BIGINT，插入总是追加在索引末尾；二级索引里只带 13 字节主键
+-- - 主键不含 message_id，所以按房间 / 用户的二级索引显式带上 message_id：
+--   历史分页的 keyset 游标是 (timestamp, message_id)，索引里没有它就要读出键下所有更早的行再 filesort
+-- - 分区表的唯一键必须包含分区列，所以幂等键是 (message_id, timestamp)；
+--   重投递的消息时间戳来自消息体，和第一次完全相同
+-- - 带 timestamp 条件的查询只访问相关分区；过期数据整分区 DROP
+-- ============================================
+CREATE TABLE messages (
+                          id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT,
+                          message_id VARCHAR(100) NOT NULL,
+
+    -- 消息基本信息
+                          room_id VARCHAR(50) NOT NULL,
+                          user_id VARCHAR(20) NOT NULL,
+                          username VARCHAR(50) NOT NULL,
+                          message TEXT NOT NULL,
+                          message_type ENUM('TEXT', 'JOIN', 'LEAVE') NOT NULL DEFAULT 'TEXT',
+
+    -- 时间戳 (从消息中的timestamp字段解析)，分区列
+                          timestamp DATETIME(3) NOT NULL,
+
+    -- 服务器信息
+                          server_id VARCHAR(50),
+                          client_ip VARCHAR(50),
+
+    -- 元数据
+                          created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+
+                          PRIMARY KEY (id, timestamp),
+                          UNIQUE KEY uk_message (message_id, timestamp),      -- ON DUPLICATE KEY / LOAD DATA IGNORE 去重
+                          INDEX idx_room_time (room_id, timestamp, message_id),  -- 核心查询1: 按房间查消息（keyset 分页）
+                          INDEX idx_user_time (user_id, timestamp, message_id)   -- 核心查询2: 用户消息历史（keyset 分页）
+    -- 不再需要 idx_timestamp（分区裁剪）和 idx_user_room（user_rooms 表）
+) ENGINE=InnoDB
+    PARTITION BY RANGE COLUMNS(timestamp) (
+        -- 初始分区：更早的数据；之后的分区由 MessagePartitionManager 从 pmax 拆出
+        PARTITION p2025010100 VALUES LESS THAN ('2025-01-01 00:00:00'),
+        PARTITION pmax VALUES LESS THAN (MAXVALUE)
+    );
+
+-- 已按旧定义建好的分区表：
+-- ALTER TABLE messages
+--     DROP INDEX idx_room_time, ADD INDEX idx_room_time (room_id, timestamp, message_id),
+--     DROP INDEX idx_user_time, ADD INDEX idx_user_time (user_id, timestamp, message_id);
@@ -15,5 +15,19 @@ public class RoomManager {
         broadcaster.broadcast(roomId, msg);   // 通过 HTTP 通知各个 server 自己去广播
         messagesProcessed.incrementAndGet();
     }
+
+    /** 转发原始 JSON 字节（来自 AMQP body），不再重新序列化 */
+    public void deliver(String roomId, byte[] payload) throws Exception {
+        if (broadcaster == null) throw new IllegalStateException("Broadcaster not set");
+        broadcaster.broadcast(roomId, payload);
+        messagesProcessed.incrementAndGet();
+    }
+
+    /** 同上；重试的消息跳过 log 里已送达的 server */
+    public void deliver(String roomId, byte[] payload, Broadcaster.DeliveryLog log) throws Exception {
+        if (broadcaster == null) throw new IllegalStateException("Broadcaster not set");
+        broadcaster.broadcast(roomId, payload, log);
+        messagesProcessed.incrementAndGet();
+    }
 }
 
@@ -0,0 +1,102 @@
+package chat.consumer.metrics;
+
+import chat.consumer.util.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 消费端各阶段延迟（进程内单例，热路径只做一次直方图 record）。
+ *
+ * 阶段：
+ *   queueDwell    发布时间（x-published-ms / AMQP timestamp）-> 投递到 consumer
+ *   executorWait  投递 -> worker 开始处理
+ *   jsonParse     消息体解析
+ *   broadcast     每台 server 一次 HTTP 往返（按 server 分开）
+ *   dbBufferWait  进入写缓冲 -> 开始批量写
+ *   batchCommit   一次 batchInsertMessages 的耗时
+ *
+ * rotate() 把当前区间的统计固化为 Interval 并清零，/pipeline 返回最近一个完整区间。
+ * 另外可以注册 gauge（例如写入端 spool 的积压和重放速率），在 rotate 时取值一起返回。
+ */
+public final class PipelineMetrics {
+
+    public static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+    public final LatencyHistogram queueDwell = new LatencyHistogram();
+    public final LatencyHistogram executorWait = new LatencyHistogram();
+    public final LatencyHistogram jsonParse = new LatencyHistogram();
+    public final LatencyHistogram dbBufferWait = new LatencyHistogram();
+    public final LatencyHistogram batchCommit = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> broadcast = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<?>> gauges = new ConcurrentHashMap<>();
+
+    private long intervalStartMs = System.currentTimeMillis();
+    private volatile Interval last;
+
+    private PipelineMetrics() {
+    }
+
+    /** 某台广播 server 的往返延迟直方图（调用方应缓存返回值） */
+    public LatencyHistogram broadcast(String server) {
+        return broadcast.computeIfAbsent(server, k -> new LatencyHistogram());
+    }
+
+    /** 注册一个在 rotate 时取值的 gauge（同名覆盖） */
+    public void registerGauge(String name, Supplier<?> supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /** 结束当前区间：取快照并清零 */
+    public synchronized Interval rotate() {
+        long now = System.currentTimeMillis();
+        Map<String, LatencyHistogram.Snapshot> perServer = new LinkedHashMap<>();
+        broadcast.forEach((server, h) -> perServer.put(server, h.snapshotAndReset()));
+        Map<String, Object> gaugeValues = new LinkedHashMap<>();
+        gauges.forEach((name, g) -> gaugeValues.put(name, g.get()));
+        Interval interval = new Interval(intervalStartMs, now,
+                queueDwell.snapshotAndReset(), executorWait.snapshotAndReset(), jsonParse.snapshotAndReset(),
+                perServer, dbBufferWait.snapshotAndReset(), batchCommit.snapshotAndReset(), gaugeValues);
+        intervalStartMs = now;
+        last = interval;
+        return interval;
+    }
+
+    /** 最近一个完整区间；还没有 rotate 过时返回 null */
+    public Interval lastInterval() {
+        return last;
+    }
+
+    /** 一个区间的各阶段统计（字段直接序列化成 JSON） */
+    public static class Interval {
+        public final long startMs;
+        public final long endMs;
+        public final double messagesPerSec;
+        public final LatencyHistogram.Snapshot queueDwell;
+        public final LatencyHistogram.Snapshot executorWait;
+        public final LatencyHistogram.Snapshot jsonParse;
+        public final Map<String, LatencyHistogram.Snapshot> broadcast;
+        public final LatencyHistogram.Snapshot dbBufferWait;
+        public final LatencyHistogram.Snapshot batchCommit;
+        public final Map<String, Object> gauges;
+
+        Interval(long startMs, long endMs,
+                 LatencyHistogram.Snapshot queueDwell, LatencyHistogram.Snapshot executorWait,
+                 LatencyHistogram.Snapshot jsonParse, Map<String, LatencyHistogram.Snapshot> broadcast,
+                 LatencyHistogram.Snapshot dbBufferWait, LatencyHistogram.Snapshot batchCommit,
+                 Map<String, Object> gauges) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.messagesPerSec = endMs > startMs ? jsonParse.count * 1000.0 / (endMs - startMs) : 0;
+            this.queueDwell = queueDwell;
+            this.executorWait = executorWait;
+            this.jsonParse = jsonParse;
+            this.broadcast = broadcast;
+            this.dbBufferWait = dbBufferWait;
+            this.batchCommit = batchCommit;
+            this.gauges = gauges;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package chat.consumer.mock;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
@@ -13,7 +14,17 @@ public class BroadcastMockServer {
 
     public static void main(String[] args) throws Exception {
         int port = Integer.parseInt(System.getenv().getOrDefault("PORT", "8080"));
-        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        long latencyMs = Long.parseLong(System.getenv().getOrDefault("LATENCY_MS", "0")); // 模拟下游广播耗时
+        start(port, latencyMs);
+        System.out.println("internal API on :" + port + " (latency=" + latencyMs + "ms)");
+    }
+
+    /**
+     * 启动 mock 广播服务（benchmark 也在进程内直接调用）
+     * @param latencyMs 每个 /internal/broadcast 请求返回前的人为延迟
+     */
+    public static HttpServer start(int port, long latencyMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
 
         server.createContext("/health", ex -> {
             byte[] resp = "OK".getBytes(StandardCharsets.UTF_8);
@@ -26,12 +37,15 @@ public class BroadcastMockServer {
             String auth = ex.getRequestHeaders().getFirst("Authorization");
             if (!("Bearer " + TOKEN).equals(auth)) { ex.sendResponseHeaders(401, -1); ex.close(); return; }
             try (InputStream is = ex.getRequestBody()) { while (is.read() != -1) {} } // 丢弃请求体
+            if (latencyMs > 0) {
+                try { Thread.sleep(latencyMs); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
             ex.sendResponseHeaders(204, -1); // 成功返回 204
             ex.close();
         });
 
         server.setExecutor(Executors.newCachedThreadPool());
-        System.out.println("internal API on :" + port);
         server.start();
+        return server;
     }
 }
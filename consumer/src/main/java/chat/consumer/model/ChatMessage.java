@@ -4,4 +4,8 @@ package chat.consumer.model;
 public class ChatMessage {
     public String messageId; public String roomId; public String userId; public String username; public String message;
     public String timestamp; public String messageType; public String serverId; public String clientIp;
+    // 进入 DB 写缓冲的时间（System.nanoTime），只用于统计缓冲等待，不序列化
+    public transient long bufferedAtNanos;
+    // timestamp 解析后的 epoch 毫秒（入写缓冲时由生产者线程填写，0 = 未解析）
+    public transient long timestampMillis;
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package chat.consumer.model;
+
+import chat.consumer.util.StringInterner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 持久化路径上的列式消息批次（非线程安全，清空后复用）。
+ *
+ * 与 List&lt;ChatMessage&gt; 相比：
+ * - 时间戳在 add 时解析一次，存成 epoch 毫秒（long[]），写库和统计都不再解析字符串；
+ * - roomId / userId / username / messageType / serverId / clientIp 经 StringInterner 驻留，批次里只是引用；
+ * - 消息正文编码成 UTF-8 追加到一块复用的 byte[]，按 offset 取；
+ * - 批次对象和各列数组在 clear() 后复用，稳定运行时每条消息只剩 messageId 一个长期存活的对象。
+ *
+ * messageId 为空时在 add 时生成 UUID，后续重试 / 落 spool 都沿用同一个 ID。
+ */
+public final class MessageBatch {
+    private static final Logger log = LoggerFactory.getLogger(MessageBatch.class);
+
+    static final StringInterner DICT = new StringInterner(200_000);
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private int size;
+    private String[] messageIds;
+    private String[] roomIds;
+    private String[] userIds;
+    private String[] usernames;
+    private String[] messageTypes;
+    private String[] serverIds;
+    private String[] clientIps;
+    private long[] timestamps;          // epoch 毫秒
+    private long[] bufferedAtNanos;     // 进入写缓冲的时间（0 = 未知）
+    private int[] bodyStarts;           // 第 i 条正文 = bodies[bodyStarts[i], bodyStarts[i] + bodyLengths[i])
+    private int[] bodyLengths;          // -1 = null
+    private byte[] bodies;
+    private int bodyLength;
+
+    public MessageBatch(int capacity) {
+        int n = Math.max(1, capacity);
+        messageIds = new String[n];
+        roomIds = new String[n];
+        userIds = new String[n];
+        usernames = new String[n];
+        messageTypes = new String[n];
+        serverIds = new String[n];
+        clientIps = new String[n];
+        timestamps = new long[n];
+        bufferedAtNanos = new long[n];
+        bodyStarts = new int[n];
+        bodyLengths = new int[n];
+        bodies = new byte[n * 64];
+    }
+
+    public static MessageBatch of(List<ChatMessage> messages) {
+        MessageBatch batch = new MessageBatch(messages.size());
+        for (ChatMessage m : messages) {
+            batch.add(m);
+        }
+        return batch;
+    }
+
+    public void add(ChatMessage m) {
+        add(m, m.bufferedAtNanos);
+    }
+
+    public void add(ChatMessage m, long bufferedAt) {
+        add(m, bufferedAt, m.timestampMillis != 0 ? m.timestampMillis : parseTimestamp(m.timestamp));
+    }
+
+    /** timestampMillis 由调用方预先解析（例如在锁外） */
+    public void add(ChatMessage m, long bufferedAt, long timestampMillis) {
+        if (size == messageIds.length) {
+            grow();
+        }
+        int i = size;
+        messageIds[i] = messageIdOf(m);
+        roomIds[i] = DICT.intern(m.roomId);
+        userIds[i] = DICT.intern(m.userId);
+        usernames[i] = DICT.intern(m.username);
+        messageTypes[i] = DICT.intern(m.messageType);
+        serverIds[i] = DICT.intern(m.serverId);
+        clientIps[i] = DICT.intern(m.clientIp);
+        timestamps[i] = timestampMillis;
+        bufferedAtNanos[i] = bufferedAt;
+        bodyStarts[i] = bodyLength;
+        if (m.message == null) {
+            bodyLengths[i] = -1;
+        } else {
+            appendUtf8(m.message);
+            bodyLengths[i] = bodyLength - bodyStarts[i];
+        }
+        size = i + 1;
+    }
+
+    /**
+     * 追加已经拆好列的一行（MessageColumns 用）：字符串已驻留、时间戳已解析，正文是 UTF-8（null = null 正文）
+     */
+    void addRow(String messageId, String roomId, String userId, String username, String messageType,
+                String serverId, String clientIp, long timestampMillis, long bufferedAt, byte[] body) {
+        if (size == messageIds.length) {
+            grow();
+        }
+        int i = size;
+        messageIds[i] = messageId;
+        roomIds[i] = roomId;
+        userIds[i] = userId;
+        usernames[i] = username;
+        messageTypes[i] = messageType;
+        serverIds[i] = serverId;
+        clientIps[i] = clientIp;
+        timestamps[i] = timestampMillis;
+        bufferedAtNanos[i] = bufferedAt;
+        bodyStarts[i] = bodyLength;
+        if (body == null) {
+            bodyLengths[i] = -1;
+        } else {
+            ensureBodyCapacity(bodyLength + body.length);
+            System.arraycopy(body, 0, bodies, bodyLength, body.length);
+            bodyLength += body.length;
+            bodyLengths[i] = body.length;
+        }
+        size = i + 1;
+    }
+
+    /** messageId 为空时生成 UUID */
+    static String messageIdOf(ChatMessage m) {
+        return m.messageId != null && !m.messageId.isBlank() ? m.messageId : UUID.randomUUID().toString();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** 清空以便复用（不释放数组；引用置空，避免钉住已写出的字符串） */
+    public void clear() {
+        Arrays.fill(messageIds, 0, size, null);
+        size = 0;
+        bodyLength = 0;
+    }
+
+    public String messageId(int i) { return messageIds[i]; }
+    public String roomId(int i) { return roomIds[i]; }
+    public String userId(int i) { return userIds[i]; }
+    public String username(int i) { return usernames[i]; }
+    public String messageType(int i) { return messageTypes[i]; }
+    public String serverId(int i) { return serverIds[i]; }
+    public String clientIp(int i) { return clientIps[i]; }
+    public long timestampMillis(int i) { return timestamps[i]; }
+    public long bufferedAtNanos(int i) { return bufferedAtNanos[i]; }
+
+    /** 正文在 bodies() 里的起始位置 */
+    public int bodyOffset(int i) {
+        return bodyStarts[i];
+    }
+
+    /** 正文 UTF-8 字节数；null 正文返回 -1 */
+    public int bodyLength(int i) {
+        return bodyLengths[i];
+    }
+
+    /** 所有正文的 UTF-8 字节（只读；有效范围见 bodyOffset / bodyLength） */
+    public byte[] bodies() {
+        return bodies;
+    }
+
+    public String body(int i) {
+        int len = bodyLength(i);
+        return len < 0 ? null : new String(bodies, bodyStarts[i], len, StandardCharsets.UTF_8);
+    }
+
+    /** 还原成 ChatMessage（落 spool 等少见路径用） */
+    public List<ChatMessage> toMessages() {
+        List<ChatMessage> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ChatMessage m = new ChatMessage();
+            m.messageId = messageIds[i];
+            m.roomId = roomIds[i];
+            m.userId = userIds[i];
+            m.username = usernames[i];
+            m.message = body(i);
+            m.timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamps[i]), ZONE)
+                    .format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            m.messageType = messageTypes[i];
+            m.serverId = serverIds[i];
+            m.clientIp = clientIps[i];
+            out.add(m);
+        }
+        return out;
+    }
+
+    private void grow() {
+        int n = messageIds.length * 2;
+        messageIds = Arrays.copyOf(messageIds, n);
+        roomIds = Arrays.copyOf(roomIds, n);
+        userIds = Arrays.copyOf(userIds, n);
+        usernames = Arrays.copyOf(usernames, n);
+        messageTypes = Arrays.copyOf(messageTypes, n);
+        serverIds = Arrays.copyOf(serverIds, n);
+        clientIps = Arrays.copyOf(clientIps, n);
+        timestamps = Arrays.copyOf(timestamps, n);
+        bufferedAtNanos = Arrays.copyOf(bufferedAtNanos, n);
+        bodyStarts = Arrays.copyOf(bodyStarts, n);
+        bodyLengths = Arrays.copyOf(bodyLengths, n);
+    }
+
+    /** 直接编码进 bodies，不经过中间 byte[] */
+    private void appendUtf8(String s) {
+        int len = s.length();
+        ensureBodyCapacity(bodyLength + len * 3);
+        byte[] b = bodies;
+        int p = bodyLength;
+        for (int k = 0; k < len; k++) {
+            char c = s.charAt(k);
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xC0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && k + 1 < len && Character.isLowSurrogate(s.charAt(k + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++k));
+                b[p++] = (byte) (0xF0 | (cp >> 18));
+                b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                b[p++] = '?';   // 孤立代理项，与 String.getBytes(UTF_8) 一致
+            } else {
+                b[p++] = (byte) (0xE0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        bodyLength = p;
+    }
+
+    private void ensureBodyCapacity(int needed) {
+        if (needed > bodies.length) {
+            bodies = Arrays.copyOf(bodies, Math.max(needed, bodies.length * 2));
+        }
+    }
+
+    /**
+     * 解析 ISO-8601 时间戳（按本地时区解释，与原来 Timestamp.valueOf(LocalDateTime) 一致）
+     */
+    public static long parseTimestamp(String isoTimestamp) {
+        try {
+            return LocalDateTime.parse(isoTimestamp, DateTimeFormatter.ISO_DATE_TIME)
+                    .atZone(ZONE).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            log.warn("Failed to parse timestamp: {}, using current time", isoTimestamp);
+            return System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package chat.consumer.model;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按槽位号寻址的预分配列式存储，配合 MpscRingBuffer 的 offer(SlotWriter) / drainSlots 使用：
+ * 环形缓冲只管槽位的认领和发布，消息本身按列放在这里。
+ *
+ * 与在环里放 ChatMessage 相比，缓冲中的消息不再钉住 ChatMessage 对象和它的 9 个 String：
+ * - roomId / userId / username / messageType / serverId / clientIp 经 MessageBatch 的驻留池，只存引用；
+ * - 时间戳存 epoch 毫秒，正文存一份 UTF-8 byte[]；
+ * - 每条消息长期存活的只剩 messageId 和正文两个对象，列数组在构造时一次分配好。
+ *
+ * 线程约束与 MpscRingBuffer 相同：set 由认领到该槽位的生产者调用，moveTo 只由唯一的消费者调用；
+ * 可见性由环形缓冲的发布（lazySet 序号）保证。
+ */
+public final class MessageColumns {
+    private final String[] messageIds;
+    private final String[] roomIds;
+    private final String[] userIds;
+    private final String[] usernames;
+    private final String[] messageTypes;
+    private final String[] serverIds;
+    private final String[] clientIps;
+    private final long[] timestamps;         // epoch 毫秒
+    private final long[] bufferedAtNanos;    // 进入写缓冲的时间（0 = 未知）
+    private final byte[][] bodies;           // UTF-8，null = null 正文
+
+    /**
+     * @param slots 槽位数（= MpscRingBuffer.slots()）
+     */
+    public MessageColumns(int slots) {
+        messageIds = new String[slots];
+        roomIds = new String[slots];
+        userIds = new String[slots];
+        usernames = new String[slots];
+        messageTypes = new String[slots];
+        serverIds = new String[slots];
+        clientIps = new String[slots];
+        timestamps = new long[slots];
+        bufferedAtNanos = new long[slots];
+        bodies = new byte[slots][];
+    }
+
+    /**
+     * 生产者：把消息拆成列写进 slot。
+     * timestampMillis / bufferedAtNanos 取消息上已经填好的值（timestampMillis 为 0 时在这里解析），
+     * 解析最好在认领槽位之前做完，认领到发布之间消费者会停在这个槽位上。
+     */
+    public void set(int slot, ChatMessage m) {
+        messageIds[slot] = MessageBatch.messageIdOf(m);
+        roomIds[slot] = MessageBatch.DICT.intern(m.roomId);
+        userIds[slot] = MessageBatch.DICT.intern(m.userId);
+        usernames[slot] = MessageBatch.DICT.intern(m.username);
+        messageTypes[slot] = MessageBatch.DICT.intern(m.messageType);
+        serverIds[slot] = MessageBatch.DICT.intern(m.serverId);
+        clientIps[slot] = MessageBatch.DICT.intern(m.clientIp);
+        timestamps[slot] = m.timestampMillis != 0 ? m.timestampMillis : MessageBatch.parseTimestamp(m.timestamp);
+        bufferedAtNanos[slot] = m.bufferedAtNanos;
+        bodies[slot] = m.message != null ? m.message.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    /** 消费者：把 slot 的一行追加到 batch，并清掉引用（不钉住已经交出去的字符串和正文） */
+    public void moveTo(int slot, MessageBatch batch) {
+        batch.addRow(messageIds[slot], roomIds[slot], userIds[slot], usernames[slot], messageTypes[slot],
+                serverIds[slot], clientIps[slot], timestamps[slot], bufferedAtNanos[slot], bodies[slot]);
+        messageIds[slot] = null;
+        bodies[slot] = null;
+    }
+}
@@ -0,0 +1,132 @@
+package chat.consumer.persistence;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写线程的自适应攒批（每个分区一个，只由该分区的写线程更新）。
+ *
+ * 目标：每条消息从进缓冲到提交完成不超过 targetLatency，在此前提下尽量多攒（行/秒更高）。
+ * 一半预算给提交，一半给排队 / 攒批：
+ * - 提交耗时超过 target/2：按超出比例缩小批大小（乘性减，至少 ×0.9），避免长事务拖住写线程；
+ * - 一取就是满批（真有积压，不是 linger 凑出来的）且提交在预算内：批大小加 maxBatch/20（加性增）；
+ *   第一次减小之前按倍数增长（慢启动），启动后很快到达合适的批大小；
+ * - 攒批等待 linger 不超过一次平均提交耗时（等待换来的提交次数减少才划算），也不超过
+ *   (target - 2 × 平均提交耗时) / 2 和 maxLinger：轻载时凑一凑，不会像固定 flushInterval 那样让消息干等；
+ *   有积压时批次立刻就满，linger 不起作用。
+ * - 提交失败（onFailure）：批大小减半并结束慢启动；失败的耗时不计入平均提交耗时。
+ */
+public final class BatchSizeController {
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final long targetNanos;
+    private final long maxLingerNanos;
+    private final int minBatch;
+    private final int maxBatch;
+    private final int step;
+
+    private volatile int batchSize;
+    private volatile long lingerNanos;
+    private volatile double ewmaCommitNanos;
+    private volatile long lastLatencyNanos;
+    private volatile long increases;
+    private volatile long decreases;
+    private boolean slowStart = true;
+
+    /**
+     * @param targetLatencyMs 目标持久化延迟（进缓冲 -> 提交完成）
+     * @param minBatch        批大小下限
+     * @param maxBatch        批大小上限（= 配置的 batchSize）
+     * @param maxLingerMs     攒批等待上限（= 配置的 flushMs）
+     */
+    public BatchSizeController(long targetLatencyMs, int minBatch, int maxBatch, long maxLingerMs) {
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMs);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.minBatch = Math.max(1, Math.min(minBatch, this.maxBatch));
+        this.step = Math.max(1, this.maxBatch / 20);
+        this.batchSize = this.minBatch;
+        this.lingerNanos = 0;
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    public long lingerNanos() {
+        return lingerNanos;
+    }
+
+    /**
+     * 一次提交完成后调用
+     * @param rows            本批行数
+     * @param backlogged      第一次取就取满了当前批大小（不靠 linger）
+     * @param commitNanos     提交耗时
+     * @param oldestWaitNanos 本批最早一条在缓冲里等待的时间
+     */
+    public void onCommit(int rows, boolean backlogged, long commitNanos, long oldestWaitNanos) {
+        double ewma = ewmaCommitNanos == 0 ? commitNanos
+                : EWMA_ALPHA * commitNanos + (1 - EWMA_ALPHA) * ewmaCommitNanos;
+        ewmaCommitNanos = ewma;
+        lastLatencyNanos = oldestWaitNanos + commitNanos;
+
+        int size = batchSize;
+        long budget = targetNanos / 2;
+        if (commitNanos > budget) {
+            slowStart = false;
+            if (size > minBatch) {
+                // 假设提交耗时近似与行数成正比：缩到刚好放进预算，再留 10%
+                batchSize = Math.max(minBatch, (int) (size * 0.9 * budget / commitNanos));
+                decreases++;
+            }
+        } else if (backlogged && rows >= size && size < maxBatch) {
+            batchSize = Math.min(maxBatch, slowStart ? size * 2 : size + step);
+            increases++;
+        }
+
+        long slack = (targetNanos - 2 * (long) ewma) / 2;
+        lingerNanos = Math.max(0, Math.min(Math.min(maxLingerNanos, (long) ewma), slack));
+    }
+
+    /**
+     * 一次提交失败后调用（批次已落 spool 或计为失败）：数据库不可用或过载时不能继续加大批次
+     */
+    public void onFailure() {
+        slowStart = false;
+        int size = batchSize;
+        if (size > minBatch) {
+            batchSize = Math.max(minBatch, size / 2);
+            decreases++;
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(batchSize, lingerNanos / 1e6, ewmaCommitNanos / 1e6, lastLatencyNanos / 1e6,
+                increases, decreases);
+    }
+
+    /** 控制器当前决策（字段直接序列化成 JSON） */
+    public static class Snapshot {
+        public final int batchSize;
+        public final double lingerMs;
+        public final double avgCommitMs;
+        public final double lastLatencyMs;
+        public final long increases;
+        public final long decreases;
+
+        Snapshot(int batchSize, double lingerMs, double avgCommitMs, double lastLatencyMs,
+                 long increases, long decreases) {
+            this.batchSize = batchSize;
+            this.lingerMs = lingerMs;
+            this.avgCommitMs = avgCommitMs;
+            this.lastLatencyMs = lastLatencyMs;
+            this.increases = increases;
+            this.decreases = decreases;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("batch=%d linger=%.1fms commit=%.1fms latency=%.1fms (+%d/-%d)",
+                    batchSize, lingerMs, avgCommitMs, lastLatencyMs, increases, decreases);
+        }
+    }
+}
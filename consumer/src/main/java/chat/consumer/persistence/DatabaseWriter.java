@@ -1,31 +1,52 @@
 package chat.consumer.persistence;
 
 import chat.consumer.dao.MessageDao;
+import chat.consumer.metrics.PipelineMetrics;
 import chat.consumer.model.ChatMessage;
+import chat.consumer.model.MessageBatch;
+import chat.consumer.model.MessageColumns;
+import chat.consumer.util.MpscRingBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 数据库写入服务 - Write-Behind模式
  * 负责批量写入消息到数据库，优化写入性能
+ *
+ * 按 roomId 哈希分成 writerThreads 个分区，每个分区一个有界缓冲 + 一个专属写线程：
+ * - 同一房间只由一个写线程写，room_statistics / time_window_stats 的热点行不会在写线程之间互相锁等待；
+ * - 每个写线程持有自己的 MessageDao.Session（连接 + PreparedStatement 跨批次复用）；
+ * - 写线程自己攒批，不再有和它抢同一个队列的定时 flush 线程。
+ * - 分区缓冲是预分配的无锁 MPSC 环形缓冲（MpscRingBuffer）：consumer worker 入队不加锁、不分配节点；
+ *   环里不放 ChatMessage，消息在入队时拆成列写进预分配的 MessageColumns（按槽位号寻址），
+ *   写线程一次批量取出至多 batchSize 行，追加到自己复用的列式 MessageBatch 再写库。
+ *
+ * 可选的 MessageSpool（setSpool）：缓冲满或批次提交失败时消息落到本地 spool 而不是丢弃，
+ * 由 spool-replayer 线程在数据库恢复后按限速直接写库（自己的 Session），写成功后才推进 spool 读位置。
+ * 缓冲满时溢出的消息先在分区里攒成一批再追加到 spool，不会每条消息一条 spool 记录。
+ *
+ * 可选的自适应攒批（setAdaptiveBatching）：每个分区一个 BatchSizeController，按提交耗时 AIMD 调整批大小，
+ * 并决定凑批最多等多久；未启用时批大小固定为 batchSize、有消息就写。
  */
 public class DatabaseWriter implements AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(DatabaseWriter.class);
 
     private final MessageDao messageDao;
-    private final BlockingQueue<ChatMessage> writeBuffer;
+    private final Partition[] partitions;
     private final ExecutorService writerPool;
-    private final ScheduledExecutorService scheduler;
 
     // 配置参数
     private final int batchSize;
     private final long flushIntervalMs;
     private final int writerThreads;
+    private final int bufferCapacity;
+    private final MpscRingBuffer.WaitStrategy waitStrategy;
 
     // 统计指标
     private final AtomicLong totalWritten = new AtomicLong(0);
@@ -34,43 +55,103 @@ public class DatabaseWriter implements AutoCloseable {
 
     private volatile boolean running = false;
 
+    // 溢出 spool（null = 未启用，保持原来的丢弃行为）
+    private MessageSpool spool;
+    private int replayPerSec;
+    private Thread replayer;
+    private volatile long lastFailureNanos = System.nanoTime() - REPLAY_QUIET_NANOS;
+
+    private static final long FLUSH_TIMEOUT_MS = 30_000;
+    // 重放条件：缓冲占用低于一半，且最近一段时间没有写失败
+    private static final double REPLAY_MAX_FILL = 0.5;
+    private static final long REPLAY_QUIET_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long SPOOL_FORCE_INTERVAL_MS = 1000;
+    // 缓冲满时溢出消息攒到这么多条再追加一条 spool 记录；不足的由重放线程每轮（约 100ms）刷出
+    private static final int SPILL_BATCH = 256;
+
     /**
      * 构造函数
      * @param messageDao 数据访问对象
      * @param batchSize 批量大小（建议：500-1000）
-     * @param flushIntervalMs flush间隔（建议：500-1000ms）
-     * @param writerThreads 写入线程数（建议：2-4）
-     * @param bufferCapacity 缓冲区容量（建议：10000）
+     * @param flushIntervalMs 写线程空闲时的轮询间隔（建议：500-1000ms）
+     * @param writerThreads 写入线程数 = 分区数（建议：2-4，不超过连接池大小）
+     * @param bufferCapacity 缓冲区总容量，平均分给各分区（建议：10000）
      */
     public DatabaseWriter(MessageDao messageDao,
                           int batchSize,
                           long flushIntervalMs,
                           int writerThreads,
                           int bufferCapacity) {
+        this(messageDao, batchSize, flushIntervalMs, writerThreads, bufferCapacity, MpscRingBuffer.WaitStrategy.PARK);
+    }
+
+    /**
+     * @param waitStrategy 写线程在分区为空时的等待方式（PARK 不占 CPU；BUSY_SPIN / YIELD 延迟更低但每个写线程占一个核）
+     */
+    public DatabaseWriter(MessageDao messageDao,
+                          int batchSize,
+                          long flushIntervalMs,
+                          int writerThreads,
+                          int bufferCapacity,
+                          MpscRingBuffer.WaitStrategy waitStrategy) {
         this.messageDao = messageDao;
         this.batchSize = batchSize;
         this.flushIntervalMs = flushIntervalMs;
         this.writerThreads = writerThreads;
+        this.bufferCapacity = bufferCapacity;
+        this.waitStrategy = waitStrategy;
 
         // 使用有界队列防止内存溢出
-        this.writeBuffer = new LinkedBlockingQueue<>(bufferCapacity);
+        this.partitions = new Partition[writerThreads];
+        int perPartition = Math.max(1, bufferCapacity / writerThreads);
+        for (int i = 0; i < writerThreads; i++) {
+            partitions[i] = new Partition(i, perPartition, waitStrategy);
+        }
 
-        // 写入线程池
+        // 写入线程池：每个分区一个线程
+        AtomicInteger threadIndex = new AtomicInteger();
         this.writerPool = Executors.newFixedThreadPool(writerThreads, r -> {
-            Thread t = new Thread(r, "db-writer");
+            Thread t = new Thread(r, "db-writer-" + threadIndex.getAndIncrement());
             t.setDaemon(true);
             return t;
         });
 
-        // 定时flush线程
-        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "db-flusher");
-            t.setDaemon(true);
-            return t;
-        });
+        log.info("DatabaseWriter initialized: batchSize={}, flushInterval={}ms, writerThreads={}, bufferCapacity={}, wait={}",
+                batchSize, flushIntervalMs, writerThreads, bufferCapacity, waitStrategy);
+    }
+
+    /**
+     * 启用溢出 spool（须在 start 之前调用）
+     * @param replayPerSec 重放速率上限（消息/秒）
+     */
+    public void setSpool(MessageSpool spool, int replayPerSec) {
+        this.spool = spool;
+        this.replayPerSec = Math.max(1, replayPerSec);
+    }
 
-        log.info("DatabaseWriter initialized: batchSize={}, flushInterval={}ms, writerThreads={}, bufferCapacity={}",
-                batchSize, flushIntervalMs, writerThreads, bufferCapacity);
+    /**
+     * 启用自适应攒批（须在 start 之前调用）：batchSize 作为批大小上限，flushIntervalMs 作为凑批等待上限
+     * @param targetLatencyMs 目标持久化延迟（进缓冲 -> 提交完成）
+     * @param minBatch        批大小下限
+     */
+    public void setAdaptiveBatching(long targetLatencyMs, int minBatch) {
+        for (Partition p : partitions) {
+            p.controller = new BatchSizeController(targetLatencyMs, minBatch, batchSize, flushIntervalMs);
+        }
+        PipelineMetrics.INSTANCE.registerGauge("writerBatching", this::batchingSnapshot);
+        log.info("Adaptive batching enabled: target={}ms, batch={}..{}, maxLinger={}ms",
+                targetLatencyMs, minBatch, batchSize, flushIntervalMs);
+    }
+
+    /** 各分区攒批控制器的当前决策（未启用时为空） */
+    public List<BatchSizeController.Snapshot> batchingSnapshot() {
+        List<BatchSizeController.Snapshot> out = new ArrayList<>(partitions.length);
+        for (Partition p : partitions) {
+            if (p.controller != null) {
+                out.add(p.controller.snapshot());
+            }
+        }
+        return out;
     }
 
     /**
@@ -85,13 +166,15 @@ public class DatabaseWriter implements AutoCloseable {
         running = true;
 
         // 启动写入线程
-        for (int i = 0; i < writerThreads; i++) {
-            writerPool.submit(this::writerLoop);
+        for (Partition p : partitions) {
+            writerPool.submit(() -> writerLoop(p));
         }
 
-        // 启动定时flush
-        scheduler.scheduleAtFixedRate(this::periodicFlush,
-                flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (spool != null) {
+            replayer = new Thread(this::replayLoop, "spool-replayer");
+            replayer.setDaemon(true);
+            replayer.start();
+        }
 
         log.info("DatabaseWriter started with {} writer threads", writerThreads);
     }
@@ -107,9 +190,16 @@ public class DatabaseWriter implements AutoCloseable {
             return false;
         }
 
-        boolean added = writeBuffer.offer(message);
+        Partition p = partitionOf(message.roomId);
+        p.pending.incrementAndGet();
+        boolean added = p.offer(message);
         if (!added) {
-            log.warn("Write buffer full, message dropped. Current size: {}", writeBuffer.size());
+            p.pending.decrementAndGet();
+            if (spool != null) {
+                spill(p, message);
+                return true;
+            }
+            log.warn("Write buffer full, message dropped. Partition {} size: {}", p.index, p.ring.size());
         }
         return added;
     }
@@ -127,104 +217,273 @@ public class DatabaseWriter implements AutoCloseable {
         return added;
     }
 
-    /**
-     * 写入线程主循环
-     */
-    private void writerLoop() {
-        List<ChatMessage> batch = new ArrayList<>(batchSize);
+    /** 缓冲满：消息进分区的溢出列表，攒够 SPILL_BATCH 条一起追加到 spool */
+    private void spill(Partition p, ChatMessage message) {
+        List<ChatMessage> full = null;
+        synchronized (p.overflow) {
+            p.overflow.add(message);
+            if (p.overflow.size() >= SPILL_BATCH) {
+                full = new ArrayList<>(p.overflow);
+                p.overflow.clear();
+            }
+        }
+        if (full != null) {
+            appendToSpool(full);
+        }
+    }
 
-        while (running || !writeBuffer.isEmpty()) {
-            try {
-                // 阻塞等待第一条消息
-                ChatMessage first = writeBuffer.poll(100, TimeUnit.MILLISECONDS);
-                if (first == null) {
+    /** 把各分区溢出列表里剩下的消息追加到 spool（重放线程定期调用，关闭时兜底） */
+    private void flushOverflow() {
+        for (Partition p : partitions) {
+            List<ChatMessage> rest;
+            synchronized (p.overflow) {
+                if (p.overflow.isEmpty()) {
                     continue;
                 }
-
-                batch.clear();
-                batch.add(first);
-
-                // 批量收集消息（不超过batchSize）
-                writeBuffer.drainTo(batch, batchSize - 1);
-
-                // 写入数据库
-                if (!batch.isEmpty()) {
-                    writeBatch(batch);
-                }
-
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                log.warn("Writer thread interrupted");
-                break;
-            } catch (Exception e) {
-                log.error("Error in writer loop", e);
+                rest = new ArrayList<>(p.overflow);
+                p.overflow.clear();
             }
+            appendToSpool(rest);
         }
+    }
 
-        log.info("Writer thread exiting. Remaining messages: {}", writeBuffer.size());
+    private void appendToSpool(List<ChatMessage> messages) {
+        if (!spool.append(messages)) {
+            failedWrites.addAndGet(messages.size());
+            log.warn("Write buffer full and spool rejected {} messages, dropped", messages.size());
+        }
+    }
+
+    private Partition partitionOf(String roomId) {
+        return partitions[roomId == null ? 0 : Math.floorMod(roomId.hashCode(), partitions.length)];
     }
 
     /**
-     * 定时flush（处理小批量消息）
+     * 写入线程主循环：只消费自己的分区，连接和语句在批次之间复用
      */
-    private void periodicFlush() {
-        if (writeBuffer.isEmpty()) {
-            return;
+    private void writerLoop(Partition p) {
+        long pollNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(100, flushIntervalMs));
+        MessageBatch batch = new MessageBatch(batchSize);
+        MpscRingBuffer.SlotReader sink = slot -> p.columns.moveTo(slot, batch);
+
+        BatchSizeController controller = p.controller;
+
+        try (MessageDao.Session session = messageDao.openSession()) {
+            while (running || !p.ring.isEmpty()) {
+                try {
+                    // 等待第一条消息，批量取出（不超过当前批大小）
+                    batch.clear();
+                    int limit = controller != null ? controller.batchSize() : batchSize;
+                    int n = p.ring.drainSlots(sink, limit, pollNanos);
+                    if (n == 0) {
+                        continue;
+                    }
+
+                    // 自适应模式：批没满时在 linger 之内继续凑（停止时不等）
+                    boolean backlogged = n >= limit;
+                    if (controller != null && !backlogged && running) {
+                        long deadline = System.nanoTime() + controller.lingerNanos();
+                        long remaining;
+                        while (n < limit && (remaining = deadline - System.nanoTime()) > 0) {
+                            n += p.ring.drainSlots(sink, limit - n, remaining);
+                        }
+                    }
+
+                    // 写入数据库
+                    long start = System.nanoTime();
+                    boolean ok;
+                    try {
+                        ok = writeBatch(session, batch);
+                    } finally {
+                        p.pending.addAndGet(-n);
+                    }
+                    if (controller != null) {
+                        if (ok) {
+                            long oldest = batch.bufferedAtNanos(0);
+                            controller.onCommit(n, backlogged, System.nanoTime() - start, oldest != 0 ? start - oldest : 0);
+                        } else {
+                            controller.onFailure();
+                        }
+                    }
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.warn("Writer thread interrupted");
+                    break;
+                } catch (Exception e) {
+                    log.error("Error in writer loop", e);
+                }
+            }
         }
 
-        List<ChatMessage> batch = new ArrayList<>();
-        int drained = writeBuffer.drainTo(batch, batchSize);
-
-        if (drained > 0) {
-            log.debug("Periodic flush: {} messages", drained);
-            writeBatch(batch);
-        }
+        log.info("Writer thread {} exiting. Remaining messages: {}", p.index, p.ring.size());
     }
 
     /**
      * 写入一个批次
+     * @return true=提交成功；false=失败（批次已落 spool 或计入 failedWrites）
      */
-    private void writeBatch(List<ChatMessage> batch) {
+    private boolean writeBatch(MessageDao.Session session, MessageBatch batch) {
         if (batch.isEmpty()) {
-            return;
+            return true;
+        }
+
+        final PipelineMetrics metrics = PipelineMetrics.INSTANCE;
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            long bufferedAt = batch.bufferedAtNanos(i);
+            if (bufferedAt != 0) {
+                metrics.dbBufferWait.recordNanos(startNanos - bufferedAt);
+            }
         }
 
         try {
-            int written = messageDao.batchInsertMessages(batch);
+            int written = session.insertBatch(batch);
+            metrics.batchCommit.recordNanos(System.nanoTime() - startNanos);
             if (written > 0) {
                 totalWritten.addAndGet(written);
                 totalBatches.incrementAndGet();
-            } else {
-                failedWrites.addAndGet(batch.size());
-                log.error("Failed to write batch of {} messages", batch.size());
+                return true;
             }
+            log.error("Failed to write batch of {} messages", batch.size());
         } catch (Exception e) {
-            failedWrites.addAndGet(batch.size());
             log.error("Exception writing batch of {} messages", batch.size(), e);
         }
+        onBatchFailed(batch);
+        return false;
+    }
+
+    /** 提交失败的批次：有 spool 就落盘等重放，否则计为失败 */
+    private void onBatchFailed(MessageBatch batch) {
+        lastFailureNanos = System.nanoTime();
+        if (spool != null && spool.append(batch.toMessages())) {
+            log.warn("Spooled failed batch of {} messages ({} pending in spool)", batch.size(), spool.pending());
+            return;
+        }
+        failedWrites.addAndGet(batch.size());
+    }
+
+    /**
+     * 重放线程：数据库恢复、缓冲有余量时把 spool 里的批次通过自己的 Session 直接写库，按 replayPerSec 限速。
+     * 只有写库成功后才 commit spool 读位置；写失败（或重放中途崩溃）时这一批留在 spool 里，下次从同一位置重来，
+     * 重复写入由 message_id 去重。不经过分区缓冲，所以同一房间的热点统计行可能和写线程同时更新（行锁串行）。
+     */
+    private void replayLoop() {
+        long lastForce = System.currentTimeMillis();
+        MessageBatch rows = new MessageBatch(batchSize);
+        try (MessageDao.Session session = messageDao.openSession()) {
+            while (running) {
+                try {
+                    flushOverflow();
+                    long now = System.currentTimeMillis();
+                    if (now - lastForce >= SPOOL_FORCE_INTERVAL_MS) {
+                        spool.force();
+                        lastForce = now;
+                    }
+
+                    if (spool.pending() == 0
+                            || getBufferFill() >= REPLAY_MAX_FILL
+                            || System.nanoTime() - lastFailureNanos < REPLAY_QUIET_NANOS) {
+                        Thread.sleep(100);
+                        continue;
+                    }
+
+                    MessageSpool.Batch batch = spool.next();
+                    if (batch == null) {
+                        Thread.sleep(100);
+                        continue;
+                    }
+
+                    long start = System.nanoTime();
+                    rows.clear();
+                    for (ChatMessage msg : batch.messages) {
+                        rows.add(msg);
+                    }
+                    int written = session.insertBatch(rows);
+                    if (written <= 0) {
+                        // 不 commit：读位置不动，等安静期过后重放同一批
+                        lastFailureNanos = System.nanoTime();
+                        log.warn("Replay of {} spooled messages failed, will retry", rows.size());
+                        continue;
+                    }
+                    spool.commit(batch);
+                    totalWritten.addAndGet(written);
+                    totalBatches.incrementAndGet();
+
+                    // 限速：这一批按 replayPerSec 应占用的时间
+                    long budgetNanos = batch.messages.size() * 1_000_000_000L / replayPerSec;
+                    long sleepNanos = budgetNanos - (System.nanoTime() - start);
+                    if (sleepNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    lastFailureNanos = System.nanoTime();
+                    log.error("Error in spool replayer", e);
+                }
+            }
+        }
+        spool.force();
+        log.info("Spool replayer exiting: {}", spool.stats());
     }
 
     /**
      * 强制flush所有待写入的消息
+     * 写线程运行中：等待各分区写完已缓冲的消息；写线程已退出：在调用线程里直接写完剩余消息
      */
     public void flush() {
-        log.info("Flushing write buffer. Pending messages: {}", writeBuffer.size());
-
-        List<ChatMessage> remaining = new ArrayList<>();
-        writeBuffer.drainTo(remaining);
+        log.info("Flushing write buffer. Pending messages: {}", bufferedCount());
 
-        if (!remaining.isEmpty()) {
-            // 分批写入
-            for (int i = 0; i < remaining.size(); i += batchSize) {
-                int end = Math.min(i + batchSize, remaining.size());
-                List<ChatMessage> batch = remaining.subList(i, end);
-                writeBatch(batch);
+        if (running) {
+            long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MS;
+            for (Partition p : partitions) {
+                while (p.pending.get() > 0 && System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
             }
+        } else {
+            drainRemaining();
         }
 
         log.info("Flush complete. Total written: {}", totalWritten.get());
     }
 
+    /** 写线程已退出后仍留在缓冲里的消息（例如写线程被中断）：分批直接写 */
+    private void drainRemaining() {
+        if (bufferedCount() == 0) {
+            return;
+        }
+        MessageBatch batch = new MessageBatch(batchSize);
+        try (MessageDao.Session session = messageDao.openSession()) {
+            for (Partition p : partitions) {
+                MpscRingBuffer.SlotReader sink = slot -> p.columns.moveTo(slot, batch);
+                int n;
+                while ((n = p.ring.drainSlots(sink, batchSize, 0)) > 0) {
+                    writeBatch(session, batch);
+                    p.pending.addAndGet(-n);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int bufferedCount() {
+        int n = 0;
+        for (Partition p : partitions) {
+            n += p.ring.size();
+        }
+        return n;
+    }
+
     /**
      * 获取统计信息
      */
@@ -233,10 +492,18 @@ public class DatabaseWriter implements AutoCloseable {
                 totalWritten.get(),
                 totalBatches.get(),
                 failedWrites.get(),
-                writeBuffer.size()
+                bufferedCount(),
+                spool != null ? spool.stats() : null
         );
     }
 
+    /**
+     * 缓冲区占用比例（0.0 ~ 1.0），供 autoscaler 判断数据库是否成为瓶颈
+     */
+    public double getBufferFill() {
+        return bufferedCount() / (double) bufferCapacity;
+    }
+
     /**
      * 关闭写入服务
      */
@@ -245,13 +512,16 @@ public class DatabaseWriter implements AutoCloseable {
         log.info("Shutting down DatabaseWriter...");
         running = false;
 
-        // 停止定时任务
-        scheduler.shutdown();
-
-        // flush所有待写入消息
-        flush();
+        if (replayer != null) {
+            replayer.interrupt();
+            try {
+                replayer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
 
-        // 关闭写入线程池
+        // 写线程写完各自分区的剩余消息后退出
         writerPool.shutdown();
         try {
             if (!writerPool.awaitTermination(30, TimeUnit.SECONDS)) {
@@ -262,11 +532,46 @@ public class DatabaseWriter implements AutoCloseable {
             Thread.currentThread().interrupt();
         }
 
+        // 兜底：没来得及写的消息在当前线程写完
+        flush();
+        if (spool != null) {
+            flushOverflow();
+            spool.force();
+        }
+
         WriterStats stats = getStats();
         log.info("DatabaseWriter shutdown complete. Final stats: written={}, batches={}, failed={}",
                 stats.totalWritten, stats.totalBatches, stats.failedWrites);
     }
 
+    /**
+     * 一个分区：无锁环形缓冲（只管槽位）+ 按槽位存放消息的列 + 已入缓冲但尚未写完的消息数
+     * + 缓冲满时待落 spool 的溢出消息
+     */
+    private static final class Partition {
+        final int index;
+        final MpscRingBuffer<Void> ring;
+        final MessageColumns columns;
+        private final MpscRingBuffer.SlotWriter<ChatMessage> store;
+        final AtomicInteger pending = new AtomicInteger();
+        final List<ChatMessage> overflow = new ArrayList<>();
+        BatchSizeController controller;              // null = 固定批大小
+
+        Partition(int index, int capacity, MpscRingBuffer.WaitStrategy waitStrategy) {
+            this.index = index;
+            this.ring = new MpscRingBuffer<>(capacity, waitStrategy);
+            this.columns = new MessageColumns(ring.slots());
+            this.store = columns::set;
+        }
+
+        boolean offer(ChatMessage message) {
+            // 时间戳在认领槽位之前解析；拆列在生产者线程做，写线程只做列拷贝
+            message.timestampMillis = MessageBatch.parseTimestamp(message.timestamp);
+            message.bufferedAtNanos = System.nanoTime();
+            return ring.offer(store, message);
+        }
+    }
+
     /**
      * 统计信息类
      */
@@ -275,18 +580,21 @@ public class DatabaseWriter implements AutoCloseable {
         public final long totalBatches;
         public final long failedWrites;
         public final int bufferSize;
+        public final MessageSpool.SpoolStats spool;   // null = 未启用 spool
 
-        public WriterStats(long totalWritten, long totalBatches, long failedWrites, int bufferSize) {
+        public WriterStats(long totalWritten, long totalBatches, long failedWrites, int bufferSize,
+                           MessageSpool.SpoolStats spool) {
             this.totalWritten = totalWritten;
             this.totalBatches = totalBatches;
             this.failedWrites = failedWrites;
             this.bufferSize = bufferSize;
+            this.spool = spool;
         }
 
         @Override
         public String toString() {
-            return String.format("WriterStats{written=%d, batches=%d, failed=%d, buffer=%d}",
-                    totalWritten, totalBatches, failedWrites, bufferSize);
+            return String.format("WriterStats{written=%d, batches=%d, failed=%d, buffer=%d%s}",
+                    totalWritten, totalBatches, failedWrites, bufferSize, spool != null ? ", spool=" + spool : "");
         }
     }
 }
\ No newline at end of file
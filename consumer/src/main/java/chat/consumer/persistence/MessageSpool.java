@@ -0,0 +1,420 @@
+package chat.consumer.persistence;
+
+import chat.consumer.model.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * DatabaseWriter 的本地溢出日志：数据库变慢 / 不可用时，放不进内存缓冲或提交失败的批次
+ * 追加到这里，恢复后再按限速重放。
+ *
+ * - 目录下若干固定大小的段文件（spool-0000000000000001.seg），内存映射后顺序追加；
+ * - 段头 16 字节：[magic][已重放到的偏移]，重启后从该偏移继续；
+ * - 记录：[int 长度][int CRC32][一批消息]，长度最后写，读到 0 / 越界 / CRC 不符即视为段尾；
+ * - 段数上限 maxSegments，写满后 append 返回 false（由调用方计为丢弃），磁盘占用有界；
+ * - 段被读完且不再写入后删除。
+ *
+ * 写入走 page cache（进程崩溃不丢，机器掉电可能丢最近的数据），force() 定期刷盘。
+ * append / next / commit 都在同一把锁里，一个重放线程读、多个写线程写。
+ */
+public class MessageSpool implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(MessageSpool.class);
+
+    private static final long MAGIC = 0x4348415453504F4CL;   // "CHATSPOL"
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int FIELDS = 9;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();   // 最旧的在前
+    private Segment writeSegment;
+    private long nextSequence = 1;
+
+    private final AtomicLong spooledMessages = new AtomicLong();
+    private final AtomicLong replayedMessages = new AtomicLong();
+    private final AtomicLong rejectedMessages = new AtomicLong();
+    private final AtomicLong corruptRecords = new AtomicLong();
+    private final AtomicLong pendingMessages = new AtomicLong();
+    // 重放速率：两次 stats() 之间（至少 1s）的平均值
+    private long rateSampleNanos = System.nanoTime();
+    private long rateSampleReplayed;
+    private double replayRatePerSec;
+
+    /**
+     * @param segmentBytes 单个段文件大小
+     * @param maxBytes     磁盘占用上限（段数 = maxBytes / segmentBytes，至少 2）
+     */
+    public MessageSpool(Path dir, int segmentBytes, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+        Files.createDirectories(dir);
+        recover();
+        log.info("MessageSpool at {}: segment={}KB, maxSegments={}, recovered {} segments with {} pending messages",
+                dir, segmentBytes / 1024, maxSegments, segments.size(), pendingMessages.get());
+    }
+
+    /** 上次运行留下的段：全部视为只读，从段头记录的偏移继续重放 */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> p.getFileName().toString().matches("spool-\\d{16}\\.seg")).sorted().forEach(files::add);
+        }
+        for (Path file : files) {
+            long seq = Long.parseLong(file.getFileName().toString().substring(6, 22));
+            nextSequence = Math.max(nextSequence, seq + 1);
+            Segment seg = Segment.open(file);
+            if (seg == null) {
+                log.warn("Discarding unreadable spool segment {}", file);
+                Files.deleteIfExists(file);
+                continue;
+            }
+            seg.sealed = true;
+            long pending = seg.scan(corruptRecords);
+            if (pending == 0) {
+                seg.delete();
+                continue;
+            }
+            pendingMessages.addAndGet(pending);
+            segments.add(seg);
+        }
+    }
+
+    /**
+     * 追加一批消息
+     * @return false = 段数已达上限（或写入出错），调用方按丢弃处理
+     */
+    public boolean append(List<ChatMessage> batch) {
+        if (batch.isEmpty()) return true;
+        byte[] payload = encode(batch);
+        if (RECORD_HEADER_BYTES + payload.length > segmentBytes - HEADER_BYTES) {
+            // 单批超过一个段：拆半（只有极小的段配置才会走到）
+            if (batch.size() == 1) {
+                rejectedMessages.incrementAndGet();
+                return false;
+            }
+            int mid = batch.size() / 2;
+            return append(batch.subList(0, mid)) & append(batch.subList(mid, batch.size()));
+        }
+
+        synchronized (this) {
+            try {
+                if (writeSegment == null || !writeSegment.fits(payload.length)) {
+                    if (!roll()) {
+                        rejectedMessages.addAndGet(batch.size());
+                        return false;
+                    }
+                }
+                writeSegment.append(payload);
+            } catch (IOException e) {
+                log.error("Spool append failed", e);
+                rejectedMessages.addAndGet(batch.size());
+                return false;
+            }
+        }
+        spooledMessages.addAndGet(batch.size());
+        pendingMessages.addAndGet(batch.size());
+        return true;
+    }
+
+    private boolean roll() throws IOException {
+        if (writeSegment != null) {
+            writeSegment.sealed = true;
+            writeSegment = null;
+        }
+        if (segments.size() >= maxSegments) {
+            return false;
+        }
+        Path file = dir.resolve(String.format("spool-%016d.seg", nextSequence++));
+        writeSegment = Segment.create(file, segmentBytes);
+        segments.add(writeSegment);
+        return true;
+    }
+
+    /**
+     * 读出最旧的一批（不移动读位置；处理完后调用 commit）
+     * @return null = 没有待重放的数据
+     */
+    public synchronized Batch next() {
+        while (!segments.isEmpty()) {
+            Segment seg = segments.peekFirst();
+            int pos = seg.readPos;
+            byte[] payload = seg.read(pos, corruptRecords);
+            if (payload != null) {
+                return new Batch(seg, pos + RECORD_HEADER_BYTES + payload.length, decode(payload));
+            }
+            if (!seg.sealed) {
+                return null;    // 正在写的段已经读到头
+            }
+            // 读完（或后面是坏数据）的只读段
+            segments.pollFirst();
+            seg.delete();
+        }
+        return null;
+    }
+
+    /** 确认一批已经写入数据库：持久化读位置 */
+    public synchronized void commit(Batch batch) {
+        batch.segment.markRead(batch.endPos);
+        replayedMessages.addAndGet(batch.messages.size());
+        pendingMessages.addAndGet(-batch.messages.size());
+    }
+
+    public long pending() {
+        return pendingMessages.get();
+    }
+
+    public synchronized void force() {
+        for (Segment seg : segments) {
+            seg.buffer.force();
+        }
+    }
+
+    public synchronized SpoolStats stats() {
+        long now = System.nanoTime();
+        long replayed = replayedMessages.get();
+        if (now - rateSampleNanos >= 1_000_000_000L) {
+            replayRatePerSec = (replayed - rateSampleReplayed) * 1e9 / (now - rateSampleNanos);
+            rateSampleNanos = now;
+            rateSampleReplayed = replayed;
+        }
+        return new SpoolStats(segments.size(), (long) segments.size() * segmentBytes, pendingMessages.get(),
+                spooledMessages.get(), replayed, rejectedMessages.get(), corruptRecords.get(), replayRatePerSec);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment seg : segments) {
+            seg.buffer.force();
+            seg.closeChannel();
+        }
+        log.info("MessageSpool closed: {}", stats());
+    }
+
+    // ==================== 编码 ====================
+
+    static byte[] encode(List<ChatMessage> batch) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * 256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(batch.size());
+            for (ChatMessage m : batch) {
+                for (String v : new String[]{m.messageId, m.roomId, m.userId, m.username, m.message,
+                        m.timestamp, m.messageType, m.serverId, m.clientIp}) {
+                    if (v == null) {
+                        out.writeInt(-1);
+                    } else {
+                        byte[] b = v.getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(b.length);
+                        out.write(b);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);   // 内存流不会抛
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<ChatMessage> decode(byte[] payload) {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        int n = in.getInt();
+        List<ChatMessage> out = new ArrayList<>(n);
+        String[] f = new String[FIELDS];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < FIELDS; k++) {
+                int len = in.getInt();
+                if (len < 0) {
+                    f[k] = null;
+                } else {
+                    f[k] = new String(payload, in.position(), len, StandardCharsets.UTF_8);
+                    in.position(in.position() + len);
+                }
+            }
+            ChatMessage m = new ChatMessage();
+            m.messageId = f[0]; m.roomId = f[1]; m.userId = f[2]; m.username = f[3]; m.message = f[4];
+            m.timestamp = f[5]; m.messageType = f[6]; m.serverId = f[7]; m.clientIp = f[8];
+            out.add(m);
+        }
+        return out;
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    // ==================== 段 ====================
+
+    /** 从 spool 读出的一批：commit 之前不会从磁盘消失 */
+    public static final class Batch {
+        private final Segment segment;
+        private final int endPos;
+        public final List<ChatMessage> messages;
+
+        Batch(Segment segment, int endPos, List<ChatMessage> messages) {
+            this.segment = segment;
+            this.endPos = endPos;
+            this.messages = messages;
+        }
+    }
+
+    private static final class Segment {
+        final Path file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int readPos;
+        int writePos;
+        boolean sealed;
+
+        private Segment(Path file, FileChannel channel, MappedByteBuffer buffer, int readPos, int writePos) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.readPos = readPos;
+            this.writePos = writePos;
+        }
+
+        static Segment create(Path file, int size) throws IOException {
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putLong(0, MAGIC);
+            buf.putLong(8, HEADER_BYTES);
+            return new Segment(file, ch, buf, HEADER_BYTES, HEADER_BYTES);
+        }
+
+        static Segment open(Path file) throws IOException {
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = ch.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                ch.close();
+                return null;
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            long readOffset = buf.getLong(8);
+            if (buf.getLong(0) != MAGIC || readOffset < HEADER_BYTES || readOffset > size) {
+                ch.close();
+                return null;
+            }
+            return new Segment(file, ch, buf, (int) readOffset, (int) readOffset);
+        }
+
+        /** 从 readPos 扫到段尾，确定 writePos；返回未重放的消息数 */
+        long scan(AtomicLong corrupt) {
+            long messages = 0;
+            int pos = readPos;
+            byte[] payload;
+            while ((payload = read(pos, corrupt)) != null) {
+                messages += ByteBuffer.wrap(payload).getInt();
+                pos += RECORD_HEADER_BYTES + payload.length;
+            }
+            writePos = pos;
+            return messages;
+        }
+
+        boolean fits(int payloadBytes) {
+            // 末尾留 4 字节给结束标记（长度 0）
+            return writePos + RECORD_HEADER_BYTES + payloadBytes + 4 <= buffer.capacity();
+        }
+
+        void append(byte[] payload) {
+            int pos = writePos;
+            buffer.put(pos + RECORD_HEADER_BYTES, payload);
+            buffer.putInt(pos + 4, crc(payload));
+            buffer.putInt(pos, payload.length);   // 长度最后写：读端看到长度时记录已完整
+            writePos = pos + RECORD_HEADER_BYTES + payload.length;
+        }
+
+        /** 读 pos 处的一条记录；段尾 / 损坏返回 null */
+        byte[] read(int pos, AtomicLong corrupt) {
+            if (pos + RECORD_HEADER_BYTES > buffer.capacity()) return null;
+            int len = buffer.getInt(pos);
+            if (len <= 0) return null;
+            if (pos + RECORD_HEADER_BYTES + len > buffer.capacity()) {
+                corrupt.incrementAndGet();
+                return null;
+            }
+            byte[] payload = new byte[len];
+            buffer.get(pos + RECORD_HEADER_BYTES, payload);
+            if (crc(payload) != buffer.getInt(pos + 4)) {
+                corrupt.incrementAndGet();
+                log.warn("Spool record checksum mismatch in {} at offset {}, skipping rest of segment", file, pos);
+                return null;
+            }
+            return payload;
+        }
+
+        void markRead(int pos) {
+            readPos = pos;
+            buffer.putLong(8, pos);
+        }
+
+        void delete() {
+            closeChannel();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete spool segment {}: {}", file, e.toString());
+            }
+        }
+
+        void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Failed to close spool segment {}", file, e);
+            }
+        }
+    }
+
+    /** spool 统计（字段直接序列化成 JSON） */
+    public static class SpoolStats {
+        public final int segments;
+        public final long diskBytes;
+        public final long pendingMessages;
+        public final long spooledMessages;
+        public final long replayedMessages;
+        public final long rejectedMessages;
+        public final long corruptRecords;
+        public final double replayRatePerSec;
+
+        SpoolStats(int segments, long diskBytes, long pendingMessages, long spooledMessages,
+                   long replayedMessages, long rejectedMessages, long corruptRecords, double replayRatePerSec) {
+            this.segments = segments;
+            this.diskBytes = diskBytes;
+            this.pendingMessages = pendingMessages;
+            this.spooledMessages = spooledMessages;
+            this.replayedMessages = replayedMessages;
+            this.rejectedMessages = rejectedMessages;
+            this.corruptRecords = corruptRecords;
+            this.replayRatePerSec = replayRatePerSec;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("SpoolStats{segments=%d, disk=%dKB, pending=%d, spooled=%d, replayed=%d, rejected=%d, corrupt=%d, replay=%.0f/s}",
+                    segments, diskBytes / 1024, pendingMessages, spooledMessages, replayedMessages,
+                    rejectedMessages, corruptRecords, replayRatePerSec);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package chat.consumer.queue;
+
+import chat.consumer.util.LatencyHistogram;
+import chat.consumer.util.ResizableSemaphore;
+import com.rabbitmq.client.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 进程内 QueueClient：不依赖 RabbitMQ，用于 benchmark / 本地复现。
+ *
+ * 语义尽量贴近 RabbitMqQueueClient：
+ * - 每个房间一个 FIFO 队列 + 一个分发线程；
+ * - prefetch：每个房间最多 prefetch 条未 ACK 消息（可在线 setPrefetch）；
+ * - ack 释放额度；nack(requeue=true) 重新入队并标记 redeliver；park / nack(false) 丢弃并计数。
+ * 另外记录队列停留时间（publish -> 分发）和处理时间（分发 -> ack/nack）。
+ */
+public class InMemoryQueueClient implements QueueClient {
+    private static final Logger log = LoggerFactory.getLogger(InMemoryQueueClient.class);
+
+    private static final String EXCHANGE = "in-memory";
+
+    private final String queuePrefix;
+    private final Map<String, RoomQueue> queues = new ConcurrentHashMap<>();
+    private final Map<Long, Long> inflightSince = new ConcurrentHashMap<>();
+    private volatile int prefetch;
+    private volatile Consumer<AckContext> handler;
+    private volatile boolean running = true;
+
+    private final AtomicLong nextTag = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong requeued = new AtomicLong();
+    private final AtomicLong parked = new AtomicLong();
+
+    private final LatencyHistogram dwell = new LatencyHistogram();
+    private final LatencyHistogram processing = new LatencyHistogram();
+
+    public InMemoryQueueClient(int prefetch) {
+        this(prefetch, "room.");
+    }
+
+    public InMemoryQueueClient(int prefetch, String queuePrefix) {
+        this.prefetch = prefetch;
+        this.queuePrefix = queuePrefix;
+    }
+
+    @Override
+    public void connect() {
+        running = true;
+    }
+
+    @Override
+    public void consumeRooms(List<String> roomIds, Consumer<AckContext> handler) {
+        this.handler = handler;
+        for (String roomId : roomIds) {
+            queue(roomId).startDispatcher();
+        }
+        // 先于 consumeRooms 发布到其它房间的消息也开始分发
+        queues.values().forEach(RoomQueue::startDispatcher);
+        log.info("[MEM] Consuming rooms {} (prefetch={})", roomIds, prefetch);
+    }
+
+    /** 发布一条消息；房间不存在时动态创建（已开始消费时立即启动分发） */
+    public void publish(String roomId, byte[] body) {
+        RoomQueue q = queue(roomId);
+        q.items.add(new Item(body, System.nanoTime(), false));
+        published.incrementAndGet();
+        if (handler != null) {
+            q.startDispatcher();
+        }
+    }
+
+    private RoomQueue queue(String roomId) {
+        return queues.computeIfAbsent(roomId, RoomQueue::new);
+    }
+
+    @Override
+    public void ack(AckContext ctx, boolean multiple) {
+        settle(ctx);
+        acked.incrementAndGet();
+    }
+
+    @Override
+    public void nack(AckContext ctx, boolean requeue) {
+        settle(ctx);
+        if (requeue) {
+            queue(ctx.roomId()).items.add(new Item(ctx.body(), System.nanoTime(), true));
+            requeued.incrementAndGet();
+        } else {
+            parked.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void park(AckContext ctx, String reason) {
+        nack(ctx, false);
+    }
+
+    private void settle(AckContext ctx) {
+        Long since = inflightSince.remove(ctx.deliveryTag());
+        if (since != null) {
+            processing.recordNanos(System.nanoTime() - since);
+        }
+        RoomQueue q = queues.get(ctx.roomId());
+        if (q != null) {
+            q.permits.release();
+        }
+    }
+
+    @Override
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+        for (RoomQueue q : queues.values()) {
+            q.permits.resize(prefetch);
+        }
+    }
+
+    @Override
+    public long queueDepth() {
+        long total = 0;
+        for (RoomQueue q : queues.values()) {
+            total += q.items.size();
+        }
+        return total;
+    }
+
+    @Override
+    public FailureStats failureStats() {
+        return new FailureStats(requeued.get(), parked.get(), new long[0]);
+    }
+
+    public long published() { return published.get(); }
+    public long acked() { return acked.get(); }
+    public long parked() { return parked.get(); }
+    public int unacked() { return inflightSince.size(); }
+
+    /** publish -> 分发给 handler 的等待时间 */
+    public LatencyHistogram dwell() { return dwell; }
+
+    /** 分发 -> ack/nack 的处理时间 */
+    public LatencyHistogram processing() { return processing; }
+
+    @Override
+    public void close() {
+        running = false;
+        for (RoomQueue q : queues.values()) {
+            if (q.dispatcher != null) q.dispatcher.interrupt();
+        }
+        log.info("[MEM] Closed: published={} acked={} requeued={} parked={} depth={}",
+                published.get(), acked.get(), requeued.get(), parked.get(), queueDepth());
+    }
+
+    private static final class Item {
+        final byte[] body;
+        final long enqueuedNanos;
+        final boolean redelivered;
+
+        Item(byte[] body, long enqueuedNanos, boolean redelivered) {
+            this.body = body;
+            this.enqueuedNanos = enqueuedNanos;
+            this.redelivered = redelivered;
+        }
+    }
+
+    private final class RoomQueue {
+        final String roomId;
+        final LinkedBlockingQueue<Item> items = new LinkedBlockingQueue<>();
+        final ResizableSemaphore permits = new ResizableSemaphore(prefetch);
+        Thread dispatcher;
+
+        RoomQueue(String roomId) {
+            this.roomId = roomId;
+        }
+
+        synchronized void startDispatcher() {
+            if (dispatcher != null) return;
+            dispatcher = new Thread(this::dispatchLoop, "mem-dispatch-" + roomId);
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+
+        private void dispatchLoop() {
+            String routingKey = queuePrefix + roomId;
+            while (running) {
+                try {
+                    permits.acquire();
+                    Item it = items.take();
+                    long tag = nextTag.incrementAndGet();
+                    long now = System.nanoTime();
+                    dwell.recordNanos(now - it.enqueuedNanos);
+                    inflightSince.put(tag, now);
+                    handler.accept(new AckContext(null, tag, roomId,
+                            new Envelope(tag, it.redelivered, EXCHANGE, routingKey), null, it.body));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -18,6 +18,33 @@ public interface QueueClient extends AutoCloseable {
     void ack(AckContext ctx, boolean multiple) throws IOException;
     void nack(AckContext ctx, boolean requeue) throws IOException;
 
+    /**
+     * 处理失败的消息：按重试次数投递到延迟重试队列，超过上限后进入 parking 队列。
+     * 默认实现退化为 nack(requeue=true)，供不支持延迟重试的实现使用。
+     */
+    default void retryLater(AckContext ctx, String reason) throws IOException {
+        nack(ctx, true);
+    }
+
+    /** 无法处理的消息（如 JSON 损坏）直接进入 parking 队列，不再重试 */
+    default void park(AckContext ctx, String reason) throws IOException {
+        nack(ctx, false);
+    }
+
+    /** 在线调整每个 channel 的 basicQos（不重建 consumer，不产生重投递） */
+    default void setPrefetch(int prefetch) throws IOException {
+    }
+
+    /** 所有被消费队列的积压消息数（passive declare），不支持时返回 -1 */
+    default long queueDepth() {
+        return -1;
+    }
+
+    /** 重试 / parking 计数 */
+    default FailureStats failureStats() {
+        return new FailureStats(0, 0, new long[0]);
+    }
+
     /** ✅ 携带 Channel + deliveryTag 的上下文，保证"同通道 ACK/NACK" */
     final class AckContext {
         private final com.rabbitmq.client.Channel channel;
@@ -45,6 +72,25 @@ public interface QueueClient extends AutoCloseable {
         public byte[] body() { return body; }
     }
 
+    /** 失败处理计数：retried=进入延迟重试的次数，parked=进入 parking 队列的消息数 */
+    final class FailureStats {
+        public final long retried;
+        public final long parked;
+        public final long[] retriedPerTier;
+
+        public FailureStats(long retried, long parked, long[] retriedPerTier) {
+            this.retried = retried;
+            this.parked = parked;
+            this.retriedPerTier = retriedPerTier;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("FailureStats{retried=%d, parked=%d, perTier=%s}",
+                    retried, parked, java.util.Arrays.toString(retriedPerTier));
+        }
+    }
+
     /** ✅ 辅助类：只读的 Delivery（如果需要的话） */
     final class Delivery {
         private final Envelope envelope;
@@ -6,9 +6,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Consumer;
 
 public class RabbitMqQueueClient implements QueueClient, AutoCloseable {
@@ -16,11 +25,29 @@ public class RabbitMqQueueClient implements QueueClient, AutoCloseable {
 
     private final ConsumerConfig cfg;
     private Connection conn;
+    private ExecutorService dispatchPool;   // 分片模式：delivery 分发线程 = 分片 channel 数
 
     private final Map<String, Channel> channelsByQueue = new ConcurrentHashMap<>();
 
+    /** 自己维护的重试计数 header（x-death 作为兜底） */
+    static final String RETRY_HEADER = "x-retry-count";
+
+    // 当前 prefetch（autoscaler 可在线调整）；passive declare 用独立 channel，失败不影响消费 channel
+    private volatile int prefetch;
+    private Channel monitorChannel;
+
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong parked = new AtomicLong();
+    private final AtomicLongArray retriedPerTier;
+    // 拓扑声明是否成功：发布到不存在的 exchange / 队列会被 broker 异步回 404 并关闭消费 channel，
+    // 所以没声明成功的目标不能发布，退化为 park / nack(requeue=false)
+    private volatile boolean retryTopologyReady;
+    private volatile boolean parkingReady;
+
     public RabbitMqQueueClient(ConsumerConfig cfg) {
         this.cfg = cfg;
+        this.prefetch = cfg.prefetch;
+        this.retriedPerTier = new AtomicLongArray(cfg.retryDelaysMs.size());
     }
 
     @Override
@@ -33,6 +60,15 @@ public class RabbitMqQueueClient implements QueueClient, AutoCloseable {
         f.setVirtualHost(cfg.vhost);
         f.setAutomaticRecoveryEnabled(true);
         f.setNetworkRecoveryInterval(3000);
+        if (cfg.shards > 0) {
+            // 每个分片 channel 一个分发线程，channel 之间并行、channel 内有序
+            this.dispatchPool = Executors.newFixedThreadPool(cfg.shardChannels, r -> {
+                Thread t = new Thread(r, "amqp-dispatch");
+                t.setDaemon(true);
+                return t;
+            });
+            f.setSharedExecutor(dispatchPool);
+        }
 
         this.conn = f.newConnection("chat-consumer");
         log.info("[MQ] Connected to {}:{} vhost={} user={} (automaticRecovery={})",
@@ -41,10 +77,19 @@ public class RabbitMqQueueClient implements QueueClient, AutoCloseable {
 
     @Override
     public void consumeRooms(List<String> roomIds, Consumer<QueueClient.AckContext> handler) throws Exception {
+        declareRetryTopology();
+
+        if (cfg.shards > 0) {
+            log.info("[MQ] Sharded mode: rabbitmq.roomIds {} ignored, consuming {} shards", roomIds, cfg.shards);
+            consumeShards(handler);
+            return;
+        }
+
         for (String roomId : roomIds) {
             final String queue = cfg.queuePrefix + roomId;
             final Channel ch = conn.createChannel();
-            ch.basicQos(cfg.prefetch);
+            // 每个 channel 只有一个 consumer，channel 级 QoS 等价于 per-consumer，且可以在线修改
+            ch.basicQos(prefetch, true);
 
             try {
                 ch.queueDeclare(queue, true, false, false, null);
@@ -69,10 +114,74 @@ public class RabbitMqQueueClient implements QueueClient, AutoCloseable {
             });
 
             log.info("Consuming room {} on queue {} (exchange={}, prefetch={})",
-                    roomId, queue, cfg.exchange, cfg.prefetch);
+                    roomId, queue, cfg.exchange, prefetch);
         }
     }
 
+    /**
+     * 分片模式：固定 N 个 shard 队列，与房间数无关。
+     * chat.exchange --(room.#)--> x-consistent-hash 交换机 --(hash(routing key))--> shard 队列，
+     * 同一个 room.{id} 总是落到同一个 shard，因此房间内顺序在 shard 内保持；新房间不需要改拓扑。
+     * shard 按轮询分配到 shardChannels 个 channel 上（channel 数不随房间数增长）。
+     * 需要 broker 启用 rabbitmq_consistent_hash_exchange 插件。
+     */
+    private void consumeShards(Consumer<QueueClient.AckContext> handler) throws Exception {
+        List<Channel> channels = new ArrayList<>();
+        for (int i = 0; i < Math.min(cfg.shardChannels, cfg.shards); i++) {
+            Channel ch = conn.createChannel();
+            // channel 级 QoS：同一 channel 上的多个 shard consumer 共享这个额度
+            ch.basicQos(prefetch, true);
+            channels.add(ch);
+        }
+
+        Channel admin = channels.get(0);
+        try {
+            admin.exchangeDeclare(cfg.exchange, BuiltinExchangeType.TOPIC, true);
+            admin.exchangeDeclare(cfg.shardExchange, "x-consistent-hash", true);
+            admin.exchangeBind(cfg.shardExchange, cfg.exchange, cfg.queuePrefix + "#");
+        } catch (IOException e) {
+            throw new IOException("Shard exchange declare failed (is rabbitmq_consistent_hash_exchange enabled?)", e);
+        }
+
+        for (int shard = 0; shard < cfg.shards; shard++) {
+            final String queue = cfg.shardQueuePrefix + shard;
+            final Channel ch = channels.get(shard % channels.size());
+
+            ch.queueDeclare(queue, true, false, false, null);
+            ch.queueBind(queue, cfg.shardExchange, "1"); // 权重 1：各 shard 均分 hash 空间
+
+            channelsByQueue.put(queue, ch);
+
+            ch.basicConsume(queue, false, new DefaultConsumer(ch) {
+                @Override
+                public void handleDelivery(String consumerTag,
+                                           Envelope env,
+                                           AMQP.BasicProperties props,
+                                           byte[] body) throws IOException {
+                    QueueClient.AckContext ctx = new QueueClient.AckContext(
+                            ch, env.getDeliveryTag(), roomIdOf(env.getRoutingKey()), env, props, body);
+                    handler.accept(ctx);
+                }
+            });
+        }
+
+        log.info("[MQ] Consuming {} shards ({}0..{}) on {} channels (exchange={} -> {}, prefetch={})",
+                cfg.shards, cfg.shardQueuePrefix, cfg.shards - 1, channels.size(),
+                cfg.exchange, cfg.shardExchange, prefetch);
+    }
+
+    /** routing key "room.{id}" -> "{id}" */
+    private String roomIdOf(String routingKey) {
+        return routingKey.startsWith(cfg.queuePrefix) ? routingKey.substring(cfg.queuePrefix.length()) : routingKey;
+    }
+
+    /** 分片模式下多个队列共用一个 channel，这里去重 */
+    private Set<Channel> distinctChannels() {
+        Set<Channel> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(channelsByQueue.values());
+        return set;
+    }
+
     @Override
     public void ack(QueueClient.AckContext ctx, boolean multiple) throws IOException {
         Channel ch = ctx.channel();
@@ -101,6 +210,178 @@ public class RabbitMqQueueClient implements QueueClient, AutoCloseable {
         }
     }
 
+    @Override
+    public void setPrefetch(int prefetch) throws IOException {
+        this.prefetch = prefetch;
+        Set<Channel> channels = distinctChannels();
+        for (Channel ch : channels) {
+            if (ch.isOpen()) {
+                ch.basicQos(prefetch, true);
+            }
+        }
+        log.info("[MQ] Prefetch set to {} on {} channels", prefetch, channels.size());
+    }
+
+    @Override
+    public synchronized long queueDepth() {
+        long total = 0;
+        try {
+            if (monitorChannel == null || !monitorChannel.isOpen()) {
+                monitorChannel = conn.createChannel();
+            }
+            for (String queue : channelsByQueue.keySet()) {
+                total += monitorChannel.queueDeclarePassive(queue).getMessageCount();
+            }
+            return total;
+        } catch (Exception e) {
+            log.warn("[MQ] Passive declare failed: {}", e.toString());
+            monitorChannel = null;
+            return -1;
+        }
+    }
+
+    /**
+     * 延迟重试拓扑：每个 tier 一个 fanout exchange + 带 TTL 的队列，
+     * 过期后 dead-letter 回 chat.exchange（保留原 routing key，即回到原房间队列）。
+     * 超过 maxRetries 的消息进入 parkingQueue，不再占用消费能力。
+     * 重试 tier 声明失败时 retryLater 直接 park；parking 队列也失败时 park 退化为 nack(requeue=false)。
+     */
+    private void declareRetryTopology() throws IOException {
+        // 各步用独立 channel：声明失败（如参数不一致的 PRECONDITION_FAILED）会关掉所在 channel
+        parkingReady = declare("parking queue " + cfg.parkingQueue,
+                ch -> ch.queueDeclare(cfg.parkingQueue, true, false, false, null));
+        retryTopologyReady = !cfg.retryDelaysMs.isEmpty() && declare("retry tiers " + cfg.retryDelaysMs, ch -> {
+            ch.exchangeDeclare(cfg.exchange, BuiltinExchangeType.TOPIC, true);
+            for (int i = 0; i < cfg.retryDelaysMs.size(); i++) {
+                String name = retryName(i);
+                Map<String, Object> args = new HashMap<>();
+                args.put("x-message-ttl", cfg.retryDelaysMs.get(i));
+                args.put("x-dead-letter-exchange", cfg.exchange);
+                ch.exchangeDeclare(name, BuiltinExchangeType.FANOUT, true);
+                ch.queueDeclare(name, true, false, false, args);
+                ch.queueBind(name, name, "");
+            }
+        });
+        if (retryTopologyReady && parkingReady) {
+            log.info("[MQ] Retry topology ready: tiers={}ms maxRetries={} parking={}",
+                    cfg.retryDelaysMs, cfg.maxRetries, cfg.parkingQueue);
+        } else {
+            log.error("[MQ] Retry topology incomplete (retryTiers={}, parking={}): failed messages will be {}",
+                    retryTopologyReady, parkingReady,
+                    parkingReady ? "parked without delayed retry" : "dropped with nack(requeue=false)");
+        }
+    }
+
+    private interface Declaration {
+        void run(Channel ch) throws IOException;
+    }
+
+    private boolean declare(String what, Declaration declaration) throws IOException {
+        Channel ch = conn.createChannel();
+        try {
+            declaration.run(ch);
+            return true;
+        } catch (IOException e) {
+            log.warn("[MQ] Declare of {} failed: {}", what, e.toString());
+            return false;
+        } finally {
+            try { if (ch.isOpen()) ch.close(); } catch (Exception ignored) {}
+        }
+    }
+
+    private String retryName(int tier) {
+        return cfg.retryExchangePrefix + cfg.retryDelaysMs.get(tier) + "ms";
+    }
+
+    @Override
+    public void retryLater(QueueClient.AckContext ctx, String reason) throws IOException {
+        int attempts = retryCount(ctx.props());
+        if (attempts >= cfg.maxRetries || !retryTopologyReady) {
+            park(ctx, reason);
+            return;
+        }
+
+        int tier = Math.min(attempts, cfg.retryDelaysMs.size() - 1);
+        Channel ch = ctx.channel();
+        if (ch == null || !ch.isOpen()) {
+            log.error("[RETRY] Channel closed when retry tag={}, message will be redelivered.", ctx.deliveryTag());
+            return;
+        }
+        // 先发布副本再 ACK 原消息；发布失败时抛出，由调用方回退到 nack
+        ch.basicPublish(retryName(tier), ctx.envelope().getRoutingKey(),
+                withHeaders(ctx.props(), attempts + 1, reason), ctx.body());
+        ch.basicAck(ctx.deliveryTag(), false);
+
+        retried.incrementAndGet();
+        retriedPerTier.incrementAndGet(tier);
+        if (log.isDebugEnabled()) {
+            log.debug("[RETRY] tag={} room={} attempt={} tier={}ms reason={}",
+                    ctx.deliveryTag(), ctx.roomId(), attempts + 1, cfg.retryDelaysMs.get(tier), reason);
+        }
+    }
+
+    @Override
+    public void park(QueueClient.AckContext ctx, String reason) throws IOException {
+        if (!parkingReady) {
+            // 没有 parking 队列：丢弃（与 QueueClient 的默认实现一致），不能让消息无限重投
+            nack(ctx, false);
+            parked.incrementAndGet();
+            log.error("[PARK] room={} routingKey={} dropped (no parking queue): {}",
+                    ctx.roomId(), ctx.envelope().getRoutingKey(), reason);
+            return;
+        }
+        Channel ch = ctx.channel();
+        if (ch == null || !ch.isOpen()) {
+            log.error("[PARK] Channel closed when park tag={}, message will be redelivered.", ctx.deliveryTag());
+            return;
+        }
+        ch.basicPublish("", cfg.parkingQueue,
+                withHeaders(ctx.props(), retryCount(ctx.props()), reason), ctx.body());
+        ch.basicAck(ctx.deliveryTag(), false);
+
+        parked.incrementAndGet();
+        log.warn("[PARK] room={} routingKey={} parked after {} retries: {}",
+                ctx.roomId(), ctx.envelope().getRoutingKey(), retryCount(ctx.props()), reason);
+    }
+
+    @Override
+    public QueueClient.FailureStats failureStats() {
+        long[] perTier = new long[retriedPerTier.length()];
+        for (int i = 0; i < perTier.length; i++) perTier[i] = retriedPerTier.get(i);
+        return new QueueClient.FailureStats(retried.get(), parked.get(), perTier);
+    }
+
+    /** 已重试次数：优先取自己的 header，否则累加 x-death 中的 count */
+    static int retryCount(AMQP.BasicProperties props) {
+        if (props == null || props.getHeaders() == null) return 0;
+        Object own = props.getHeaders().get(RETRY_HEADER);
+        if (own instanceof Number) return ((Number) own).intValue();
+
+        Object death = props.getHeaders().get("x-death");
+        if (death instanceof List) {
+            long total = 0;
+            for (Object d : (List<?>) death) {
+                if (d instanceof Map) {
+                    Object c = ((Map<?, ?>) d).get("count");
+                    if (c instanceof Number) total += ((Number) c).longValue();
+                }
+            }
+            return (int) total;
+        }
+        return 0;
+    }
+
+    private static AMQP.BasicProperties withHeaders(AMQP.BasicProperties props, int count, String reason) {
+        Map<String, Object> headers = new HashMap<>();
+        if (props != null && props.getHeaders() != null) headers.putAll(props.getHeaders());
+        headers.put(RETRY_HEADER, count);
+        if (reason != null) {
+            headers.put("x-last-error", reason.length() > 200 ? reason.substring(0, 200) : reason);
+        }
+        AMQP.BasicProperties base = props != null ? props : MessageProperties.PERSISTENT_BASIC;
+        return base.builder().headers(headers).build();
+    }
+
     private String channelName(Channel ch) {
         try {
             return ch.toString();
@@ -111,13 +392,17 @@ public class RabbitMqQueueClient implements QueueClient, AutoCloseable {
 
     @Override
     public void close() throws Exception {
-        for (Channel ch : channelsByQueue.values()) {
+        for (Channel ch : distinctChannels()) {
             try { if (ch != null && ch.isOpen()) ch.close(); } catch (Exception ignored) {}
         }
         channelsByQueue.clear();
+        try { if (monitorChannel != null && monitorChannel.isOpen()) monitorChannel.close(); } catch (Exception ignored) {}
         if (conn != null && conn.isOpen()) {
             try { conn.close(); } catch (Exception ignored) {}
         }
+        if (dispatchPool != null) {
+            dispatchPool.shutdownNow();
+        }
         log.info("[MQ] Closed all channels and connection");
     }
 }
\ No newline at end of file
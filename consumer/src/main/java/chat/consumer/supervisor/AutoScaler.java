@@ -0,0 +1,150 @@
+package chat.consumer.supervisor;
+
+import chat.consumer.broadcast.Broadcaster;
+import chat.consumer.persistence.DatabaseWriter;
+import chat.consumer.queue.QueueClient;
+import chat.consumer.worker.MessageConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-place autoscaler for the consumer worker pool and per-channel prefetch.
+ *
+ * Signals (sampled every interval):
+ * - queue depth      : sum of passive-declare message counts over consumed queues
+ * - latency          : average MessageConsumer.handle time since the last sample
+ * - DB buffer fill   : DatabaseWriter buffer occupancy (0..1)
+ * - broadcast inflight: requests blocked on broadcast servers
+ *
+ * Decisions:
+ * - DB buffer filling up  -> shrink threads and halve prefetch (more workers would only drop messages).
+ * - backlog growing, workers saturated, latency under the ceiling -> grow threads by 50%.
+ * - backlog drained and workers mostly idle -> shrink threads by 25%.
+ * Up/down require {@code UP_STREAK}/{@code DOWN_STREAK} consecutive agreeing samples, and any
+ * change resets both streaks, so the pool does not oscillate around a threshold.
+ * Prefetch follows thread count proportionally, clamped to [minPrefetch, maxPrefetch].
+ */
+public class AutoScaler implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(AutoScaler.class);
+
+    private static final int UP_STREAK = 2;
+    private static final int DOWN_STREAK = 3;
+    private static final double DB_PRESSURE_FILL = 0.8;
+    private static final double DB_OK_FILL = 0.5;
+
+    private final MessageConsumer consumer;
+    private final QueueClient queue;
+    private final DatabaseWriter databaseWriter;
+    private final Broadcaster broadcaster;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final int basePrefetch;
+    private final int baseThreads;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final long scaleUpDepth;
+    private final long scaleDownDepth;
+    private final long latencyCeilingMs;
+
+    private int upStreak = 0;
+    private int downStreak = 0;
+    private long lastDepth = -1;
+    private int prefetch;
+
+    public AutoScaler(MessageConsumer consumer, QueueClient queue, DatabaseWriter databaseWriter,
+                      Broadcaster broadcaster, int minThreads, int maxThreads,
+                      int prefetch, int minPrefetch, int maxPrefetch,
+                      long scaleUpDepth, long scaleDownDepth, long latencyCeilingMs) {
+        this.consumer = consumer;
+        this.queue = queue;
+        this.databaseWriter = databaseWriter;
+        this.broadcaster = broadcaster;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.basePrefetch = prefetch;
+        this.baseThreads = Math.max(1, consumer.threads());
+        this.minPrefetch = minPrefetch;
+        this.maxPrefetch = maxPrefetch;
+        this.scaleUpDepth = scaleUpDepth;
+        this.scaleDownDepth = scaleDownDepth;
+        this.latencyCeilingMs = latencyCeilingMs;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int threads = consumer.threads();
+            long depth = queue.queueDepth();
+            double latencyMs = consumer.sampleAvgLatencyMs();
+            double dbFill = databaseWriter.getBufferFill();
+            int inFlight = broadcaster.inFlight();
+            int active = consumer.activeWorkers();
+
+            boolean saturated = active >= threads * 0.8 || inFlight >= threads * 0.8;
+            boolean depthKnown = depth >= 0;
+            boolean backlogGrowing = depthKnown && depth > scaleUpDepth && (lastDepth < 0 || depth >= lastDepth * 0.9);
+            boolean drained = depthKnown && depth < scaleDownDepth && active < threads / 2;
+            boolean latencyOk = latencyMs < 0 || latencyMs < latencyCeilingMs;
+            lastDepth = depth;
+
+            if (log.isDebugEnabled()) {
+                log.debug("AutoScale sample: threads={} active={} depth={} latency={}ms dbFill={} inFlight={} prefetch={}",
+                        threads, active, depth, String.format("%.1f", latencyMs),
+                        String.format("%.2f", dbFill), inFlight, prefetch);
+            }
+
+            int target = threads;
+            int targetPrefetch = prefetch;
+            String reason = null;
+
+            if (dbFill >= DB_PRESSURE_FILL) {
+                // 数据库是瓶颈：立即收缩，不等待 streak
+                target = Math.max(minThreads, (int) (threads * 0.75));
+                targetPrefetch = Math.max(minPrefetch, prefetch / 2);
+                reason = "db buffer " + String.format("%.0f%%", dbFill * 100);
+                upStreak = 0;
+                downStreak = 0;
+            } else if (backlogGrowing && saturated && latencyOk && dbFill < DB_OK_FILL) {
+                downStreak = 0;
+                if (++upStreak >= UP_STREAK) {
+                    target = Math.min(maxThreads, Math.max(threads + 1, (int) Math.ceil(threads * 1.5)));
+                    reason = "backlog " + depth;
+                }
+            } else if (drained) {
+                upStreak = 0;
+                if (++downStreak >= DOWN_STREAK) {
+                    target = Math.max(minThreads, (int) (threads * 0.75));
+                    reason = "idle, depth " + depth;
+                }
+            } else {
+                upStreak = 0;
+                downStreak = 0;
+            }
+
+            if (target != threads) {
+                consumer.resize(target);
+                if (targetPrefetch == prefetch) {
+                    // prefetch follows the thread count unless DB pressure already set it
+                    targetPrefetch = prefetchFor(target);
+                }
+                upStreak = 0;
+                downStreak = 0;
+                log.info("AutoScale: threads {} -> {} ({})", threads, target, reason);
+            }
+            if (targetPrefetch != prefetch) {
+                queue.setPrefetch(targetPrefetch);
+                log.info("AutoScale: prefetch {} -> {}", prefetch, targetPrefetch);
+                prefetch = targetPrefetch;
+            }
+        } catch (Exception e) {
+            log.error("AutoScale failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private int prefetchFor(int threads) {
+        long p = (long) basePrefetch * threads / baseThreads;
+        return (int) Math.max(minPrefetch, Math.min(maxPrefetch, p));
+    }
+}
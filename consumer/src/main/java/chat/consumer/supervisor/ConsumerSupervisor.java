@@ -1,16 +1,26 @@
 package chat.consumer.supervisor;
 
 import chat.consumer.broadcast.Broadcaster;
+import chat.consumer.config.ConsumerConfig;
 import chat.consumer.manager.RoomManager;
 import chat.consumer.queue.QueueClient;
+import chat.consumer.util.DedupCache;
 import chat.consumer.worker.MessageConsumer;
 import chat.consumer.config.DatabaseConfig;
 import chat.consumer.dao.MessageDao;
+import chat.consumer.dao.MessagePartitionManager;
+import chat.consumer.dao.StatsReconciler;
+import chat.consumer.dao.MySqlMessageDao;
+import chat.consumer.metrics.PipelineMetrics;
 import chat.consumer.persistence.DatabaseWriter;
+import chat.consumer.persistence.MessageSpool;
+import chat.consumer.analytics.ActivityTopK;
+import chat.consumer.analytics.AnalyticsService;
 import chat.consumer.analytics.MetricsApiServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -25,58 +35,100 @@ public class ConsumerSupervisor {
 
     private final QueueClient queue;
     private final RoomManager rooms;
+    private final Broadcaster broadcaster;
+    private final ConsumerConfig cfg;
     private final int initialThreads;
     private final boolean autoScale;
     private final int minThreads;
     private final int maxThreads;
     private final int prefetch;
 
-    // Cached roomIds for restart
-    private List<String> roomIds;
-
     // 数据库相关 - 新增这三行
     private final DatabaseConfig dbConfig;
     private final MessageDao messageDao;
     private final DatabaseWriter databaseWriter;
+    private MessageSpool spool;                     // 写入端溢出 spool（未配置时为 null）
     private final MetricsApiServer metricsApiServer;
 
     private MessageConsumer consumer;
+    private DedupCache dedup;
+    private ActivityTopK topK;
     private ScheduledExecutorService scaler;
-    private volatile int currentThreads;
+    private ScheduledExecutorService maintenance;   // messages 分区维护 / 统计表对账（都未开启时为 null）
 
     public ConsumerSupervisor(QueueClient queue,
                               RoomManager rooms,
                               Broadcaster broadcaster,
-                              int initialThreads,
-                              boolean autoScale,
-                              int minThreads,
-                              int maxThreads,
-                              int prefetch) throws Exception {
+                              ConsumerConfig cfg) throws Exception {
         this.queue = queue;
         this.rooms = rooms;
         this.rooms.setBroadcaster(broadcaster);
-        this.initialThreads = initialThreads;
-        this.autoScale = autoScale;
-        this.minThreads = minThreads;
-        this.maxThreads = maxThreads;
-        this.prefetch = prefetch;
-        this.currentThreads = initialThreads;
+        this.broadcaster = broadcaster;
+        this.cfg = cfg;
+        this.initialThreads = cfg.consumerThreads;
+        this.autoScale = cfg.autoScale;
+        this.minThreads = cfg.minThreads;
+        this.maxThreads = cfg.maxThreads;
+        this.prefetch = cfg.prefetch;
 
         // 初始化数据库配置
         this.dbConfig = new DatabaseConfig();
         this.dbConfig.initialize();
-        this.messageDao = new MessageDao(dbConfig.getDataSource());
+        this.messageDao = new MySqlMessageDao(dbConfig.getDataSource(), dbConfig.getInsertMode());
 
-        // 初始化DatabaseWriter
-        // 参数：batchSize=1000, flushInterval=500ms, writerThreads=1, bufferCapacity=10000
-        this.databaseWriter = new DatabaseWriter(messageDao, 1000, 500, 1, 10000);
+        // 初始化DatabaseWriter：按房间哈希分区，每个写线程持有一个连接（db.writer.threads <= 连接池大小）
+        this.databaseWriter = new DatabaseWriter(messageDao, cfg.writerBatchSize, cfg.writerFlushMs,
+                cfg.writerThreads, cfg.writerBufferCapacity, cfg.writerWaitStrategy);
+        if (cfg.writerTargetLatencyMs > 0) {
+            this.databaseWriter.setAdaptiveBatching(cfg.writerTargetLatencyMs, cfg.writerMinBatch);
+        }
+        if (!cfg.spoolDir.isEmpty()) {
+            this.spool = new MessageSpool(Path.of(cfg.spoolDir), cfg.spoolSegmentMb << 20, (long) cfg.spoolMaxMb << 20);
+            this.databaseWriter.setSpool(spool, cfg.spoolReplayPerSec);
+            PipelineMetrics.INSTANCE.registerGauge("writerSpool", spool::stats);
+        }
         this.databaseWriter.start();
 
         log.info("Database writer initialized and started");
 
+        // 分区表：先同步跑一次（保证当前时间的分区存在），之后定时预建 / 删除分区
+        MessagePartitionManager partitionManager = dbConfig.createPartitionManager();
+        StatsReconciler reconciler = dbConfig.createStatsReconciler();
+        if (partitionManager != null || reconciler != null) {
+            this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "db-maintenance");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        if (partitionManager != null) {
+            partitionManager.run();
+            long every = dbConfig.getMaintenanceMinutes();
+            maintenance.scheduleAtFixedRate(partitionManager, every, every, TimeUnit.MINUTES);
+            log.info("messages partition maintenance enabled ({}), every {} min", dbConfig.getPartitioning(), every);
+        }
+        // 统计表对账：和分区维护同一个线程，不会和 DROP PARTITION 同时扫描 messages
+        if (reconciler != null) {
+            long every = dbConfig.getReconcileMinutes();
+            maintenance.scheduleWithFixedDelay(reconciler, every, every, TimeUnit.MINUTES);
+            PipelineMetrics.INSTANCE.registerGauge("statsReconciler", reconciler::stats);
+            log.info("aggregate stats reconciliation enabled, every {} min", every);
+        }
+
 // 初始化Metrics API Server
+        // 分析查询走读池（未配置时与写入共用）；对账 / 分区维护要写，留在写池
+        PipelineMetrics.INSTANCE.registerGauge("dbPools", dbConfig::poolStats);
         try {
-            this.metricsApiServer = new MetricsApiServer(dbConfig.getDataSource(), 9090);
+            this.metricsApiServer = new MetricsApiServer(
+                    new AnalyticsService(dbConfig.getReadDataSource(), cfg.analyticsQueryThreads,
+                            cfg.analyticsQueryTimeoutMs, cfg.analyticsMetricsDeadlineMs),
+                    9090, cfg.analyticsCacheTtlMs);
+            metricsApiServer.setMaxConcurrentPerEndpoint(cfg.analyticsMaxConcurrentPerEndpoint);
+            if (cfg.topKCapacity > 0) {
+                topK = new ActivityTopK(cfg.topKCapacity, cfg.topKWindowMinutes);
+                topK.seed(dbConfig.getReadDataSource());
+                metricsApiServer.setTopK(topK);
+            }
             this.metricsApiServer.start();
         } catch (Exception e) {
             log.error("Failed to start Metrics API Server", e);
@@ -85,57 +137,32 @@ public class ConsumerSupervisor {
     }
 
     public void start(List<String> roomIds) throws Exception {
-        // Save roomIds for potential restart
-        this.roomIds = roomIds;
-
-        consumer = new MessageConsumer(queue, rooms, initialThreads, databaseWriter);
+        // 虚拟线程模式下 "threads" 表示并发上限
+        int workers = cfg.virtualThreads ? cfg.maxConcurrency : initialThreads;
+        consumer = new MessageConsumer(queue, rooms, workers, databaseWriter, cfg.virtualThreads);
+        if (cfg.dedupWindowMs > 0) {
+            dedup = new DedupCache(cfg.dedupCapacity, cfg.dedupWindowMs);
+            consumer.setDedup(dedup);
+        }
+        if (topK != null) {
+            consumer.setTopK(topK);
+        }
         consumer.start(roomIds);
 
-        // ✅ FORCE DISABLE AutoScale for stability
-        if (false) {  // Changed from: if (autoScale)
+        // 在线扩缩容：只调整线程池大小和 basicQos，不重建 consumer、不重新订阅
+        if (autoScale) {
+            AutoScaler autoScaler = new AutoScaler(consumer, queue, databaseWriter, broadcaster,
+                    minThreads, consumer.isVirtual() ? Math.max(maxThreads, cfg.maxConcurrency) : maxThreads, prefetch, cfg.minPrefetch, cfg.maxPrefetch,
+                    cfg.scaleUpDepth, cfg.scaleDownDepth, cfg.latencyCeilingMs);
             scaler = Executors.newSingleThreadScheduledExecutor(r -> {
                 Thread t = new Thread(r, "autoscaler");
                 t.setDaemon(true);
                 return t;
             });
-            scaler.scheduleAtFixedRate(this::maybeScale, 15, 15, TimeUnit.SECONDS);
-        }
-        log.info("Supervisor started with {} threads for {} rooms (AutoScale: DISABLED)",
-                initialThreads, roomIds.size());
-    }
-
-    private void maybeScale() {
-        try {
-            long processed = rooms.messagesProcessed.getAndSet(0);
-
-            // Calculate thread count based on message processing rate
-            int threads;
-            if (processed == 0) {
-                // Keep current thread count or reduce to minimum
-                threads = Math.max(minThreads, currentThreads / 2);
-            } else {
-                threads = Math.max(minThreads,
-                        Math.min(maxThreads, (int) Math.ceil(processed / (double) (prefetch * 10))));
-            }
-
-            if (threads != currentThreads) {
-                log.info("AutoScale: {} -> {} (processed in 15s: {})", currentThreads, threads, processed);
-
-                // Close old consumer
-                if (consumer != null) {
-                    consumer.close();
-                }
-
-                // Create and start new consumer
-                consumer = new MessageConsumer(queue, rooms, threads, databaseWriter);
-                consumer.start(roomIds);
-
-                currentThreads = threads;
-                log.info("AutoScale completed: now running with {} threads", threads);
-            }
-        } catch (Exception e) {
-            log.error("AutoScale failed: {}", e.getMessage(), e);
+            scaler.scheduleAtFixedRate(autoScaler, cfg.scaleIntervalSec, cfg.scaleIntervalSec, TimeUnit.SECONDS);
         }
+        log.info("Supervisor started with {} {} workers for {} rooms (AutoScale: {})",
+                consumer.threads(), consumer.isVirtual() ? "virtual" : "platform", roomIds.size(), autoScale ? "ENABLED [" + minThreads + ".." + maxThreads + "]" : "DISABLED");
     }
 
     public void stop() {
@@ -145,6 +172,9 @@ public class ConsumerSupervisor {
             if (scaler != null) {
                 scaler.shutdownNow();
             }
+            if (maintenance != null) {
+                maintenance.shutdownNow();
+            }
         } catch (Exception e) {
             log.warn("Failed to stop scaler: {}", e.getMessage());
         }
@@ -157,6 +187,9 @@ public class ConsumerSupervisor {
             log.warn("Failed to close consumer: {}", e.getMessage());
         }
 
+        log.info("Final queue failure stats: {}, duplicates skipped: {}",
+                queue.failureStats(), dedup != null ? dedup.hits() : 0);
+
         // 关闭数据库写入器
         try {
             if (databaseWriter != null) {
@@ -167,6 +200,10 @@ public class ConsumerSupervisor {
                 DatabaseWriter.WriterStats stats = databaseWriter.getStats();
                 log.info("Final database stats: {}", stats);
             }
+            // 写入端关闭时写不进去的批次已经落到 spool，下次启动重放
+            if (spool != null) {
+                spool.close();
+            }
         } catch (Exception e) {
             log.error("Failed to close database writer: {}", e.getMessage());
         }
@@ -0,0 +1,165 @@
+package chat.consumer.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界、按时间窗口过期的 messageId 去重集合。
+ *
+ * - 每个 ID 存成 64 位指纹，放在 long[] 开放寻址表里（无对象、无装箱，每条约 16 字节）；
+ *   64 位指纹在百万级规模下误判概率约 2^-44，可视为精确。
+ * - 每个分段有两代表：current / previous。超过 window 或 current 装满时轮换，
+ *   previous 整体丢弃，因此一个 ID 至少被记住 min(window, 容量) 这么久，内存固定。
+ * - 分段加锁，热路径只有一次 hash + 几次数组探测。
+ */
+public class DedupCache {
+    private static final int SEGMENTS = 32;   // 2 的幂
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long windowNanos;
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param capacity  每一代最多记住的 ID 数（总内存约 capacity * 2 代 * 2 倍装载 * 8 字节）
+     * @param windowMs  去重窗口
+     */
+    public DedupCache(int capacity, long windowMs) {
+        this.windowNanos = windowMs * 1_000_000L;
+        int perSegment = Math.max(16, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /** 窗口内是否已经见过该 ID */
+    public boolean contains(String messageId) {
+        long fp = fingerprint(messageId);
+        boolean seen = segmentOf(fp).contains(fp, System.nanoTime());
+        if (seen) hits.incrementAndGet();
+        return seen;
+    }
+
+    /** 记录该 ID（消息处理成功后调用） */
+    public void add(String messageId) {
+        long fp = fingerprint(messageId);
+        segmentOf(fp).add(fp, System.nanoTime());
+    }
+
+    /**
+     * 消息某个处理阶段是否已完成（例如已送达某个广播 server）；和整条消息的记录共用一张表，不计入 hits
+     */
+    public boolean containsStage(String messageId, String stage) {
+        long fp = fingerprint(messageId, stage);
+        return segmentOf(fp).contains(fp, System.nanoTime());
+    }
+
+    /** 记录消息的某个阶段已完成（只在整条消息失败、等待重试时记录，成功的消息只占一条） */
+    public void addStage(String messageId, String stage) {
+        long fp = fingerprint(messageId, stage);
+        segmentOf(fp).add(fp, System.nanoTime());
+    }
+
+    /** 被判定为重复的次数 */
+    public long hits() {
+        return hits.get();
+    }
+
+    private Segment segmentOf(long fp) {
+        return segments[(int) (fp >>> 59) & (SEGMENTS - 1)];
+    }
+
+    /** FNV-1a 64 + murmur3 fmix64；0 保留给空槽 */
+    static long fingerprint(String s) {
+        return mix(fnv(0xcbf29ce484222325L, s));
+    }
+
+    /** id + 分隔符 + stage，不拼接字符串 */
+    static long fingerprint(String s, String stage) {
+        long h = fnv(0xcbf29ce484222325L, s);
+        h ^= 0xFFFF;                        // 不会出现在 char 序列里的分隔，避免 ("a","bc") 与 ("ab","c") 相同
+        h *= 0x100000001b3L;
+        return mix(fnv(h, stage));
+    }
+
+    private static long fnv(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private final class Segment {
+        private final int capacity;
+        private final int mask;
+        private long[] current;
+        private long[] previous;
+        private int size;
+        private long generationStart = System.nanoTime();
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1; // 装载因子 <= 0.5
+            this.mask = tableSize - 1;
+            this.current = new long[tableSize];
+            this.previous = new long[tableSize];
+        }
+
+        synchronized boolean contains(long fp, long now) {
+            maybeRotate(now);
+            return probe(current, fp) || probe(previous, fp);
+        }
+
+        synchronized void add(long fp, long now) {
+            maybeRotate(now);
+            if (probe(current, fp)) return;
+            if (size >= capacity) {
+                rotate(now);
+            }
+            int i = (int) fp & mask;
+            while (current[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            current[i] = fp;
+            size++;
+        }
+
+        private boolean probe(long[] table, long fp) {
+            int i = (int) fp & mask;
+            long v;
+            while ((v = table[i]) != 0) {
+                if (v == fp) return true;
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        private void maybeRotate(long now) {
+            long age = now - generationStart;
+            if (age >= windowNanos) {
+                rotate(now);
+                if (age >= 2 * windowNanos) {
+                    rotate(now); // 空闲超过两个窗口：两代都已过期
+                }
+            }
+        }
+
+        private void rotate(long now) {
+            long[] recycled = previous;
+            Arrays.fill(recycled, 0L);
+            previous = current;
+            current = recycled;
+            size = 0;
+            generationStart = now;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package chat.consumer.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 可合并的 HyperLogLog 去重计数草图（非线程安全）。
+ *
+ * - 精度 p：2^p 个 1 字节寄存器，标准误差约 1.04 / sqrt(2^p)（默认 p=12：4096 个寄存器，约 1.6%）；
+ * - merge 取逐寄存器最大值，所以按房间 / 分钟存下来的草图可以合并出任意窗口的去重人数；
+ * - 序列化：[p][0=稠密][2^p 字节] 或 [p][1=稀疏][(u16 下标, u8 值)...]，取较小者，
+ *   一分钟只有几十个用户的草图只占几百字节。
+ */
+public final class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 12;
+
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private final int p;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("precision must be in [4, 16]: " + precision);
+        }
+        this.p = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public void add(String value) {
+        // 与 DedupCache 同一个 64 位指纹（FNV-1a + fmix64，各位分布均匀）
+        addHash(DedupCache.fingerprint(value));
+    }
+
+    public void addHash(long hash) {
+        int idx = (int) (hash >>> (64 - p));
+        // 剩余 64-p 位的前导零个数 + 1；末尾补 1 保证不超过 64-p+1
+        long rest = (hash << p) | (1L << (p - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[idx]) {
+            registers[idx] = rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.p != p) {
+            throw new IllegalArgumentException("precision mismatch: " + p + " vs " + other.p);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        // 小基数区间用线性计数（误差远小于原始估计）
+        if (e <= 2.5 * m && zeros > 0) {
+            e = m * Math.log((double) m / zeros);
+        }
+        return Math.round(e);
+    }
+
+    public boolean isEmpty() {
+        for (byte r : registers) {
+            if (r != 0) return false;
+        }
+        return true;
+    }
+
+    public byte[] toBytes() {
+        int nonZero = 0;
+        for (byte r : registers) {
+            if (r != 0) nonZero++;
+        }
+        if (nonZero * 3 < registers.length) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(2 + nonZero * 3);
+            out.write(p);
+            out.write(SPARSE);
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    out.write(i >>> 8);
+                    out.write(i);
+                    out.write(registers[i]);
+                }
+            }
+            return out.toByteArray();
+        }
+        byte[] out = new byte[2 + registers.length];
+        out[0] = (byte) p;
+        out[1] = DENSE;
+        System.arraycopy(registers, 0, out, 2, registers.length);
+        return out;
+    }
+
+    /**
+     * 反序列化 toBytes 的结果。数据来自数据库，任何格式问题（长度、下标越界、寄存器值超出 [0, 64-p+1]）
+     * 都抛 IllegalArgumentException，调用方按坏草图处理，不会在之后的 estimate / merge 里才出错。
+     */
+    public static HyperLogLog fromBytes(byte[] data) {
+        if (data == null || data.length < 2) {
+            throw new IllegalArgumentException("not a HyperLogLog sketch");
+        }
+        HyperLogLog h = new HyperLogLog(data[0]);
+        if (data[1] == DENSE) {
+            if (data.length != 2 + h.registers.length) {
+                throw new IllegalArgumentException("bad dense sketch length: " + data.length);
+            }
+            for (int i = 0; i < h.registers.length; i++) {
+                h.registers[i] = h.checkRank(data[2 + i]);
+            }
+        } else if (data[1] == SPARSE) {
+            if ((data.length - 2) % 3 != 0) {
+                throw new IllegalArgumentException("bad sparse sketch length: " + data.length);
+            }
+            for (int i = 2; i < data.length; i += 3) {
+                int idx = ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+                if (idx >= h.registers.length) {
+                    throw new IllegalArgumentException("register index out of range: " + idx);
+                }
+                h.registers[idx] = h.checkRank(data[i + 2]);
+            }
+        } else {
+            throw new IllegalArgumentException("unknown sketch encoding: " + data[1]);
+        }
+        return h;
+    }
+
+    /** 寄存器值 = 前导零个数 + 1，不会超过 64-p+1 */
+    private byte checkRank(byte rank) {
+        if (rank < 0 || rank > 64 - p + 1) {
+            throw new IllegalArgumentException("register value out of range: " + rank);
+        }
+        return rank;
+    }
+}
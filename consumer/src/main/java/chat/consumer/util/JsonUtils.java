@@ -1,9 +1,165 @@
 package chat.consumer.util;
 
 
+import chat.consumer.model.ChatMessage;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
 
 public class JsonUtils {
     public static final ObjectMapper M = new ObjectMapper();
-}
\ No newline at end of file
+
+    private static final byte[] ROOM_ID_PREFIX = "{\"roomId\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ROOM_ID_KEY = "\"roomId\"".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 直接从 AMQP body 的 byte[] 流式解析 ChatMessage（不经过 String、不走 databind）。
+     * 只提取持久化需要的字段，未知字段 / 嵌套对象直接跳过；数字类型（如 userId=123）按文本读取。
+     */
+    public static ChatMessage readChatMessage(byte[] body) throws IOException {
+        ChatMessage msg = new ChatMessage();
+        try (JsonParser p = M.getFactory().createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "Expected JSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken t = p.nextToken();
+                if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY) {
+                    p.skipChildren();
+                    continue;
+                }
+                String v = t == JsonToken.VALUE_NULL ? null : p.getText();
+                switch (field) {
+                    case "messageId":   msg.messageId = v; break;
+                    case "roomId":      msg.roomId = v; break;
+                    case "userId":      msg.userId = v; break;
+                    case "username":    msg.username = v; break;
+                    case "message":     msg.message = v; break;
+                    case "timestamp":   msg.timestamp = v; break;
+                    case "messageType": msg.messageType = v; break;
+                    case "serverId":    msg.serverId = v; break;
+                    case "clientIp":    msg.clientIp = v; break;
+                    default: break;
+                }
+            }
+        }
+        return msg;
+    }
+
+    /**
+     * 给原始 JSON 对象设置 "roomId"，其余字节原样拷贝（不重新序列化）：
+     * - 没有 roomId 键：在对象开头注入（一次 arraycopy）；
+     * - 顶层已有 roomId 但值为空串 / null：原地替换这个值，不能再加一个同名键
+     *   （多数解析器取最后一次出现的值，下游仍会看到空房间）；
+     * - 已有非空值：原样返回。
+     * body 不是 JSON 对象时原样返回。
+     */
+    public static byte[] withRoomId(byte[] body, String roomId) {
+        int i = 0;
+        while (i < body.length && isWhitespace(body[i])) i++;
+        if (i >= body.length || body[i] != '{') {
+            return body;
+        }
+        byte[] id = JsonStringEncoder.getInstance().quoteAsUTF8(roomId);
+        if (indexOf(body, ROOM_ID_KEY) >= 0) {
+            byte[] replaced = replaceEmptyRoomId(body, id);
+            if (replaced != null) {
+                return replaced;
+            }
+        }
+
+        int rest = i + 1;
+        int j = rest;
+        while (j < body.length && isWhitespace(body[j])) j++;
+        boolean empty = j < body.length && body[j] == '}';
+
+        int len = ROOM_ID_PREFIX.length + id.length + 1 + (empty ? 0 : 1) + (body.length - rest);
+        byte[] out = new byte[len];
+        int pos = 0;
+        System.arraycopy(ROOM_ID_PREFIX, 0, out, pos, ROOM_ID_PREFIX.length); pos += ROOM_ID_PREFIX.length;
+        System.arraycopy(id, 0, out, pos, id.length); pos += id.length;
+        out[pos++] = '"';
+        if (!empty) out[pos++] = ',';
+        System.arraycopy(body, rest, out, pos, body.length - rest);
+        return out;
+    }
+
+    /**
+     * 顶层有 roomId 键时：空串 / null 的值（可能出现多次）全部换成 id；已有非空值则返回 body 本身。
+     * 没有顶层 roomId 键（只出现在嵌套对象或字符串内容里）或解析失败时返回 null，由调用方在开头注入。
+     */
+    private static byte[] replaceEmptyRoomId(byte[] body, byte[] id) {
+        List<int[]> spans = new ArrayList<>();
+        boolean found = false;
+        try (JsonParser p = M.getFactory().createParser(body)) {
+            p.nextToken();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken t = p.nextToken();
+                if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY) {
+                    p.skipChildren();
+                    continue;
+                }
+                if (!"roomId".equals(field)) {
+                    continue;
+                }
+                found = true;
+                int start = (int) p.currentTokenLocation().getByteOffset();
+                String v = t == JsonToken.VALUE_NULL ? "" : p.getText();
+                if (v.isEmpty()) {
+                    // getText 之后当前位置在值的最后一个字节之后
+                    spans.add(new int[]{start, (int) p.currentLocation().getByteOffset()});
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (!found) {
+            return null;
+        }
+        if (spans.isEmpty()) {
+            return body;
+        }
+
+        int len = body.length;
+        for (int[] span : spans) {
+            len += id.length + 2 - (span[1] - span[0]);
+        }
+        byte[] out = new byte[len];
+        int pos = 0;
+        int from = 0;
+        for (int[] span : spans) {
+            System.arraycopy(body, from, out, pos, span[0] - from); pos += span[0] - from;
+            out[pos++] = '"';
+            System.arraycopy(id, 0, out, pos, id.length); pos += id.length;
+            out[pos++] = '"';
+            from = span[1];
+        }
+        System.arraycopy(body, from, out, pos, body.length - from);
+        return out;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int k = 0; k < pattern.length; k++) {
+                if (data[i + k] != pattern[k]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
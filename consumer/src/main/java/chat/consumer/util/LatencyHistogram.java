@@ -0,0 +1,107 @@
+package chat.consumer.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 低开销、无锁的延迟直方图（log-linear 桶，精度约 ±6%）。
+ * record() 只做几次位运算 + 一次 AtomicLongArray 自增，可以放在每条消息的热路径上。
+ * snapshotAndReset() 返回上一个区间的统计并清零，用于按区间上报。
+ */
+public class LatencyHistogram {
+    // 每个 2 的幂区间细分为 16 个子桶；覆盖 1ns ~ 2^40ns（约 18 分钟）
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXP = 40;
+    private static final int BUCKETS = (MAX_EXP + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { }
+    }
+
+    public void recordMillis(long millis) {
+        recordNanos(millis * 1_000_000L);
+    }
+
+    private static int bucketOf(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);            // floor(log2 v) >= SUB_BITS
+        if (exp > MAX_EXP) return BUCKETS - 1;
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** 桶的上界（ns），用于估算百分位 */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    public Snapshot snapshot() {
+        return take(false);
+    }
+
+    public Snapshot snapshotAndReset() {
+        return take(true);
+    }
+
+    private Snapshot take(boolean reset) {
+        long[] c = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            c[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            n += c[i];
+        }
+        long s = reset ? sum.getAndSet(0) : sum.get();
+        long mx = reset ? max.getAndSet(0) : max.get();
+        // 桶上界可能略大于真实最大值，截断到 max
+        return new Snapshot(n, s, mx, Math.min(mx, percentile(c, n, 0.50)),
+                Math.min(mx, percentile(c, n, 0.95)), Math.min(mx, percentile(c, n, 0.99)));
+    }
+
+    private static long percentile(long[] c, long n, double q) {
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < c.length; i++) {
+            seen += c[i];
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(c.length - 1);
+    }
+
+    /** 一个区间的统计结果（单位 ms，便于直接序列化成 JSON） */
+    public static class Snapshot {
+        public final long count;
+        public final double meanMs;
+        public final double p50Ms;
+        public final double p95Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        Snapshot(long count, long sumNanos, long maxNanos, long p50, long p95, long p99) {
+            this.count = count;
+            this.meanMs = count == 0 ? 0 : sumNanos / (double) count / 1e6;
+            this.p50Ms = p50 / 1e6;
+            this.p95Ms = p95 / 1e6;
+            this.p99Ms = p99 / 1e6;
+            this.maxMs = maxNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                    count, meanMs, p50Ms, p95Ms, p99Ms, maxMs);
+        }
+    }
+}
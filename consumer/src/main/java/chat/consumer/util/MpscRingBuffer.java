@@ -0,0 +1,262 @@
+package chat.consumer.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 有界多生产者 / 单消费者环形缓冲（无锁，槽位预分配，offer 不分配对象）。
+ *
+ * - 每个槽位一个序号：seq == 位置 表示空闲，seq == 位置 + 1 表示已发布；
+ *   生产者 CAS 推进 tail 认领位置，写入元素后 lazySet 发布；
+ * - 唯一的消费者按顺序批量取出（drain），取完把槽位序号推进一圈交还给生产者；
+ * - 满了 offer 直接返回 false（不阻塞生产者），由调用方决定丢弃 / 落盘；
+ * - 消费者空闲时按 WaitStrategy 等待：BUSY_SPIN / YIELD 延迟最低但占满一个核，
+ *   PARK 先自旋一小段再 park，生产者发现消费者在 park 时才 unpark。
+ *
+ * 元素也可以不放在内部的 Object[] 里：offer(SlotWriter, value) / drainSlots(SlotReader, ...) 只负责
+ * 槽位的认领和发布，数据由调用方按槽位号写进自己的存储（例如预分配的列式数组，见 MessageColumns）。
+ * 写槽位发生在认领之后、发布之前，期间消费者会停在这个槽位上，所以 SlotWriter 要短、不能阻塞。
+ */
+public final class MpscRingBuffer<E> {
+
+    /** 消费者在缓冲为空时的等待方式 */
+    public enum WaitStrategy {
+        BUSY_SPIN, YIELD, PARK;
+
+        public static WaitStrategy parse(String s, WaitStrategy defVal) {
+            if (s == null || s.isBlank()) return defVal;
+            try {
+                return WaitStrategy.valueOf(s.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return defVal;
+            }
+        }
+    }
+
+    /** 生产者把 value 写进槽位 slot 对应的外部存储 */
+    @FunctionalInterface
+    public interface SlotWriter<T> {
+        void write(int slot, T value);
+    }
+
+    /** 消费者读出槽位 slot 的数据；返回后槽位交还给生产者 */
+    @FunctionalInterface
+    public interface SlotReader {
+        void read(int slot);
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int limit;
+    private final WaitStrategy waitStrategy;
+
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();   // 下一个待认领的位置（生产者共享）
+    private volatile long head;                                     // 下一个待消费的位置（只有消费者写）
+    private volatile Thread parkedConsumer;
+
+    /**
+     * @param capacity 最多容纳的元素数（槽位数向上取整到 2 的幂）
+     */
+    public MpscRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.limit = Math.max(1, capacity);
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * 追加一个元素（任意线程）
+     * @return false = 已满
+     */
+    public boolean offer(E e) {
+        long t = claim();
+        if (t < 0) {
+            return false;
+        }
+        slots[(int) (t & mask)] = e;
+        publish(t);
+        return true;
+    }
+
+    /**
+     * 认领一个槽位，由 writer 把 value 写进外部存储后发布（任意线程）
+     * @return false = 已满
+     */
+    public <T> boolean offer(SlotWriter<? super T> writer, T value) {
+        long t = claim();
+        if (t < 0) {
+            return false;
+        }
+        try {
+            writer.write((int) (t & mask), value);
+        } finally {
+            // writer 抛异常也要发布，否则消费者永远卡在这个槽位上
+            publish(t);
+        }
+        return true;
+    }
+
+    /** @return 认领到的位置，-1 = 已满 */
+    private long claim() {
+        while (true) {
+            long t = tail.get();
+            if (t - head >= limit) {
+                return -1;
+            }
+            long seq = sequences.get((int) (t & mask));
+            if (seq == t) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    return t;
+                }
+            } else if (seq < t) {
+                return -1;   // 这个槽位上一圈的元素还没被消费：满
+            }
+            // seq > t：别的生产者刚认领了 t，重读 tail
+        }
+    }
+
+    private void publish(long t) {
+        sequences.lazySet((int) (t & mask), t + 1);
+        Thread waiter = parkedConsumer;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * 取出最多 max 个元素交给 sink（只能由唯一的消费者线程调用）。
+     * 为空时按等待策略最多等 timeoutNanos
+     * @return 取出的元素个数，超时为 0
+     */
+    public int drain(Consumer<? super E> sink, int max, long timeoutNanos) throws InterruptedException {
+        return drain(null, sink, max, timeoutNanos);
+    }
+
+    /**
+     * 同 drain，但不经过内部 Object[]：按顺序把最多 max 个已发布的槽位号交给 reader（只能由唯一的消费者线程调用）
+     */
+    public int drainSlots(SlotReader reader, int max, long timeoutNanos) throws InterruptedException {
+        return drain(reader, null, max, timeoutNanos);
+    }
+
+    private int drain(SlotReader reader, Consumer<? super E> sink, int max, long timeoutNanos)
+            throws InterruptedException {
+        int n = drainNow(reader, sink, max);
+        if (n > 0 || timeoutNanos <= 0) {
+            return n;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        int idle = 0;
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return 0;
+            }
+            idle(idle++, remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            n = drainNow(reader, sink, max);
+            if (n > 0) {
+                return n;
+            }
+        }
+    }
+
+    /** reader != null 时按槽位号读外部存储（读完才交还槽位），否则从 slots 取元素交给 sink */
+    @SuppressWarnings("unchecked")
+    private int drainNow(SlotReader reader, Consumer<? super E> sink, int max) {
+        long h = head;
+        int n = 0;
+        while (n < max) {
+            int idx = (int) (h & mask);
+            if (sequences.get(idx) != h + 1) {
+                break;   // 未发布（或生产者已认领但还没写完）
+            }
+            if (reader != null) {
+                reader.read(idx);
+                sequences.lazySet(idx, h + slots.length);
+            } else {
+                E e = (E) slots[idx];
+                slots[idx] = null;
+                sequences.lazySet(idx, h + slots.length);
+                sink.accept(e);
+            }
+            h++;
+            n++;
+        }
+        if (n > 0) {
+            head = h;
+        }
+        return n;
+    }
+
+    private void idle(int idleCount, long remainingNanos) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                if (idleCount < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                break;
+            case PARK:
+            default:
+                if (idleCount < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                    break;
+                }
+                parkedConsumer = Thread.currentThread();
+                // 登记之后再检查一次，避免错过登记前刚发布的元素；
+                // 非空却取不出 = 有生产者认领了槽位还没写完（CPU 紧张时可能被切走），让出 CPU 给它
+                if (!isEmpty()) {
+                    parkedConsumer = null;
+                    Thread.yield();
+                    break;
+                }
+                LockSupport.parkNanos(this, Math.min(remainingNanos, MAX_PARK_NANOS));
+                parkedConsumer = null;
+        }
+    }
+
+    /** 当前元素个数（含已认领未发布的，近似值） */
+    public int size() {
+        long n = tail.get() - head;
+        return (int) Math.max(0, Math.min(n, limit));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return limit;
+    }
+
+    /** 槽位数（capacity 向上取整到 2 的幂），外部存储按这个长度分配，槽位号在 [0, slots()) 内 */
+    public int slots() {
+        return slots.length;
+    }
+
+    /** tail 后面填充，避免和相邻分配的其他热字段落在同一缓存行 */
+    @SuppressWarnings("unused")
+    private static final class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
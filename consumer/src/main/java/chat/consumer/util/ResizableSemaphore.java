@@ -0,0 +1,32 @@
+package chat.consumer.util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * 可在线调整许可数的信号量（Semaphore.reducePermits 是 protected）。
+ * 用于虚拟线程模式的并发上限、内存队列的 prefetch 等需要动态调整的限流点。
+ */
+public class ResizableSemaphore extends Semaphore {
+    private static final long serialVersionUID = 1L;
+
+    private int limit;
+
+    public ResizableSemaphore(int limit) {
+        super(limit);
+        this.limit = limit;
+    }
+
+    public synchronized void resize(int newLimit) {
+        int delta = newLimit - limit;
+        if (delta > 0) {
+            release(delta);
+        } else if (delta < 0) {
+            reducePermits(-delta);
+        }
+        limit = newLimit;
+    }
+
+    public synchronized int limit() {
+        return limit;
+    }
+}
@@ -0,0 +1,159 @@
+package chat.consumer.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving 高频项（heavy hitters）计数器（非线程安全）。
+ *
+ * - 最多跟踪 capacity 个 key；满了以后新 key 顶替当前计数最小的那个，继承它的计数（记为 error），
+ *   所以 count 是上界、count - error 是下界，真实频率超过 总数 / capacity 的 key 一定在表里；
+ * - 计数器放在按 count 排序的小根堆里（每个计数器记住自己的堆下标），add 为 O(log capacity)，不分配对象；
+ * - 计数器可以带一个 label（例如 username）和一个附加对象，被顶替时一起清空。
+ */
+public final class SpaceSaving<A> {
+
+    /** 一个被跟踪的 key */
+    public static final class Counter<A> {
+        private String key;
+        private long count;
+        private long error;
+        private String label;
+        private A attachment;
+        private int pos;
+
+        public String key() { return key; }
+        public long count() { return count; }
+        public long error() { return error; }
+        public String label() { return label; }
+        public A attachment() { return attachment; }
+
+        public void setLabel(String label) { this.label = label; }
+        public void setAttachment(A attachment) { this.attachment = attachment; }
+    }
+
+    private static final Comparator<Counter<?>> BY_COUNT_DESC =
+            Comparator.comparingLong((Counter<?> c) -> c.count).reversed().thenComparing(c -> c.key);
+
+    private final int capacity;
+    private final Map<String, Counter<A>> index;
+    private final Counter<A>[] heap;
+    private int size;
+    private long total;
+
+    @SuppressWarnings("unchecked")
+    public SpaceSaving(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.index = new HashMap<>(this.capacity * 2);
+        this.heap = (Counter<A>[]) new Counter<?>[this.capacity];
+    }
+
+    /**
+     * key 计数加 weight
+     * @return key 对应的计数器（新 key 或顶替来的计数器 label / attachment 为空）
+     */
+    public Counter<A> add(String key, long weight) {
+        total += weight;
+        Counter<A> c = index.get(key);
+        if (c != null) {
+            c.count += weight;
+            siftDown(c.pos);
+            return c;
+        }
+        if (size < capacity) {
+            c = new Counter<>();
+            c.key = key;
+            c.count = weight;
+            c.pos = size;
+            heap[size++] = c;
+            index.put(key, c);
+            siftUp(c.pos);
+            return c;
+        }
+        // 顶替最小的计数器：新 key 可能在被跟踪之前出现过最多 min 次
+        c = heap[0];
+        index.remove(c.key);
+        c.key = key;
+        c.error = c.count;
+        c.count += weight;
+        c.label = null;
+        c.attachment = null;
+        index.put(key, c);
+        siftDown(0);
+        return c;
+    }
+
+    public Counter<A> get(String key) {
+        return index.get(key);
+    }
+
+    /** 计数最大的 n 个（按 count 降序） */
+    public List<Counter<A>> top(int n) {
+        Counter<A>[] copy = Arrays.copyOf(heap, size);
+        Arrays.sort(copy, BY_COUNT_DESC);
+        return new ArrayList<>(Arrays.asList(copy).subList(0, Math.min(n, size)));
+    }
+
+    /** 当前跟踪的全部计数器（无序，调用方不得修改） */
+    public List<Counter<A>> counters() {
+        return Arrays.asList(heap).subList(0, size);
+    }
+
+    /** 表满时未被跟踪的 key 的计数上界；未满时为 0 */
+    public long minCount() {
+        return size < capacity ? 0 : heap[0].count;
+    }
+
+    /** 加过的总权重 */
+    public long total() {
+        return total;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(heap, 0, size, null);
+        index.clear();
+        size = 0;
+        total = 0;
+    }
+
+    private void siftUp(int i) {
+        Counter<A> c = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            Counter<A> p = heap[parent];
+            if (p.count <= c.count) break;
+            heap[i] = p;
+            p.pos = i;
+            i = parent;
+        }
+        heap[i] = c;
+        c.pos = i;
+    }
+
+    private void siftDown(int i) {
+        Counter<A> c = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right].count < heap[child].count) {
+                child = right;
+            }
+            Counter<A> m = heap[child];
+            if (c.count <= m.count) break;
+            heap[i] = m;
+            m.pos = i;
+            i = child;
+        }
+        heap[i] = c;
+        c.pos = i;
+    }
+}
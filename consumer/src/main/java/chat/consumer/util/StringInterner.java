@@ -0,0 +1,38 @@
+package chat.consumer.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 有界字符串驻留池（线程安全）：roomId / userId / username / messageType 这类取值有限的字段，
+ * 写缓冲里只保留一份规范实例，JSON 解析出来的副本随即成为短命垃圾。
+ *
+ * 超过 maxSize 时整体清空重来（不做 LRU）：清空后旧实例仍然有效，只是暂时不再共享。
+ */
+public final class StringInterner {
+
+    private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    public StringInterner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        String canonical = pool.get(s);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (pool.size() >= maxSize) {
+            pool.clear();
+        }
+        canonical = pool.putIfAbsent(s, s);
+        return canonical != null ? canonical : s;
+    }
+
+    public int size() {
+        return pool.size();
+    }
+}
@@ -1,18 +1,30 @@
 package chat.consumer.worker;
 
+import chat.consumer.analytics.ActivityTopK;
+import chat.consumer.broadcast.Broadcaster;
 import chat.consumer.manager.RoomManager;
+import chat.consumer.metrics.PipelineMetrics;
 import chat.consumer.model.ChatMessage;
 import chat.consumer.queue.QueueClient;
 import chat.consumer.queue.QueueClient.AckContext;
+import chat.consumer.util.DedupCache;
 import chat.consumer.util.JsonUtils;
+import chat.consumer.util.ResizableSemaphore;
 import chat.consumer.persistence.DatabaseWriter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.rabbitmq.client.AMQP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 public class MessageConsumer implements AutoCloseable {
@@ -20,65 +32,311 @@ public class MessageConsumer implements AutoCloseable {
 
     private final QueueClient queue;
     private final RoomManager rooms;
-    private final ExecutorService pool;
+    private final ThreadPoolExecutor pool;          // 平台线程模式（virtualThreads=false）
+    private final ExecutorService virtualExecutor;  // 虚拟线程模式：每条消息一个虚拟线程
+    private final ResizableSemaphore limiter;       // 虚拟线程模式下的并发上限
     private final DatabaseWriter databaseWriter;
+    private volatile DedupCache dedup;              // 可选：重投递去重（null = 关闭）
+    private volatile ActivityTopK topK;             // 可选：内存最活跃用户 / 房间（null = 关闭）
+
+    // 处理耗时（autoscaler 按间隔取样后清零）
+    private final AtomicLong handledCount = new AtomicLong();
+    private final AtomicLong handledNanos = new AtomicLong();
 
     public MessageConsumer(QueueClient queue, RoomManager rooms, int threads, DatabaseWriter databaseWriter) {
+        this(queue, rooms, threads, databaseWriter, false);
+    }
+
+    /**
+     * @param threads        平台线程模式下的线程数；虚拟线程模式下的最大并发处理数
+     * @param virtualThreads true=每条消息一个虚拟线程 + 信号量限流（需要 JDK 21+，否则退回线程池）
+     */
+    public MessageConsumer(QueueClient queue, RoomManager rooms, int threads,
+                           DatabaseWriter databaseWriter, boolean virtualThreads) {
         this.queue = queue;
         this.rooms = rooms;
         this.databaseWriter = databaseWriter;
-        this.pool = Executors.newFixedThreadPool(threads, r -> {
-            Thread t = new Thread(r, "consumer-worker");
-            t.setDaemon(true);
-            return t;
-        });
+
+        ExecutorService vexec = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtualThreads && vexec == null) {
+            log.warn("Virtual threads requested but not available on Java {}, falling back to {} platform threads",
+                    Runtime.version().feature(), threads);
+        }
+
+        if (vexec != null) {
+            this.virtualExecutor = vexec;
+            this.limiter = new ResizableSemaphore(threads);
+            this.pool = null;
+        } else {
+            this.virtualExecutor = null;
+            this.limiter = null;
+            // 等价于 newFixedThreadPool，但保留 ThreadPoolExecutor 以便在线 resize
+            this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "consumer-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor()（JDK 21+）；项目按 17 编译，所以反射调用 */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** 开启 messageId 去重：窗口内重复的消息直接 ACK，跳过广播和统计更新 */
+    public void setDedup(DedupCache dedup) {
+        this.dedup = dedup;
+    }
+
+    /** 每条进入写缓冲的消息计入内存 top-K（重复消息不计） */
+    public void setTopK(ActivityTopK topK) {
+        this.topK = topK;
+    }
+
+    public boolean isVirtual() {
+        return virtualExecutor != null;
+    }
+
+    /**
+     * 在线调整 worker 数量：不关闭 channel、不重新订阅，正在处理的消息不受影响。
+     * 虚拟线程模式下调整的是并发上限。
+     */
+    public void resize(int threads) {
+        if (limiter != null) {
+            limiter.resize(threads);
+            return;
+        }
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
+    public int threads() {
+        return limiter != null ? limiter.limit() : pool.getCorePoolSize();
+    }
+
+    /** 正在执行 handle 的 worker 数 */
+    public int activeWorkers() {
+        return limiter != null ? Math.max(0, limiter.limit() - limiter.availablePermits()) : pool.getActiveCount();
+    }
+
+    /** 已投递到本地、等待 worker 的消息数 */
+    public int pendingTasks() {
+        return limiter != null ? limiter.getQueueLength() : pool.getQueue().size();
+    }
+
+    /**
+     * 取样并清零：返回上次取样以来的平均处理耗时（ms），没有消息时返回 -1
+     */
+    public double sampleAvgLatencyMs() {
+        long n = handledCount.getAndSet(0);
+        long nanos = handledNanos.getAndSet(0);
+        return n == 0 ? -1 : nanos / (double) n / 1_000_000.0;
     }
 
     public void start(List<String> roomIds) throws Exception {
-        Consumer<AckContext> handler = (ctx) -> pool.execute(() -> handle(ctx));
+        Consumer<AckContext> handler = virtualExecutor != null
+                ? (ctx) -> {
+                    final long deliveredNanos = System.nanoTime();
+                    virtualExecutor.execute(() -> handleLimited(ctx, deliveredNanos));
+                }
+                : (ctx) -> {
+                    final long deliveredNanos = System.nanoTime();
+                    pool.execute(() -> handle(ctx, deliveredNanos));
+                };
         queue.consumeRooms(roomIds, handler);
-        log.info("MessageConsumer started for rooms {}", roomIds);
+        log.info("MessageConsumer started for rooms {} ({} workers={})", roomIds,
+                virtualExecutor != null ? "virtual" : "platform", threads());
     }
 
-    private void handle(AckContext ctx) {
+    /** 虚拟线程模式：等待许可时只挂起虚拟线程，不占用载体线程 */
+    private void handleLimited(AckContext ctx, long deliveredNanos) {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            // 关闭中：不 ACK，channel 关闭后由 broker 重新投递
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            handle(ctx, deliveredNanos);
+        } finally {
+            limiter.release();
+        }
+    }
+
+    private void handle(AckContext ctx, long deliveredNanos) {
         final long tag = ctx.deliveryTag();
         final String roomId = ctx.roomId();
+        final long startNanos = System.nanoTime();
+        final PipelineMetrics metrics = PipelineMetrics.INSTANCE;
+        metrics.executorWait.recordNanos(startNanos - deliveredNanos);
+        recordQueueDwell(ctx.props(), metrics);
 
+        BroadcastProgress progress = null;
         try {
-            String body = new String(ctx.body(), StandardCharsets.UTF_8);
-            ChatMessage msg = JsonUtils.M.readValue(body, ChatMessage.class);
+            // 直接从 byte[] 流式解析持久化需要的字段，不再 new String + databind
+            byte[] body = ctx.body();
+            ChatMessage msg = JsonUtils.readChatMessage(body);
+            metrics.jsonParse.recordNanos(System.nanoTime() - startNanos);
+
+            // 重投递（或重复发布）的消息：已经成功广播并进入写缓冲，直接 ACK
+            final DedupCache seen = this.dedup;
+            final boolean checkDup = seen != null && msg.messageId != null && !msg.messageId.isEmpty();
+            if (checkDup && seen.contains(msg.messageId)) {
+                queue.ack(ctx, false);
+                if (log.isDebugEnabled()) {
+                    log.debug("Duplicate message {} skipped tag={} room={} redelivered={}",
+                            msg.messageId, tag, roomId, ctx.envelope().isRedeliver());
+                }
+                return;
+            }
 
             // 修复：从 routing key 设置 roomId（因为 Server 没有在消息体里包含它）
+            byte[] payload = body;
             if (msg.roomId == null || msg.roomId.isEmpty()) {
                 msg.roomId = roomId;
+                payload = JsonUtils.withRoomId(body, roomId);
             }
 
-            rooms.deliver(roomId, msg);
+            // 广播原始字节（仅注入 roomId），避免再序列化一次；
+            // 之前的尝试已送达的 server 不再重发（部分广播失败或广播成功、入写缓冲失败后重试）
+            if (checkDup) {
+                progress = new BroadcastProgress(seen, msg.messageId, mayBeRetry(ctx));
+            }
+            rooms.deliver(roomId, payload, progress);
 
-            boolean added = databaseWriter.addMessage(msg);
-            if (!added) {
+            // databaseWriter 为 null 时不持久化（例如只测广播吞吐的 benchmark）
+            if (databaseWriter != null && !databaseWriter.addMessage(msg)) {
                 log.warn("Failed to add message to database buffer, buffer might be full");
             }
+            final ActivityTopK activity = this.topK;
+            if (activity != null) {
+                activity.record(msg);
+            }
+
+            // 只有成功处理后才记为已见过；失败重试的消息不会被误判为重复
+            if (checkDup) {
+                seen.add(msg.messageId);
+            }
 
             queue.ack(ctx, false);
             if (log.isDebugEnabled()) {
                 log.debug("ACKed message tag={} room={}", tag, roomId);
             }
 
+        } catch (JsonProcessingException e) {
+            // 消息体损坏：重试没有意义，直接 park
+            try {
+                queue.park(ctx, e.getOriginalMessage());
+            } catch (Exception ex) {
+                nackQuietly(ctx, false);
+            }
+            log.error("Malformed message for room {} tag={}: {}", roomId, tag, e.getOriginalMessage());
         } catch (Exception e) {
+            if (progress != null) {
+                progress.remember();
+            }
+            // 延迟重试（超过上限进入 parking 队列），不再原地 requeue 造成热循环
             try {
-                queue.nack(ctx, true);
+                queue.retryLater(ctx, e.toString());
             } catch (Exception ex) {
-                log.error("Failed to NACK tag={} room={}: {}", tag, roomId, ex.toString());
+                nackQuietly(ctx, true);
             }
             log.error("Processing failed for room {} tag={}: {}", roomId, tag, e.toString(), e);
+        } finally {
+            handledNanos.addAndGet(System.nanoTime() - startNanos);
+            handledCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 队列停留时间：优先用发布端写入的 x-published-ms header（毫秒），
+     * 否则退回 AMQP timestamp（只有秒级精度）；都没有则不记录。
+     */
+    private static void recordQueueDwell(AMQP.BasicProperties props, PipelineMetrics metrics) {
+        if (props == null) return;
+        long publishedMs = -1;
+        Map<String, Object> headers = props.getHeaders();
+        Object h = headers != null ? headers.get("x-published-ms") : null;
+        if (h instanceof Number) {
+            publishedMs = ((Number) h).longValue();
+        } else if (props.getTimestamp() != null) {
+            publishedMs = props.getTimestamp().getTime();
+        }
+        if (publishedMs > 0) {
+            metrics.queueDwell.recordMillis(System.currentTimeMillis() - publishedMs);
+        }
+    }
+
+    /** 重投递或延迟重试回来的消息才需要查之前的广播进度 */
+    private static boolean mayBeRetry(AckContext ctx) {
+        if (ctx.envelope() != null && ctx.envelope().isRedeliver()) return true;
+        Map<String, Object> headers = ctx.props() != null ? ctx.props().getHeaders() : null;
+        return headers != null && (headers.containsKey("x-retry-count") || headers.containsKey("x-death"));
+    }
+
+    /**
+     * 一条消息的广播进度：本次尝试送达的 server 先记在本地，只有处理失败（要重试）时才写进去重表，
+     * 成功的消息仍然只占一条记录；重试时跳过去重表里已送达的 server。
+     */
+    private static final class BroadcastProgress implements Broadcaster.DeliveryLog {
+        private final DedupCache seen;
+        private final String messageId;
+        private final boolean mayBeRetry;
+        private List<String> delivered;
+
+        BroadcastProgress(DedupCache seen, String messageId, boolean mayBeRetry) {
+            this.seen = seen;
+            this.messageId = messageId;
+            this.mayBeRetry = mayBeRetry;
+        }
+
+        @Override
+        public boolean delivered(String server) {
+            return mayBeRetry && seen.containsStage(messageId, server);
+        }
+
+        @Override
+        public void markDelivered(String server) {
+            if (delivered == null) delivered = new ArrayList<>(2);
+            delivered.add(server);
+        }
+
+        void remember() {
+            if (delivered == null) return;
+            for (String server : delivered) {
+                seen.addStage(messageId, server);
+            }
+        }
+    }
+
+    private void nackQuietly(AckContext ctx, boolean requeue) {
+        try {
+            queue.nack(ctx, requeue);
+        } catch (Exception ex) {
+            log.error("Failed to NACK tag={} room={}: {}", ctx.deliveryTag(), ctx.roomId(), ex.toString());
         }
     }
 
     @Override
     public void close() {
         log.info("Closing MessageConsumer...");
-        pool.shutdownNow();
+        if (pool != null) {
+            pool.shutdownNow();
+        } else {
+            virtualExecutor.shutdownNow();
+        }
 
         if (databaseWriter != null) {
             try {
@@ -0,0 +1,234 @@
+package chat.consumer.persistence;
+
+import chat.consumer.model.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageSpoolTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private static ChatMessage message(int i) {
+        ChatMessage m = new ChatMessage();
+        m.messageId = "msg-" + i;
+        m.roomId = String.valueOf(i % 5 + 1);
+        m.userId = String.valueOf(i);
+        m.username = "user" + i;
+        m.message = "hello 你好 " + i;
+        m.timestamp = "2026-01-01T00:00:00.000";
+        m.messageType = "TEXT";
+        m.serverId = "server-1";
+        m.clientIp = null;
+        return m;
+    }
+
+    /** 第 batch 批：10 条，messageId 连续 */
+    private static List<ChatMessage> batch(int batch) {
+        List<ChatMessage> out = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            out.add(message(batch * 10 + i));
+        }
+        return out;
+    }
+
+    private static List<String> ids(List<ChatMessage> messages) {
+        List<String> out = new ArrayList<>();
+        for (ChatMessage m : messages) {
+            out.add(m.messageId);
+        }
+        return out;
+    }
+
+    private static List<Path> segmentFiles(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    @Test
+    void appendNextCommitAcrossSegmentRoll() throws IOException {
+        Path dir = Files.createTempDirectory("spool-test");
+        try (MessageSpool spool = new MessageSpool(dir, SEGMENT_BYTES, 64L * SEGMENT_BYTES)) {
+            // 一批约 1KB：十批要滚动好几个段
+            for (int b = 0; b < 10; b++) {
+                assertTrue(spool.append(batch(b)));
+            }
+            assertEquals(100, spool.pending());
+            assertTrue(segmentFiles(dir).size() > 1);
+
+            for (int b = 0; b < 10; b++) {
+                MessageSpool.Batch next = spool.next();
+                assertNotNull(next, "batch " + b);
+                assertEquals(ids(batch(b)), ids(next.messages));
+                // commit 之前 next 读到的仍是同一批
+                assertEquals(ids(next.messages), ids(spool.next().messages));
+                spool.commit(next);
+            }
+            assertNull(spool.next());
+            assertEquals(0, spool.pending());
+            // 读完的只读段已删除，只剩正在写的段
+            assertEquals(1, segmentFiles(dir).size());
+
+            MessageSpool.SpoolStats stats = spool.stats();
+            assertEquals(100, stats.spooledMessages);
+            assertEquals(100, stats.replayedMessages);
+            assertEquals(0, stats.corruptRecords);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void fieldsRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("spool-test");
+        try (MessageSpool spool = new MessageSpool(dir, SEGMENT_BYTES, 4L * SEGMENT_BYTES)) {
+            assertTrue(spool.append(List.of(message(7))));
+            ChatMessage m = spool.next().messages.get(0);
+            assertEquals("msg-7", m.messageId);
+            assertEquals("3", m.roomId);
+            assertEquals("7", m.userId);
+            assertEquals("user7", m.username);
+            assertEquals("hello 你好 7", m.message);
+            assertEquals("2026-01-01T00:00:00.000", m.timestamp);
+            assertEquals("TEXT", m.messageType);
+            assertEquals("server-1", m.serverId);
+            assertNull(m.clientIp);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void reopenResumesFromCommittedOffset() throws IOException {
+        Path dir = Files.createTempDirectory("spool-test");
+        try {
+            try (MessageSpool spool = new MessageSpool(dir, SEGMENT_BYTES, 64L * SEGMENT_BYTES)) {
+                for (int b = 0; b < 6; b++) {
+                    assertTrue(spool.append(batch(b)));
+                }
+                spool.commit(spool.next());
+                spool.commit(spool.next());
+                // 读出但没有 commit（例如写库失败后进程退出）：重启后必须重放
+                assertEquals(ids(batch(2)), ids(spool.next().messages));
+            }
+
+            try (MessageSpool spool = new MessageSpool(dir, SEGMENT_BYTES, 64L * SEGMENT_BYTES)) {
+                assertEquals(40, spool.pending());
+                assertEquals(ids(batch(2)), ids(spool.next().messages));
+                spool.commit(spool.next());
+
+                // 重启后的新写入排在旧数据后面
+                assertTrue(spool.append(batch(6)));
+                for (int b = 3; b <= 6; b++) {
+                    MessageSpool.Batch next = spool.next();
+                    assertEquals(ids(batch(b)), ids(next.messages));
+                    spool.commit(next);
+                }
+                assertNull(spool.next());
+                assertEquals(0, spool.pending());
+            }
+
+            // 全部 commit 过的段在重启时直接删除
+            try (MessageSpool spool = new MessageSpool(dir, SEGMENT_BYTES, 64L * SEGMENT_BYTES)) {
+                assertEquals(0, spool.pending());
+                assertNull(spool.next());
+            }
+            assertTrue(segmentFiles(dir).isEmpty());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void corruptPayloadStopsReadingAtThatRecord() throws IOException {
+        Path dir = Files.createTempDirectory("spool-test");
+        try {
+            try (MessageSpool spool = new MessageSpool(dir, SEGMENT_BYTES, 64L * SEGMENT_BYTES)) {
+                for (int b = 0; b < 3; b++) {
+                    assertTrue(spool.append(batch(b)));
+                }
+            }
+            List<Path> files = segmentFiles(dir);
+            assertEquals(1, files.size());
+
+            // 翻转第二条记录正文里的一个字节
+            int first = MessageSpool.encode(batch(0)).length;
+            long offset = HEADER_BYTES + RECORD_HEADER_BYTES + first + RECORD_HEADER_BYTES + 20;
+            try (FileChannel ch = FileChannel.open(files.get(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer b = ByteBuffer.allocate(1);
+                ch.read(b, offset);
+                b.put(0, (byte) (b.get(0) ^ 0x01));
+                b.rewind();
+                ch.write(b, offset);
+            }
+
+            try (MessageSpool spool = new MessageSpool(dir, SEGMENT_BYTES, 64L * SEGMENT_BYTES)) {
+                // 只剩损坏记录之前的一批，之后（包括完好的第三批）都不再读
+                assertEquals(10, spool.pending());
+                assertTrue(spool.stats().corruptRecords > 0);
+                MessageSpool.Batch next = spool.next();
+                assertEquals(ids(batch(0)), ids(next.messages));
+                spool.commit(next);
+                assertNull(spool.next());
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    @Test
+    void appendFailsOnceMaxSegmentsAreFull() throws IOException {
+        Path dir = Files.createTempDirectory("spool-test");
+        // 上限 2 个段
+        try (MessageSpool spool = new MessageSpool(dir, SEGMENT_BYTES, 2L * SEGMENT_BYTES)) {
+            int appended = 0;
+            while (spool.append(batch(appended))) {
+                appended++;
+                assertTrue(appended < 100, "spool never filled up");
+            }
+            assertTrue(appended >= 2);
+            assertEquals(2, segmentFiles(dir).size());
+            assertEquals(10, spool.stats().rejectedMessages);
+            assertEquals(appended * 10L, spool.pending());
+            assertFalse(spool.append(batch(appended)));
+
+            // 重放完第一个段后它被删除，又能写了
+            for (int b = 0; b < appended; b++) {
+                MessageSpool.Batch next = spool.next();
+                assertEquals(ids(batch(b)), ids(next.messages));
+                spool.commit(next);
+            }
+            assertNull(spool.next());
+            assertTrue(spool.append(batch(appended)));
+            assertEquals(ids(batch(appended)), ids(spool.next().messages));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+}
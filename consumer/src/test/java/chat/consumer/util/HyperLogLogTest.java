@@ -0,0 +1,136 @@
+package chat.consumer.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private static HyperLogLog sketchOf(int from, int to) {
+        HyperLogLog h = new HyperLogLog();
+        for (int i = from; i < to; i++) {
+            h.add("user-" + i);
+        }
+        return h;
+    }
+
+    @Test
+    void emptySketchEstimatesZero() {
+        HyperLogLog h = new HyperLogLog();
+        assertTrue(h.isEmpty());
+        assertEquals(0, h.estimate());
+    }
+
+    @Test
+    void estimateStaysWithinThreeStandardErrors() {
+        // p=12：标准误差约 1.6%，3 倍约 4.9%
+        for (int n : new int[]{10, 100, 1_000, 10_000, 100_000}) {
+            long estimate = sketchOf(0, n).estimate();
+            double error = Math.abs(estimate - n) / (double) n;
+            assertTrue(error < 0.05, "n=" + n + " estimate=" + estimate);
+        }
+    }
+
+    @Test
+    void duplicatesDoNotChangeEstimate() {
+        HyperLogLog h = sketchOf(0, 1_000);
+        long before = h.estimate();
+        for (int i = 0; i < 1_000; i++) {
+            h.add("user-" + i);
+        }
+        assertEquals(before, h.estimate());
+    }
+
+    @Test
+    void mergeEqualsSketchOfUnion() {
+        HyperLogLog a = sketchOf(0, 6_000);
+        HyperLogLog b = sketchOf(4_000, 10_000);
+        a.merge(b);
+        assertArrayEquals(sketchOf(0, 10_000).toBytes(), a.toBytes());
+    }
+
+    @Test
+    void mergeRejectsDifferentPrecision() {
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(12).merge(new HyperLogLog(10)));
+    }
+
+    @Test
+    void sparseRoundTrip() {
+        HyperLogLog h = sketchOf(0, 50);
+        byte[] data = h.toBytes();
+        assertEquals(SPARSE, data[1]);
+        assertTrue(data.length < 2 + 4096);
+
+        HyperLogLog copy = HyperLogLog.fromBytes(data);
+        assertEquals(h.estimate(), copy.estimate());
+        assertArrayEquals(data, copy.toBytes());
+    }
+
+    @Test
+    void denseRoundTrip() {
+        HyperLogLog h = sketchOf(0, 20_000);
+        byte[] data = h.toBytes();
+        assertEquals(DENSE, data[1]);
+        assertEquals(2 + 4096, data.length);
+
+        HyperLogLog copy = HyperLogLog.fromBytes(data);
+        assertEquals(h.estimate(), copy.estimate());
+        assertArrayEquals(data, copy.toBytes());
+    }
+
+    @Test
+    void mergeOfDeserializedSparseAndDense() {
+        HyperLogLog dense = HyperLogLog.fromBytes(sketchOf(0, 20_000).toBytes());
+        HyperLogLog sparse = HyperLogLog.fromBytes(sketchOf(19_990, 20_040).toBytes());
+        dense.merge(sparse);
+        assertArrayEquals(sketchOf(0, 20_040).toBytes(), dense.toBytes());
+
+        // 反过来：稀疏草图并入稠密后变成稠密编码
+        HyperLogLog small = HyperLogLog.fromBytes(sketchOf(19_990, 20_040).toBytes());
+        small.merge(HyperLogLog.fromBytes(sketchOf(0, 20_000).toBytes()));
+        byte[] merged = small.toBytes();
+        assertEquals(DENSE, merged[1]);
+        assertArrayEquals(sketchOf(0, 20_040).toBytes(), merged);
+    }
+
+    @Test
+    void emptySketchRoundTrip() {
+        HyperLogLog copy = HyperLogLog.fromBytes(new HyperLogLog().toBytes());
+        assertTrue(copy.isEmpty());
+        assertFalse(sketchOf(0, 1).isEmpty());
+    }
+
+    @Test
+    void fromBytesRejectsMalformedInput() {
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(null));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{12}));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{12, 7}));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{12, DENSE, 1, 2}));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{2, DENSE}));
+    }
+
+    @Test
+    void fromBytesRejectsOutOfRangeSparseEntries() {
+        // p=12：下标必须 < 4096，值不超过 64-12+1=53
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{12, SPARSE, 0x10, 0, 1}));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{12, SPARSE, 0, 1, 54}));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{12, SPARSE, 0, 1, -1}));
+        // 末尾不完整的三元组
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{12, SPARSE, 0, 1, 3, 0}));
+        assertEquals(1, HyperLogLog.fromBytes(new byte[]{12, SPARSE, 0x0F, (byte) 0xFF, 53}).estimate());
+    }
+
+    @Test
+    void fromBytesRejectsOutOfRangeDenseRegister() {
+        byte[] data = sketchOf(0, 20_000).toBytes();
+        data[2 + 7] = 54;
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(data));
+    }
+}
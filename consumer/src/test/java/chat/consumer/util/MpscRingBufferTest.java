@@ -0,0 +1,231 @@
+package chat.consumer.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscRingBufferTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 50_000;
+
+    /** 元素 = 生产者编号 * PER_PRODUCER + 序号；满了让出 CPU 重试 */
+    private static List<Thread> startProducers(CountDownLatch go, LongPredicate offer) {
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            long base = (long) p * PER_PRODUCER;
+            Thread t = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < PER_PRODUCER; i++) {
+                    while (!offer.test(base + i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        return threads;
+    }
+
+    /** 每个生产者的元素都到齐且保持各自的发布顺序 */
+    private static void assertPerProducerOrder(long[] next) {
+        for (int p = 0; p < PRODUCERS; p++) {
+            assertEquals((long) (p + 1) * PER_PRODUCER, next[p], "producer " + p);
+        }
+    }
+
+    private static void accept(long[] next, long v) {
+        int p = (int) (v / PER_PRODUCER);
+        assertEquals(next[p], v, "producer " + p + " out of order");
+        next[p] = v + 1;
+    }
+
+    @Test
+    @Timeout(60)
+    void multipleProducersSingleConsumer() throws Exception {
+        MpscRingBuffer<Long> ring = new MpscRingBuffer<>(1024, MpscRingBuffer.WaitStrategy.PARK);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> producers = startProducers(go, ring::offer);
+
+        long[] next = new long[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            next[p] = (long) p * PER_PRODUCER;
+        }
+        go.countDown();
+        int received = 0;
+        while (received < PRODUCERS * PER_PRODUCER) {
+            received += ring.drain(v -> accept(next, v), 256, TimeUnit.SECONDS.toNanos(5));
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+
+        assertPerProducerOrder(next);
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.drain(v -> { }, 256, 0));
+    }
+
+    @Test
+    @Timeout(60)
+    void multipleProducersSingleConsumerThroughSlots() throws Exception {
+        MpscRingBuffer<Void> ring = new MpscRingBuffer<>(1000, MpscRingBuffer.WaitStrategy.YIELD);
+        long[] store = new long[ring.slots()];
+        MpscRingBuffer.SlotWriter<Long> writer = (slot, v) -> store[slot] = v;
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> producers = startProducers(go, v -> ring.offer(writer, v));
+
+        long[] next = new long[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            next[p] = (long) p * PER_PRODUCER;
+        }
+        go.countDown();
+        int received = 0;
+        while (received < PRODUCERS * PER_PRODUCER) {
+            received += ring.drainSlots(slot -> accept(next, store[slot]), 256, TimeUnit.SECONDS.toNanos(5));
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+
+        assertPerProducerOrder(next);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void offerFailsWhenFullAndRecoversAfterDrain() throws Exception {
+        // 容量 5，槽位向上取整到 8：满的判断按容量，不按槽位数
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(5, MpscRingBuffer.WaitStrategy.PARK);
+        assertEquals(5, ring.capacity());
+        assertEquals(8, ring.slots());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(5));
+        assertFalse(ring.offer((slot, v) -> failIfCalled(), 5));
+        assertEquals(5, ring.size());
+
+        List<Integer> out = new ArrayList<>();
+        assertEquals(2, ring.drain(out::add, 2, 0));
+        assertEquals(List.of(0, 1), out);
+        assertTrue(ring.offer(5));
+        assertTrue(ring.offer(6));
+        assertFalse(ring.offer(7));
+
+        out.clear();
+        assertEquals(5, ring.drain(out::add, 100, 0));
+        assertEquals(List.of(2, 3, 4, 5, 6), out);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void wrapsAroundManyTimes() throws Exception {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(3, MpscRingBuffer.WaitStrategy.BUSY_SPIN);
+        AtomicInteger expected = new AtomicInteger();
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(ring.offer(i));
+            if (i % 3 == 2) {
+                assertEquals(3, ring.drain(v -> assertEquals(expected.getAndIncrement(), v.intValue()), 3, 0));
+            }
+        }
+        assertEquals(1, ring.drain(v -> assertEquals(expected.getAndIncrement(), v.intValue()), 3, 0));
+        assertEquals(1_000, expected.get());
+    }
+
+    @Test
+    void slotWriterExceptionStillPublishes() throws Exception {
+        MpscRingBuffer<Void> ring = new MpscRingBuffer<>(4, MpscRingBuffer.WaitStrategy.PARK);
+        assertThrows(IllegalStateException.class, () -> ring.offer((slot, v) -> {
+            throw new IllegalStateException("boom");
+        }, "x"));
+        // 槽位已发布：消费者能越过它，不会卡住
+        assertTrue(ring.offer((slot, v) -> { }, "y"));
+        assertEquals(2, ring.drainSlots(slot -> { }, 10, 0));
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    @Timeout(10)
+    void parkedConsumerWakesUpOnOffer() throws Exception {
+        MpscRingBuffer<String> ring = new MpscRingBuffer<>(16, MpscRingBuffer.WaitStrategy.PARK);
+        AtomicReference<String> got = new AtomicReference<>();
+        AtomicLong wokeAt = new AtomicLong();
+        Thread consumer = new Thread(() -> {
+            try {
+                ring.drain(got::set, 1, TimeUnit.SECONDS.toNanos(30));
+                wokeAt.set(System.nanoTime());
+            } catch (InterruptedException ignored) {
+            }
+        });
+        consumer.start();
+
+        // 等消费者自旋完进入 park（park 分段进行，中间会短暂醒来，所以只等到看见一次）
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (consumer.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(consumer.isAlive());
+        assertNull(got.get());
+
+        long offeredAt = System.nanoTime();
+        assertTrue(ring.offer("hello"));
+        consumer.join(5_000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals("hello", got.get());
+        // 远早于 30s 的等待上限返回
+        assertTrue(wokeAt.get() - offeredAt < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    @Timeout(10)
+    void drainTimesOutWhenEmpty() throws Exception {
+        MpscRingBuffer<String> ring = new MpscRingBuffer<>(16, MpscRingBuffer.WaitStrategy.PARK);
+        long start = System.nanoTime();
+        assertEquals(0, ring.drain(s -> { }, 10, TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    @Timeout(10)
+    void interruptedConsumerStopsWaiting() throws Exception {
+        MpscRingBuffer<String> ring = new MpscRingBuffer<>(16, MpscRingBuffer.WaitStrategy.PARK);
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                ring.drain(s -> { }, 10, TimeUnit.SECONDS.toNanos(30));
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        consumer.interrupt();
+        consumer.join(5_000);
+
+        assertFalse(consumer.isAlive());
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+
+    private static void failIfCalled() {
+        throw new AssertionError("writer must not run when the ring is full");
+    }
+}
@@ -1,5 +1,6 @@
 package com.chatflow.server.mq;
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
@@ -10,6 +11,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.Date;
+import java.util.Map;
+
 /**
  * 把收到的客户端消息发布到 RabbitMQ 的 chat.exchange。
  */
@@ -59,7 +63,13 @@ public class MqPublisher {
         try {
             String routingKey = "room." + roomId;
             byte[] body = messageJson.getBytes();
-            channel.basicPublish(exchange, routingKey, null, body);
+            // 发布时间：consumer 用来统计队列停留时间（AMQP timestamp 只有秒级，毫秒放在 header）
+            long now = System.currentTimeMillis();
+            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                    .timestamp(new Date(now))
+                    .headers(Map.of("x-published-ms", now))
+                    .build();
+            channel.basicPublish(exchange, routingKey, props, body);
             log.info("[PUBLISH] room={} bytes={}", roomId, body.length);
         } catch (Exception e) {
             log.error("[ERROR] publish failed", e);